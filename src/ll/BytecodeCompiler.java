@@ -0,0 +1,148 @@
+package ll;
+
+import utils.*;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+// Compiles an LL(1) table into bytecode that runs the predictive parser without a
+// symbol stack. Each non-terminal is a block that switches on the lookahead to one of
+// its productions, and a production's code matches its terminals in line and jumps to
+// the block of each non-terminal. Before such a jump it pushes a continuation, the id
+// of the code that follows, so the stack only holds return points. A non-terminal at
+// the end of a production needs none: that jump is a tail call.
+//
+//   non-terminal A: switch (token) { predicted p -> production p | error }
+//   production p:   match terminals, push continuations, jump to non-terminals,
+//                   then return
+//   return:         pop a continuation and switch to it; continuation 0 accepts if
+//                   the input is exhausted
+final class BytecodeCompiler {
+    // Locals of the compiled parse(int[] tokens, int length)
+    private static final int TOKENS = 1;
+    private static final int LENGTH = 2;
+    private static final int STACK = 3;
+    private static final int TOP = 4;
+    private static final int POSITION = 5;
+    private static final int TOKEN = 6;
+
+    private BytecodeCompiler() {
+    }
+
+    // Throws IllegalStateException if the code is too large for HotSpot to JIT-compile,
+    // or the JVM rejects the class
+    static CompiledParser compile(ParsingTable table) {
+        Grammar grammar = table.getGrammar();
+        int terminalColumns = grammar.getTerminalCount() + 1;
+        int eof = grammar.getEndMarkerId();
+
+        ClassAssembler asm = new ClassAssembler("ll/CompiledLLParser", "utils/CompiledParser", "parse", "([II)Z",
+                                                4, "[I", "I", "[I", "I", "I", "I");
+        ClassAssembler.Label[] nonTerminalLabels = new ClassAssembler.Label[grammar.getNonTerminalCount()];
+        for (int n = 0; n < nonTerminalLabels.length; n++) {
+            nonTerminalLabels[n] = asm.newLabel();
+        }
+        ClassAssembler.Label[] productionLabels = new ClassAssembler.Label[grammar.getProductionCount()];
+        for (int p = 0; p < productionLabels.length; p++) {
+            productionLabels[p] = asm.newLabel();
+        }
+        List<ClassAssembler.Label> continuations = new ArrayList<>();
+        ClassAssembler.Label done = asm.newLabel();
+        continuations.add(done);
+        ClassAssembler.Label ret = asm.newLabel();
+        ClassAssembler.Label error = asm.newLabel();
+
+        // stack = new int[64] holding continuation 0; top = 0; position = 0;
+        // token = length > 0 ? tokens[0] : EOF
+        asm.pushInt(64);
+        asm.newIntArray();
+        asm.storeReference(STACK);
+        asm.pushInt(0);
+        asm.storeInt(TOP);
+        asm.pushInt(0);
+        asm.storeInt(POSITION);
+        asm.pushInt(eof);
+        asm.storeInt(TOKEN);
+        ClassAssembler.Label start = asm.newLabel();
+        asm.loadInt(LENGTH);
+        asm.branch(ClassAssembler.IFLE, start);
+        asm.loadReference(TOKENS);
+        asm.pushInt(0);
+        asm.op(ClassAssembler.IALOAD);
+        asm.storeInt(TOKEN);
+        asm.mark(start);
+        asm.jump(nonTerminalLabels[grammar.getStartSymbol().getId()]);
+
+        int[] keys = new int[terminalColumns];
+        ClassAssembler.Label[] targets = new ClassAssembler.Label[terminalColumns];
+        for (int n = 0; n < nonTerminalLabels.length; n++) {
+            asm.mark(nonTerminalLabels[n]);
+            int count = 0;
+            for (int t = 0; t < terminalColumns; t++) {
+                int prodIndex = table.predict(n, t);
+                if (prodIndex >= 0) {
+                    keys[count] = t;
+                    targets[count++] = productionLabels[prodIndex];
+                }
+            }
+            asm.loadInt(TOKEN);
+            asm.switchOn(Arrays.copyOf(keys, count), Arrays.copyOf(targets, count), error);
+        }
+
+        for (Production prod : grammar.getProductions()) {
+            asm.mark(productionLabels[prod.getIndex()]);
+            int length = prod.getRightSideLength();
+            boolean tailCall = false;
+            for (int i = 0; i < length; i++) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                if (symbol.isTerminal()) {
+                    // A leading terminal was matched by the prediction switch
+                    if (i > 0) {
+                        ClassAssembler.Label matched = asm.newLabel();
+                        asm.loadInt(TOKEN);
+                        asm.pushInt(symbol.getId());
+                        asm.branch(ClassAssembler.IF_ICMPEQ, matched);
+                        asm.jump(error);
+                        asm.mark(matched);
+                    }
+                    asm.readNextToken(TOKENS, LENGTH, POSITION, TOKEN, eof);
+                } else if (i == length - 1) {
+                    asm.jump(nonTerminalLabels[symbol.getId()]);
+                    tailCall = true;
+                } else {
+                    ClassAssembler.Label continuation = asm.newLabel();
+                    asm.pushOnStack(STACK, TOP, continuations.size());
+                    continuations.add(continuation);
+                    asm.jump(nonTerminalLabels[symbol.getId()]);
+                    asm.mark(continuation);
+                }
+            }
+            if (!tailCall) {
+                asm.jump(ret);
+            }
+        }
+
+        // continuation = stack[top--]
+        asm.mark(ret);
+        asm.loadReference(STACK);
+        asm.loadInt(TOP);
+        asm.op(ClassAssembler.IALOAD);
+        asm.increment(TOP, -1);
+        int[] continuationIds = new int[continuations.size()];
+        for (int c = 0; c < continuationIds.length; c++) {
+            continuationIds[c] = c;
+        }
+        asm.switchOn(continuationIds, continuations.toArray(new ClassAssembler.Label[0]), error);
+
+        asm.mark(done);
+        asm.loadInt(TOKEN);
+        asm.pushInt(eof);
+        asm.branch(ClassAssembler.IF_ICMPNE, error);
+        asm.pushInt(1);
+        asm.op(ClassAssembler.IRETURN);
+        asm.mark(error);
+        asm.pushInt(0);
+        asm.op(ClassAssembler.IRETURN);
+
+        return asm.define(MethodHandles.lookup(), CompiledParser.class);
+    }
+}
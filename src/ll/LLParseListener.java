@@ -0,0 +1,16 @@
+package ll;
+
+// Receives the steps of an LL parse as they happen, instead of a tree: each
+// non-terminal is entered when its production is predicted and exited after the last
+// symbol of that production, with its tokens and nested non-terminals in between, so
+// events nest like the parse tree in pre-order. Arguments are primitive, so the parser
+// allocates nothing per event.
+public interface LLParseListener {
+    void enterNonTerminal(int nonTerminalId, int productionIndex);
+
+    void exitNonTerminal(int nonTerminalId);
+
+    // offset is the token's position in the input: its index in a token array, or the
+    // offset reported by the TokenSource
+    void token(int terminalId, long offset);
+}
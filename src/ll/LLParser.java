@@ -1,60 +1,497 @@
 package ll;
 
 import utils.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
+// Parsers are immutable apart from compile(), which any thread may call, so one parser
+// and its table can be shared by every thread of a JVM. The stack of a parse lives in
+// a ParseContext: methods without one create their own, and a thread that parses
+// repeatedly can pass the same context each time to reuse its stack.
 public class LLParser {
+    private static final int DEFAULT_STACK_SIZE = 64;
+
     private final Grammar grammar;
     private final ParsingTable parsingTable;
-    private final Symbol EOF = new Symbol("$", true);
+    private final int[] rightSides;
+    private final int startCode;
+    private final int initialStackSize;
+    // FIRST and FOLLOW set of each non-terminal, for recovery
+    private final long[][] firstSets;
+    private final long[][] followSets;
+    private volatile CompiledParser compiledParser;
 
     public LLParser(Grammar grammar) {
-        this.grammar = grammar;
-        FirstFollowCalculator calculator = new FirstFollowCalculator(grammar);
-        this.parsingTable = new ParsingTable(grammar, calculator);
+        this(new ParsingTable(grammar, new FirstFollowCalculator(grammar)));
+    }
+
+    // Parser over a prebuilt table, e.g. loaded with ParsingTable.load()
+    public LLParser(ParsingTable parsingTable) {
+        this.grammar = parsingTable.getGrammar();
+        this.parsingTable = parsingTable;
+        this.rightSides = parsingTable.getRightSides();
+        this.startCode = ~grammar.getStartSymbol().getId();
+
+        // Grammars without unbounded nesting never need more than their derivation depth
+        int depth = parsingTable.getMaxStackDepth();
+        this.initialStackSize = depth > 0 ? depth : DEFAULT_STACK_SIZE;
+
+        this.firstSets = new long[grammar.getNonTerminalCount()][];
+        this.followSets = new long[grammar.getNonTerminalCount()][];
+        for (int n = 0; n < followSets.length; n++) {
+            firstSets[n] = grammar.getAnalysis().getFirstSet(n);
+            followSets[n] = grammar.getAnalysis().getFollowSet(n);
+        }
+    }
+
+    // Parser whose table comes from the default table cache when it has it, and is
+    // built and added to it otherwise
+    public static LLParser create(Grammar grammar) {
+        return create(grammar, TableCache.getDefault());
+    }
+
+    public static LLParser create(Grammar grammar, TableCache cache) {
+        Path path = cache.getPath(grammar, "LL(1)");
+        if (Files.isRegularFile(path)) {
+            try {
+                return new LLParser(ParsingTable.load(path, grammar));
+            } catch (IOException e) {
+                // Unreadable or stale entry: rebuild and replace it
+            }
+        }
+        LLParser parser = new LLParser(grammar);
+        cache.store(path, parser.getParsingTable()::save);
+        return parser;
+    }
+
+    public ParsingTable getParsingTable() {
+        return parsingTable;
+    }
+
+    // Compiles the table into a class of its own, which parse(int[], int) then runs
+    // instead of interpreting it. Returns false, leaving the parser interpreting, if
+    // the grammar is too large for one JIT-compiled method.
+    public boolean compile() {
+        if (compiledParser == null) {
+            try {
+                compiledParser = BytecodeCompiler.compile(parsingTable);
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isCompiled() {
+        return compiledParser != null;
+    }
+
+    // A context whose stack is already as deep as this grammar's parses can get, if
+    // the grammar's nesting is bounded
+    public ParseContext newContext() {
+        return new ParseContext(initialStackSize);
     }
 
     public boolean parse(List<Symbol> input) {
-        // Add EOF to input
-        input = new ArrayList<>(input);
-        input.add(EOF);
-        
-        // Initialize stack with EOF and start symbol
-        Stack<Symbol> stack = new Stack<>();
-        stack.push(EOF);
-        stack.push(grammar.getStartSymbol());
-        
-        int inputIndex = 0;
-        
-        while (!stack.isEmpty()) {
-            Symbol top = stack.peek();
-            Symbol currentInput = input.get(inputIndex);
-            
-            if (top.isTerminal()) {
-                if (top.equals(currentInput)) {
-                    stack.pop();
-                    inputIndex++;
-                } else {
-                    return false; // Parsing error
+        int[] tokens = new int[input.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = grammar.getTerminalId(input.get(i));
+            if (tokens[i] < 0) {
+                return false; // Unknown terminal
+            }
+        }
+        return parse(tokens, tokens.length);
+    }
+
+    // Parses a sequence of terminal ids (all of which must belong to the grammar).
+    // The end marker is implied after the last token.
+    public boolean parse(int[] tokens, int length) {
+        return parse(tokens, length, newContext());
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context) {
+        CompiledParser compiledParser = this.compiledParser;
+        if (compiledParser != null) {
+            return compiledParser.parse(tokens, length);
+        }
+        return run(tokens, length, context, null, null);
+    }
+
+    // Parses tokens pulled from a source one at a time (all of which must belong to the
+    // grammar), so memory use does not grow with the length of the input
+    public boolean parse(TokenSource source) throws IOException {
+        return parse(source, newContext());
+    }
+
+    public boolean parse(TokenSource source, ParseContext context) throws IOException {
+        return run(source, context, null, null);
+    }
+
+    // Parses while reporting every predicted production, completed non-terminal and
+    // matched token to a listener. A failed parse returns false after the events up to
+    // the error. Always interprets the table.
+    public boolean parse(int[] tokens, int length, LLParseListener listener) {
+        return parse(tokens, length, newContext(), listener);
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context, LLParseListener listener) {
+        return run(tokens, length, context, listener, null);
+    }
+
+    public boolean parse(TokenSource source, LLParseListener listener) throws IOException {
+        return parse(source, newContext(), listener);
+    }
+
+    public boolean parse(TokenSource source, ParseContext context, LLParseListener listener) throws IOException {
+        return run(source, context, listener, null);
+    }
+
+    // Parses and builds the parse tree into an arena, replacing what it held before.
+    // The tree is complete only if the parse succeeds.
+    public boolean parse(int[] tokens, int length, ParseTree tree) {
+        tree.clear();
+        return parse(tokens, length, newContext(), new TreeBuilder(tree));
+    }
+
+    public boolean parse(TokenSource source, ParseTree tree) throws IOException {
+        tree.clear();
+        return parse(source, newContext(), new TreeBuilder(tree));
+    }
+
+    private static final class TreeBuilder implements LLParseListener {
+        private final ParseTree tree;
+
+        TreeBuilder(ParseTree tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public void enterNonTerminal(int nonTerminalId, int productionIndex) {
+            tree.enter(nonTerminalId, productionIndex);
+        }
+
+        @Override
+        public void exitNonTerminal(int nonTerminalId) {
+            tree.exit();
+        }
+
+        @Override
+        public void token(int terminalId, long offset) {
+            tree.token(terminalId, offset);
+        }
+    }
+
+    // Parses to the end of the input whatever errors it contains, adding one SyntaxError
+    // per error to errors, and returns whether there were none. Errors are repaired as
+    // they are found:
+    //   - a token that does not match the terminal on the stack is deleted if the token
+    //     after it matches; otherwise the terminal is taken as missing (inserted) if the
+    //     rest of the stack can go on with the token, and the token is deleted if not
+    //   - on a token with no prediction for the non-terminal on the stack, tokens are
+    //     skipped until one the non-terminal can start with, which resumes it, or one in
+    //     its FOLLOW set that the rest of the stack can go on with (panic mode), which
+    //     pops it as complete
+    //   - tokens left over once the stack is empty are deleted up to one the start
+    //     symbol can begin with, from which the parse starts over
+    //
+    // An input without errors goes through parse(tokens, length) as is; only after that
+    // fails is it parsed again with recovery.
+    public boolean parse(int[] tokens, int length, List<SyntaxError> errors) {
+        return parse(tokens, length, newContext(), errors);
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context, List<SyntaxError> errors) {
+        return parse(tokens, length, context) || run(tokens, length, context, null, errors);
+    }
+
+    public boolean parse(TokenSource source, List<SyntaxError> errors) throws IOException {
+        return parse(source, newContext(), errors);
+    }
+
+    public boolean parse(TokenSource source, ParseContext context, List<SyntaxError> errors) throws IOException {
+        return run(source, context, null, errors);
+    }
+
+    // Token arrays go through the same loop as any other source
+    private boolean run(int[] tokens, int length, ParseContext context, LLParseListener listener,
+                        List<SyntaxError> errors) {
+        try {
+            return run(TokenSource.of(tokens, length), context, listener, errors);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The one parsing loop behind every parse method. Without a listener or an error
+    // list it only recognizes the input; with a listener it reports the parse as it
+    // goes, and with an error list it recovers from errors instead of stopping at the
+    // first one.
+    private boolean run(TokenSource source, ParseContext context, LLParseListener listener,
+                        List<SyntaxError> errors) throws IOException {
+        int eof = grammar.getEndMarkerId();
+        // With a listener, below each right side the stack holds exitBase + the
+        // non-terminal it expands, popped once the right side is done
+        int exitBase = eof + 1;
+        // Recovery reads a token ahead to decide on a deletion, through a wrapper put
+        // around the source at the first error
+        LookaheadSource lookahead = null;
+        int currentInput = nextTerminal(source, eof);
+        int errorCount = errors != null ? errors.size() : 0;
+        // Tokens consumed, and their number and the stack height after the last repair:
+        // an error with neither smaller means the repairs are going nowhere
+        long consumed = 0;
+        long repairedAt = -1;
+        int repairedTop = 0;
+
+        // Terminals are on the stack as their id, non-terminals as ~id. End of input is
+        // a virtual sentinel: the stack never holds it, and the parse succeeds when the
+        // stack empties exactly as the input runs out.
+        int[] stack = context.getStack();
+        int top = 0;
+        stack[top++] = startCode;
+
+        while (true) {
+            if (top == 0) {
+                if (currentInput == eof) {
+                    break;
+                }
+                if (errors == null) {
+                    return false;
+                }
+                // Tokens left over: skip to one the start symbol can begin with, and parse
+                // the rest as if the input started there
+                boolean continued = consumed == repairedAt && errors.size() > errorCount;
+                long offset = source.getTokenOffset();
+                int found = currentInput;
+                int skipped = 0;
+                do {
+                    currentInput = nextTerminal(source, eof);
+                    consumed++;
+                    skipped++;
+                } while (currentInput != eof && !BitSets.get(firstSets[~startCode], currentInput));
+                new SyntaxError(offset, found, new int[] { eof }, SyntaxError.Repair.DELETED, -1, skipped)
+                    .addTo(errors, continued);
+                if (currentInput != eof) {
+                    stack[top++] = startCode;
+                }
+                repairedAt = consumed;
+                repairedTop = top;
+                continue;
+            }
+            int symbol = stack[top - 1];
+
+            if (symbol >= 0) {
+                if (symbol == currentInput) {
+                    top--;
+                    if (listener != null) {
+                        listener.token(symbol, source.getTokenOffset());
+                    }
+                    currentInput = nextTerminal(source, eof);
+                    consumed++;
+                    continue;
+                }
+                if (symbol >= exitBase) {
+                    top--;
+                    listener.exitNonTerminal(symbol - exitBase);
+                    continue;
                 }
             } else {
-                Production prod = parsingTable.getProduction(top, currentInput);
-                if (prod == null) {
-                    return false; // Parsing error
-                }
-                
-                stack.pop();
-                // Push right-hand side symbols in reverse order (only if not epsilon)
-                List<Symbol> rightSide = prod.getRightSide();
-                if (!rightSide.isEmpty()) {
-                    for (int i = rightSide.size() - 1; i >= 0; i--) {
-                        stack.push(rightSide.get(i));
+                int prodIndex = parsingTable.predict(~symbol, currentInput);
+                if (prodIndex >= 0) {
+                    // Replace the non-terminal with its right-hand side, already stored in
+                    // reverse. An epsilon production just pops the non-terminal.
+                    if (listener != null) {
+                        listener.enterNonTerminal(~symbol, prodIndex);
+                        stack[top - 1] = exitBase + ~symbol;
+                    } else {
+                        top--;
                     }
+                    int start = parsingTable.getRightSideStart(prodIndex);
+                    int rightSideLength = parsingTable.getRightSideEnd(prodIndex) - start;
+                    if (top + rightSideLength > stack.length) {
+                        stack = context.growStack(top + rightSideLength);
+                    }
+                    System.arraycopy(rightSides, start, stack, top, rightSideLength);
+                    top += rightSideLength;
+                    continue;
+                }
+            }
+            if (errors == null) {
+                return false;
+            }
+            if (lookahead == null) {
+                lookahead = new LookaheadSource(source);
+                source = lookahead;
+            }
+
+            // An error at the token of the last repair continues that error
+            boolean continued = consumed == repairedAt && errors.size() > errorCount;
+            long offset = source.getTokenOffset();
+            int found = currentInput;
+            int[] expected = expectedTerminals(symbol);
+            if (consumed == repairedAt && top > repairedTop) {
+                // The last repair got nowhere: the token has to go
+                if (currentInput == eof) {
+                    new SyntaxError(offset, found, expected, SyntaxError.Repair.ABANDONED, -1, 0)
+                        .addTo(errors, continued);
+                    return false;
+                }
+                new SyntaxError(offset, found, expected, SyntaxError.Repair.DELETED, -1, 1)
+                    .addTo(errors, continued);
+                currentInput = nextTerminal(source, eof);
+                consumed++;
+            } else if (symbol >= 0) {
+                if (currentInput != eof && (lookahead.peek(eof) == symbol ||
+                                            !canContinue(stack, top - 1, currentInput, eof))) {
+                    new SyntaxError(offset, found, expected, SyntaxError.Repair.DELETED, -1, 1)
+                        .addTo(errors, continued);
+                    currentInput = nextTerminal(source, eof);
+                    consumed++;
+                } else {
+                    new SyntaxError(offset, found, expected, SyntaxError.Repair.INSERTED, symbol, 0)
+                        .addTo(errors, continued);
+                    top--;
+                }
+            } else {
+                int skipped = 0;
+                while (currentInput != eof && !BitSets.get(firstSets[~symbol], currentInput) &&
+                       !(BitSets.get(followSets[~symbol], currentInput) &&
+                         canContinue(stack, top - 1, currentInput, eof))) {
+                    currentInput = nextTerminal(source, eof);
+                    consumed++;
+                    skipped++;
                 }
-                // If it's an epsilon production, we just pop the non-terminal without pushing anything
+                if (currentInput != eof && BitSets.get(firstSets[~symbol], currentInput)) {
+                    new SyntaxError(offset, found, expected, SyntaxError.Repair.DELETED, -1, skipped)
+                        .addTo(errors, continued);
+                } else {
+                    new SyntaxError(offset, found, expected, SyntaxError.Repair.SYNCHRONIZED, symbol, skipped)
+                        .addTo(errors, continued);
+                    top--;
+                }
+            }
+            repairedAt = consumed;
+            repairedTop = top;
+        }
+
+        return errors == null || errors.size() == errorCount;
+    }
+
+    // A source that can read one token ahead. The offset and length it reports stay
+    // those of the token last returned by nextToken(), starting with the wrapped
+    // source's current token.
+    private static final class LookaheadSource implements TokenSource {
+        private final TokenSource source;
+        private boolean peeked;
+        private int nextToken;
+        private long nextOffset;
+        private int nextLength;
+        private long offset;
+        private int length;
+
+        LookaheadSource(TokenSource source) {
+            this.source = source;
+            this.offset = source.getTokenOffset();
+            this.length = source.getTokenLength();
+        }
+
+        @Override
+        public int nextToken() throws IOException {
+            if (!peeked) {
+                peek();
+            }
+            peeked = false;
+            offset = nextOffset;
+            length = nextLength;
+            return nextToken;
+        }
+
+        // The token nextToken() will return, as a terminal id with eof at the end
+        int peek(int eof) throws IOException {
+            if (!peeked) {
+                peek();
+            }
+            return nextToken == END_OF_INPUT ? eof : nextToken;
+        }
+
+        private void peek() throws IOException {
+            nextToken = source.nextToken();
+            nextOffset = source.getTokenOffset();
+            nextLength = source.getTokenLength();
+            peeked = true;
+        }
+
+        @Override
+        public long getTokenOffset() {
+            return offset;
+        }
+
+        @Override
+        public int getTokenLength() {
+            return length;
+        }
+    }
+
+    // Whether the stack below index top can go on with a terminal: the first symbol from
+    // the top that is not predicted to derive ε on it has to match it or start with it
+    private boolean canContinue(int[] stack, int top, int terminal, int eof) {
+        for (int i = top - 1; i >= 0; i--) {
+            int symbol = stack[i];
+            if (symbol > eof) {
+                continue; // A listener's exit marker
+            }
+            if (symbol >= 0) {
+                return symbol == terminal;
             }
+            if (BitSets.get(firstSets[~symbol], terminal)) {
+                return true;
+            }
+            if (parsingTable.predict(~symbol, terminal) < 0) {
+                return false;
+            }
+        }
+        return terminal == eof;
+    }
+
+    // The terminal on the stack, or the terminals a non-terminal has predictions for
+    private int[] expectedTerminals(int symbol) {
+        if (symbol >= 0) {
+            return new int[] { symbol };
+        }
+        int[] expected = new int[grammar.getEndMarkerId() + 1];
+        int count = 0;
+        for (int t = 0; t <= grammar.getEndMarkerId(); t++) {
+            if (parsingTable.predict(~symbol, t) >= 0) {
+                expected[count++] = t;
+            }
+        }
+        return Arrays.copyOf(expected, count);
+    }
+
+    // Parses a UTF-8 file, lexed straight from its memory-mapped bytes
+    public boolean parse(Path file, Lexer lexer) throws IOException {
+        if (lexer.getGrammar() != grammar) {
+            throw new IllegalArgumentException("Lexer was generated for a different grammar");
         }
-        
-        return inputIndex == input.size();
+        return parse(lexer.tokens(file));
+    }
+
+    private static int nextTerminal(TokenSource source, int eof) throws IOException {
+        int token = source.nextToken();
+        return token == TokenSource.END_OF_INPUT ? eof : token;
+    }
+
+    // Parses independent token arrays concurrently; results[i] tells whether the i-th
+    // is accepted. All threads share this parser's table.
+    public boolean[] parseAll(Iterable<int[]> inputs) {
+        return BatchParser.parseAll(inputs, (tokens, context) -> parse(tokens, tokens.length, context));
+    }
+
+    public boolean[] parseAll(Iterable<int[]> inputs, ExecutorService executor) {
+        return BatchParser.parseAll(inputs, (tokens, context) -> parse(tokens, tokens.length, context), executor);
     }
 }
\ No newline at end of file
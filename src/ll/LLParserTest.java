@@ -2,8 +2,16 @@ package ll;
 
 import utils.*;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 public class LLParserTest {
     public static void main(String[] args) {
@@ -46,6 +54,10 @@ public class LLParserTest {
             
             // Create the parser
             LLParser parser = new LLParser(grammar);
+            Lexer lexer = LexerGenerator.generate(grammar);
+            // A second parser runs the table compiled to bytecode and must agree with it
+            LLParser compiledParser = new LLParser(grammar);
+            boolean compiled = compiledParser.compile();
             
             // Test parsing with various inputs
             String[][] testCases = {
@@ -54,31 +66,305 @@ public class LLParserTest {
                 {"id * id", "Success"},           // Multiplication
                 {"id + id * id", "Success"},      // Addition and multiplication
                 {"( id + id ) * id", "Success"},  // Parenthesized expression
+                {"(id+id)*id", "Success"},        // Tokens need no separating spaces
                 {"( id + )", "Failure"},          // Invalid expression
                 {"* id", "Failure"}               // Invalid expression
             };
             
             System.out.println("\n=== Parsing Test Cases ===");
+            System.out.println("Compiled: " + compiled);
+            System.out.println("Result: " + (compiled && compiledParser.isCompiled() ? "✓" : "✗"));
+            System.out.println();
             for (String[] testCase : testCases) {
                 String input = testCase[0];
                 String expectedResult = testCase[1];
                 
-                List<Symbol> inputSymbols = tokenizeInput(input, grammar);
+                List<Symbol> inputSymbols = tokenizeInput(input, lexer);
                 boolean result = parser.parse(inputSymbols);
+                boolean compiledResult = compiledParser.parse(inputSymbols);
                 
                 System.out.println("Input: " + input);
                 System.out.println("Expected: " + expectedResult);
                 System.out.println("Actual: " + (result ? "Success" : "Failure"));
-                System.out.println("Result: " + (expectedResult.equals(result ? "Success" : "Failure") ? "✓" : "✗"));
+                System.out.println("Same when compiled: " + (result == compiledResult));
+                boolean passed = expectedResult.equals(result ? "Success" : "Failure") && result == compiledResult;
+                System.out.println("Result: " + (passed ? "✓" : "✗"));
                 System.out.println();
             }
             
+            // Recovering parses must report each error at the right token with the right repair
+            String[][] recoveryCases = {
+                {"( id + id", "4", "INSERTED"},       // Missing ), inserted at the end
+                {"id + + id", "2", "SYNCHRONIZED"},   // Extra operator, T completed before it
+                {"id * id )", "3", "DELETED"}         // Trailing garbage, skipped
+            };
+            
+            System.out.println("=== Error Recovery Test Cases ===");
+            for (String[] testCase : recoveryCases) {
+                String input = testCase[0];
+                int[] tokens = lexer.tokenize(input);
+                List<SyntaxError> errors = new ArrayList<>();
+                boolean result = parser.parse(tokens, tokens.length, errors);
+                
+                System.out.println("Input: " + input);
+                System.out.println("Expected: error at token " + testCase[1] + ", " + testCase[2]);
+                for (SyntaxError error : errors) {
+                    System.out.println("Actual: error at token " + error.getOffset() + ", " + error.getRepair() +
+                                       " - " + error.format(grammar));
+                }
+                boolean passed = !result && errors.size() == 1 &&
+                                 errors.get(0).getOffset() == Long.parseLong(testCase[1]) &&
+                                 errors.get(0).getRepair() == SyntaxError.Repair.valueOf(testCase[2]);
+                System.out.println("Result: " + (passed ? "✓" : "✗"));
+                System.out.println();
+            }
+            
+            testParseTree(parser, lexer);
+            testParseListener(parser, lexer);
+            testTableCache(grammar, lexer, testCases);
+            
+            // Inputs are terminal names separated by spaces
+            testGeneratedParser("Expression", grammar,
+                                new String[] {"id + id * id", "( id + id ) * id", "( id + )", "* id", ""});
+            // A terminal spelled like a Unicode escape must not break the generated comments
+            testGeneratedParser("Escaped terminal", grammarOf("S -> \\u000a x S | y"),
+                                new String[] {"y", "\\u000a x y", "\\u000a x \\u000a x y", "\\u000a y", "x y"});
+            
         } catch (Exception e) {
             System.err.println("Error testing LL parser: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    // Builds parse trees into one arena and walks them with a cursor: node symbols and
+    // token spans in pre-order must be those expected, and again after clear()
+    private static void testParseTree(LLParser parser, Lexer lexer) {
+        String[][] testCases = {
+            {"id", "E[0,1) T[0,1) F[0,1) id[0,1) T'[1,1) E'[1,1)"},
+            {"( id + id ) * id", "E[0,7) T[0,7) F[0,5) ([0,1) E[1,4) T[1,2) F[1,2) id[1,2) T'[2,2) " +
+                                 "E'[2,4) +[2,3) T[3,4) F[3,4) id[3,4) T'[4,4) E'[4,4) )[4,5) " +
+                                 "T'[5,7) *[5,6) F[6,7) id[6,7) T'[7,7) E'[7,7)"}
+        };
+        
+        System.out.println("=== Parse Tree Test Cases ===");
+        ParseTree tree = new ParseTree();
+        for (String[] testCase : testCases) {
+            int[] tokens = lexer.tokenize(testCase[0]);
+            boolean result = parser.parse(tokens, tokens.length, tree);
+            String outline = outline(tree, lexer.getGrammar());
+            int nodeCount = tree.getNodeCount();
+            System.out.print(tree.format(lexer.getGrammar()));
+            
+            // An arena reused after clear() must hold the same tree
+            tree.clear();
+            boolean cleared = tree.getRoot() == ParseTree.NONE && tree.getNodeCount() == 0;
+            boolean reused = parser.parse(tokens, tokens.length, tree) && outline.equals(outline(tree, lexer.getGrammar())) &&
+                             tree.getNodeCount() == nodeCount;
+            
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1]);
+            System.out.println("Actual: " + outline);
+            System.out.println("Same after clear(): " + (cleared && reused));
+            System.out.println("Result: " + (result && outline.equals(testCase[1]) && cleared && reused ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+    
+    // Creates parsers through the default table cache in a temporary directory: the
+    // first create builds and stores the tables, the next loads them, and an entry built
+    // for another grammar is rebuilt and replaced
+    private static void testTableCache(Grammar grammar, Lexer lexer, String[][] testCases) throws IOException {
+        Path directory = Files.createTempDirectory("syntaxforge-cache");
+        System.setProperty(TableCache.DIRECTORY_PROPERTY, directory.toString());
+        try {
+            System.out.println("=== Table Cache Test Cases ===");
+            TableCache cache = TableCache.getDefault();
+            Path entry = cache.getPath(grammar, "LL(1)");
+            System.out.println("Cache directory from " + TableCache.DIRECTORY_PROPERTY + ": " +
+                               cache.getDirectory().equals(directory));
+            
+            LLParser built = LLParser.create(grammar);
+            // Entries are renamed into place, so no temporary file is left behind
+            List<Path> files = new ArrayList<>();
+            try (java.util.stream.Stream<Path> list = Files.list(directory)) {
+                list.forEach(files::add);
+            }
+            checkCacheEntry("First create", built, false,
+                            cache.getDirectory().equals(directory) && files.equals(Collections.singletonList(entry)));
+            
+            LLParser loaded = LLParser.create(grammar);
+            boolean sameResults = true;
+            for (String[] testCase : testCases) {
+                List<Symbol> inputSymbols = tokenizeInput(testCase[0], lexer);
+                sameResults &= loaded.parse(inputSymbols) == built.parse(inputSymbols);
+            }
+            checkCacheEntry("Second create", loaded, true, sameResults);
+            
+            new LLParser(grammarOf("S -> id")).getParsingTable().save(entry);
+            checkCacheEntry("Create over a stale entry",
+                            LLParser.create(grammar), false, true);
+            checkCacheEntry("Create after the entry was replaced",
+                            LLParser.create(grammar), true, true);
+            System.out.println();
+        } finally {
+            System.clearProperty(TableCache.DIRECTORY_PROPERTY);
+            try {
+                deleteRecursively(directory);
+            } catch (IOException e) {
+                // On Windows a mapped file cannot be deleted until the mapping is collected
+                directory.toFile().deleteOnExit();
+            }
+        }
+    }
+    
+    private static void checkCacheEntry(String name, LLParser parser, boolean expectLoaded, boolean passed) {
+        boolean loaded = parser.getParsingTable().isLoaded();
+        System.out.println(name + ": " + (loaded ? "loaded" : "built"));
+        System.out.println("Result: " + (loaded == expectLoaded && passed ? "✓" : "✗"));
+    }
+    
+    // Records the events of a listener parse. A failed parse stops at the offending
+    // token: the events up to it arrive, and the non-terminals still open are not exited.
+    private static void testParseListener(LLParser parser, Lexer lexer) {
+        String[][] testCases = {
+            {"id * id", "Success", "enter E → T E', enter T → F T', enter F → id, token id@0, exit F, " +
+                                   "enter T' → * F T', token *@1, enter F → id, token id@2, exit F, " +
+                                   "enter T' → ε, exit T', exit T', exit T, enter E' → ε, exit E', exit E"},
+            {"id + )", "Failure", "enter E → T E', enter T → F T', enter F → id, token id@0, exit F, " +
+                                  "enter T' → ε, exit T', exit T, enter E' → + T E', token +@1"}
+        };
+        
+        System.out.println("=== Parse Listener Test Cases ===");
+        Grammar grammar = lexer.getGrammar();
+        for (String[] testCase : testCases) {
+            List<String> events = new ArrayList<>();
+            int[] tokens = lexer.tokenize(testCase[0]);
+            boolean result = parser.parse(tokens, tokens.length, new LLParseListener() {
+                @Override
+                public void enterNonTerminal(int nonTerminalId, int productionIndex) {
+                    events.add("enter " + grammar.getProduction(productionIndex));
+                }
+                
+                @Override
+                public void exitNonTerminal(int nonTerminalId) {
+                    events.add("exit " + grammar.getNonTerminal(nonTerminalId));
+                }
+                
+                @Override
+                public void token(int terminalId, long offset) {
+                    events.add("token " + grammar.getTerminal(terminalId) + "@" + offset);
+                }
+            });
+            String actual = String.join(", ", events);
+            
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1] + ", " + testCase[2]);
+            System.out.println("Actual: " + (result ? "Success" : "Failure") + ", " + actual);
+            System.out.println("Result: " + (testCase[1].equals(result ? "Success" : "Failure") &&
+                                             testCase[2].equals(actual) ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+    
+    // Nodes in pre-order as symbol[tokenStart,tokenEnd), through a cursor. Token nodes
+    // must cover one token, whose offset is its index in the token array.
+    private static String outline(ParseTree tree, Grammar grammar) {
+        StringBuilder sb = new StringBuilder();
+        ParseTree.Cursor cursor = tree.cursor();
+        while (true) {
+            int code = cursor.getSymbolCode();
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(code >= 0 ? grammar.getTerminal(code) : grammar.getNonTerminal(~code))
+              .append('[').append(cursor.getTokenStart()).append(',').append(cursor.getTokenEnd()).append(')');
+            if (cursor.isToken() && (cursor.getTokenEnd() != cursor.getTokenStart() + 1 ||
+                                     tree.getTokenOffset(cursor.getTokenStart()) != cursor.getTokenStart())) {
+                sb.append('!');
+            }
+            if (cursor.gotoFirstChild()) {
+                continue;
+            }
+            while (!cursor.gotoNextSibling()) {
+                if (!cursor.gotoParent()) {
+                    return sb.toString();
+                }
+            }
+        }
+    }
+
+    // Generates the recursive-descent parser, compiles it and checks that it accepts
+    // exactly what LLParser accepts
+    private static void testGeneratedParser(String name, Grammar grammar, String[] inputs) throws Exception {
+        System.out.println("=== Generated Parser Test Cases (" + name + ") ===");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.out.println("No Java compiler available, skipped");
+            return;
+        }
+        LLParser parser = new LLParser(grammar);
+        Path sourceRoot = Files.createTempDirectory("generated");
+        try {
+            Path source = new ParserGenerator(parser.getParsingTable()).write(sourceRoot, "generated", "GeneratedParser");
+            boolean compiled = compiler.run(null, null, null, "-d", sourceRoot.toString(), source.toString()) == 0;
+            System.out.println("Compiled: " + compiled);
+            System.out.println("Result: " + (compiled ? "✓" : "✗"));
+            if (!compiled) {
+                return;
+            }
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {sourceRoot.toUri().toURL()})) {
+                Method parse = loader.loadClass("generated.GeneratedParser").getMethod("parse", int[].class, int.class);
+                for (String input : inputs) {
+                    int[] tokens = terminalIds(grammar, input);
+                    boolean expected = parser.parse(tokens, tokens.length);
+                    boolean result = (Boolean) parse.invoke(null, tokens, tokens.length);
+                    System.out.println("Input: " + input);
+                    System.out.println("Expected: " + (expected ? "Success" : "Failure"));
+                    System.out.println("Actual: " + (result ? "Success" : "Failure"));
+                    System.out.println("Result: " + (result == expected ? "✓" : "✗"));
+                }
+            }
+        } finally {
+            deleteRecursively(sourceRoot);
+        }
+        System.out.println();
+    }
+
+    private static int[] terminalIds(Grammar grammar, String input) {
+        if (input.isEmpty()) {
+            return new int[0];
+        }
+        String[] names = input.split(" ");
+        int[] tokens = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            tokens[i] = grammar.getTerminalId(new Symbol(names[i], true));
+        }
+        return tokens;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(path)) {
+            walk.forEach(paths::add);
+        }
+        // Children before their directories
+        Collections.reverse(paths);
+        for (Path each : paths) {
+            Files.delete(each);
+        }
+    }
+
+    // Reads a grammar given line by line, through a temporary file
+    private static Grammar grammarOf(String... lines) throws IOException {
+        Path file = Files.createTempFile("grammar", ".txt");
+        try {
+            Files.write(file, Arrays.asList(lines));
+            return GrammarReader.readGrammar(file.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
     private static void printSymbolSet(Set<Symbol> symbols) {
         boolean first = true;
         for (Symbol symbol : symbols) {
@@ -90,27 +376,11 @@ public class LLParserTest {
         }
     }
     
-    private static List<Symbol> tokenizeInput(String input, Grammar grammar) {
+    private static List<Symbol> tokenizeInput(String input, Lexer lexer) {
         List<Symbol> symbols = new ArrayList<>();
-        String[] tokens = input.split("\\s+");
-        
-        for (String token : tokens) {
-            boolean found = false;
-            for (Symbol terminal : grammar.getTerminals()) {
-                if (terminal.getName().equals(token)) {
-                    symbols.add(terminal);
-                    found = true;
-                    break;
-                }
-            }
-            
-            if (!found) {
-                // Create a new terminal for this token
-                Symbol terminal = new Symbol(token, true);
-                symbols.add(terminal);
-            }
+        for (int token : lexer.tokenize(input)) {
+            symbols.add(lexer.getGrammar().getTerminal(token));
         }
-        
         return symbols;
     }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package ll;
+
+import utils.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+// Generates a self-contained recursive-descent parser from an LL(1) table: one method
+// per non-terminal, switching on the current token to the predicted production. The
+// generated class has no dependency on this library at run time. A production ending
+// in its own non-terminal (E' -> + T E') loops instead of recursing, so the recursion
+// depth follows the nesting depth of the input rather than its length.
+public class ParserGenerator {
+    private final ParsingTable parsingTable;
+    private final Grammar grammar;
+
+    public ParserGenerator(ParsingTable parsingTable) {
+        this.parsingTable = parsingTable;
+        this.grammar = parsingTable.getGrammar();
+    }
+
+    public String generate(String packageName, String className) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by SyntaxForge from an LL(1) table. Do not edit.\n");
+        JavaSource.appendPackage(sb, packageName);
+        sb.append("public final class ").append(className).append(" {\n");
+        String[] terminals = JavaSource.appendTerminals(sb, grammar);
+
+        // Method names, kept clear of the helpers below
+        Set<String> used = new HashSet<>(Arrays.asList("advance", "expect", "parse"));
+        String[] methods = new String[grammar.getNonTerminalCount()];
+        for (int n = 0; n < methods.length; n++) {
+            String name = JavaSource.identifier(grammar.getNonTerminal(n).getName(), false, new HashSet<>());
+            String method = "parse" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (int k = 2; !used.add(method); k++) {
+                method = "parse" + Character.toUpperCase(name.charAt(0)) + name.substring(1) + "_" + k;
+            }
+            methods[n] = method;
+        }
+
+        sb.append("    private final int[] tokens;\n")
+          .append("    private final int length;\n")
+          .append("    private int position;\n")
+          .append("    private int token;\n\n")
+          .append("    private ").append(className).append("(int[] tokens, int length) {\n")
+          .append("        this.tokens = tokens;\n")
+          .append("        this.length = length;\n")
+          .append("        this.token = length > 0 ? tokens[0] : EOF;\n")
+          .append("    }\n\n")
+          .append("    // Parses a sequence of terminal ids (all of which must belong to the grammar).\n")
+          .append("    // The end marker is implied after the last token. Safe to call concurrently.\n")
+          .append("    public static boolean parse(int[] tokens, int length) {\n")
+          .append("        ").append(className).append(" parser = new ").append(className).append("(tokens, length);\n")
+          .append("        return parser.").append(methods[grammar.getStartSymbol().getId()])
+          .append("() && parser.token == EOF;\n")
+          .append("    }\n\n")
+          .append("    private void advance() {\n")
+          .append("        position++;\n")
+          .append("        token = position < length ? tokens[position] : EOF;\n")
+          .append("    }\n\n")
+          .append("    private boolean expect(int terminal) {\n")
+          .append("        if (token != terminal) {\n")
+          .append("            return false;\n")
+          .append("        }\n")
+          .append("        advance();\n")
+          .append("        return true;\n")
+          .append("    }\n");
+
+        int columns = grammar.getTerminalCount() + 1;
+        for (int n = 0; n < methods.length; n++) {
+            sb.append('\n');
+            List<Production> productions = grammar.getProductionsFor(grammar.getNonTerminal(n));
+            for (Production prod : productions) {
+                sb.append("    // ").append(JavaSource.comment(prod.toString())).append('\n');
+            }
+            boolean loops = false;
+            for (Production prod : productions) {
+                loops |= isSelfTailCall(prod);
+            }
+            String indent = loops ? "            " : "        ";
+            sb.append("    private boolean ").append(methods[n]).append("() {\n");
+            if (loops) {
+                sb.append("        while (true) {\n");
+            }
+            sb.append(indent).append("switch (token) {\n");
+
+            for (Production prod : productions) {
+                boolean any = false;
+                for (int t = 0; t < columns; t++) {
+                    if (parsingTable.predict(n, t) == prod.getIndex()) {
+                        sb.append(indent).append("    case ").append(terminals[t]).append(":\n");
+                        any = true;
+                    }
+                }
+                if (any) {
+                    appendBody(sb, indent + "        ", prod, terminals, methods);
+                }
+            }
+            sb.append(indent).append("    default:\n")
+              .append(indent).append("        return false;\n")
+              .append(indent).append("}\n");
+            if (loops) {
+                sb.append("        }\n");
+            }
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static boolean isSelfTailCall(Production prod) {
+        int length = prod.getRightSideLength();
+        return length > 0 && prod.getRightSideSymbol(length - 1).equals(prod.getLeftSide());
+    }
+
+    private void appendBody(StringBuilder sb, String indent, Production prod, String[] terminals, String[] methods) {
+        boolean loops = isSelfTailCall(prod);
+        int end = loops ? prod.getRightSideLength() - 1 : prod.getRightSideLength();
+        List<String> steps = new ArrayList<>();
+        for (int i = 0; i < end; i++) {
+            Symbol symbol = prod.getRightSideSymbol(i);
+            if (!symbol.isTerminal()) {
+                steps.add(methods[symbol.getId()] + "()");
+            } else if (i == 0) {
+                // The switch has already matched a leading terminal
+                sb.append(indent).append("advance();\n");
+            } else {
+                steps.add("expect(" + terminals[symbol.getId()] + ")");
+            }
+        }
+        if (!loops) {
+            sb.append(indent).append("return ").append(steps.isEmpty() ? "true" : String.join(" && ", steps)).append(";\n");
+            return;
+        }
+        if (!steps.isEmpty()) {
+            String condition = steps.size() == 1 ? steps.get(0) : "(" + String.join(" && ", steps) + ")";
+            sb.append(indent).append("if (!").append(condition).append(") {\n")
+              .append(indent).append("    return false;\n")
+              .append(indent).append("}\n");
+        }
+        sb.append(indent).append("continue;\n");
+    }
+
+    // Writes the generated class below a source root and returns its path
+    public Path write(Path sourceRoot, String packageName, String className) throws IOException {
+        return JavaSource.write(sourceRoot, packageName, className, generate(packageName, className));
+    }
+}
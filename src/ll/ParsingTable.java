@@ -1,83 +1,207 @@
 package ll;
 
 import utils.*;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.*;
 
 public class ParsingTable {
-    private final Map<TableEntry, Production> table;
+    private static final int NO_ENTRY = -1;
+
     private final Grammar grammar;
-    private final FirstFollowCalculator calculator;
-    private final Symbol EPSILON = new Symbol("ε", true);
-    private final Symbol EOF = new Symbol("$", true);
+
+    // Production index for each (non-terminal, terminal) pair, row-major by non-terminal.
+    // Terminal columns include the end marker. A heap array when built, a view of the
+    // file when loaded.
+    private final int columns;
+    private final IntBuffer table;
+
+    // Right-hand sides of all productions, flattened and reversed so that they can be
+    // copied onto a parse stack as is. Terminals are stored as their id, non-terminals
+    // as ~id so that a sign test tells them apart.
+    private final int[] rightSides;
+    private final int[] rightSideOffsets;
+    private final int maxStackDepth;
+    private final boolean loaded;
 
     public ParsingTable(Grammar grammar, FirstFollowCalculator calculator) {
         this.grammar = grammar;
-        this.calculator = calculator;
-        this.table = new HashMap<>();
-        constructTable();
+        this.columns = grammar.getTerminalCount() + 1;
+        int[] entries = new int[grammar.getNonTerminalCount() * columns];
+        Arrays.fill(entries, NO_ENTRY);
+        constructTable(calculator, entries);
+        this.table = IntBuffer.wrap(entries);
+
+        this.rightSideOffsets = new int[grammar.getProductionCount() + 1];
+        this.rightSides = flattenRightSides();
+        this.maxStackDepth = computeMaxStackDepth();
+        this.loaded = false;
     }
 
-    private void constructTable() {
+    private ParsingTable(Grammar grammar, IntBuffer table, int maxStackDepth) throws IOException {
+        this.grammar = grammar;
+        this.columns = grammar.getTerminalCount() + 1;
+        if (table.remaining() != grammar.getNonTerminalCount() * columns) {
+            throw new IOException("Table size does not match the grammar");
+        }
+        this.table = table;
+        this.rightSideOffsets = new int[grammar.getProductionCount() + 1];
+        this.rightSides = flattenRightSides();
+        this.maxStackDepth = maxStackDepth;
+        this.loaded = true;
+    }
+
+    // Writes the grammar and table in the binary table file format
+    public void save(Path path) throws IOException {
+        TableFile.write(path, TableFile.LL_TABLE, grammar, table, IntBuffer.wrap(new int[] { maxStackDepth }));
+    }
+
+    // Loads a table written by save(), together with the grammar stored alongside it.
+    // The table is used in place from the mapped file.
+    public static ParsingTable load(Path path) throws IOException {
+        return load(TableFile.read(path), null);
+    }
+
+    // Loads a table and checks that it was built for the given grammar, which the
+    // loaded table then uses for symbol lookups
+    public static ParsingTable load(Path path, Grammar grammar) throws IOException {
+        return load(TableFile.read(path, grammar, TableFile.LL_TABLE), grammar);
+    }
+
+    private static ParsingTable load(TableFile file, Grammar grammar) throws IOException {
+        if (file.getKind() != TableFile.LL_TABLE || file.getSectionCount() != 2
+                || file.getSection(1).remaining() != 1) {
+            throw new IOException("Not an LL table file");
+        }
+        return new ParsingTable(grammar != null ? grammar : file.getGrammar(), file.getSection(0),
+                                file.getSection(1).get(0));
+    }
+
+    private int[] flattenRightSides() {
+        int productionCount = grammar.getProductionCount();
+        for (int p = 0; p < productionCount; p++) {
+            rightSideOffsets[p + 1] = rightSideOffsets[p] + grammar.getProduction(p).getRightSideLength();
+        }
+        int[] result = new int[rightSideOffsets[productionCount]];
+        for (int p = 0; p < productionCount; p++) {
+            Production prod = grammar.getProduction(p);
+            int end = rightSideOffsets[p + 1];
+            for (int i = 0; i < prod.getRightSideLength(); i++) {
+                result[end - 1 - i] = encode(prod.getRightSideSymbol(i));
+            }
+        }
+        return result;
+    }
+
+    private void constructTable(FirstFollowCalculator calculator, int[] entries) {
+        GrammarAnalysis analysis = calculator.getAnalysis();
+        long[] firstSet = BitSets.create(columns);
+
         for (Production prod : grammar.getProductions()) {
-            Symbol nonTerminal = prod.getLeftSide();
-            List<Symbol> rightSide = prod.getRightSide();
+            int nonTerminalId = prod.getLeftSide().getId();
 
             // Get FIRST set of right-hand side
-            Set<Symbol> firstSet = calculator.getFirst(rightSide);
-
-            // For each terminal in FIRST set, add production to table
-            for (Symbol terminal : firstSet) {
-                if (!terminal.equals(EPSILON)) {
-                    TableEntry entry = new TableEntry(nonTerminal, terminal);
-                    if (table.containsKey(entry)) {
-                        throw new IllegalStateException("Grammar is not LL(1): Conflict at " + entry);
-                    }
-                    table.put(entry, prod);
-                }
+            Arrays.fill(firstSet, 0L);
+            boolean derivesEpsilon = analysis.addFirstOfSuffix(prod.getIndex(), 0, firstSet);
+
+            // If ε is in FIRST set, add production to FOLLOW entries as well
+            if (derivesEpsilon) {
+                analysis.addFollowSet(nonTerminalId, firstSet);
             }
 
-            // If ε is in FIRST set, add production to FOLLOW entries
-            if (firstSet.contains(EPSILON)) {
-                Set<Symbol> followSet = calculator.getFollow(nonTerminal);
-                for (Symbol terminal : followSet) {
-                    TableEntry entry = new TableEntry(nonTerminal, terminal);
-                    if (table.containsKey(entry)) {
-                        throw new IllegalStateException("Grammar is not LL(1): Conflict at " + entry);
+            // For each terminal in the set, add production to table
+            for (int t = BitSets.nextSetBit(firstSet, 0); t >= 0; t = BitSets.nextSetBit(firstSet, t + 1)) {
+                addEntry(entries, nonTerminalId, t, prod);
+            }
+        }
+    }
+
+    private void addEntry(int[] entries, int nonTerminalId, int terminalId, Production prod) {
+        int index = nonTerminalId * columns + terminalId;
+        if (entries[index] != NO_ENTRY) {
+            throw new IllegalStateException("Grammar is not LL(1): Conflict at (" +
+                                            grammar.getNonTerminal(nonTerminalId) + ", " +
+                                            grammar.getTerminal(terminalId) + ")");
+        }
+        entries[index] = prod.getIndex();
+    }
+
+    // Longest stack a parse can build starting from the start symbol, or -1 if the
+    // grammar nests without bound (e.g. parenthesised expressions). depth[A] is the
+    // largest stack reached while A is being expanded: for A -> X1..Xk, expanding Xi
+    // leaves k - i symbols below it.
+    private int computeMaxStackDepth() {
+        int nonTerminalCount = grammar.getNonTerminalCount();
+        int[] depth = new int[nonTerminalCount];
+        for (int round = 0; round <= nonTerminalCount; round++) {
+            boolean changed = false;
+            for (int p = 0; p < grammar.getProductionCount(); p++) {
+                int left = grammar.getProduction(p).getLeftSide().getId();
+                int start = rightSideOffsets[p];
+                int end = rightSideOffsets[p + 1];
+                int deepest = end - start;
+                for (int i = start; i < end; i++) {
+                    // Reversed storage: the symbol at i has i - start symbols below it
+                    int code = rightSides[i];
+                    if (code < 0) {
+                        deepest = Math.max(deepest, i - start + depth[~code]);
                     }
-                    table.put(entry, prod);
                 }
+                if (deepest > depth[left]) {
+                    depth[left] = deepest;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return Math.max(1, depth[grammar.getStartSymbol().getId()]);
             }
         }
+        return -1;
+    }
+
+    private static int encode(Symbol symbol) {
+        return symbol.isTerminal() ? symbol.getId() : ~symbol.getId();
     }
 
     public Production getProduction(Symbol nonTerminal, Symbol terminal) {
-        return table.get(new TableEntry(nonTerminal, terminal));
+        int nonTerminalId = grammar.getNonTerminalId(nonTerminal);
+        int terminalId = grammar.getTerminalId(terminal);
+        if (nonTerminalId < 0 || terminalId < 0) {
+            return null;
+        }
+        int prodIndex = predict(nonTerminalId, terminalId);
+        return prodIndex == NO_ENTRY ? null : grammar.getProduction(prodIndex);
     }
 
-    private static class TableEntry {
-        private final Symbol nonTerminal;
-        private final Symbol terminal;
+    // Returns the index of the production to expand, or -1 if the entry is empty
+    public int predict(int nonTerminalId, int terminalId) {
+        return table.get(nonTerminalId * columns + terminalId);
+    }
 
-        public TableEntry(Symbol nonTerminal, Symbol terminal) {
-            this.nonTerminal = nonTerminal;
-            this.terminal = terminal;
-        }
+    public Grammar getGrammar() {
+        return grammar;
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof TableEntry)) return false;
-            TableEntry other = (TableEntry) obj;
-            return nonTerminal.equals(other.nonTerminal) && terminal.equals(other.terminal);
-        }
+    // Whether the table was read from a table file rather than built
+    public boolean isLoaded() {
+        return loaded;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(nonTerminal, terminal);
-        }
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
 
-        @Override
-        public String toString() {
-            return "(" + nonTerminal + ", " + terminal + ")";
-        }
+    // Right-hand side of a production in push order, i.e. last symbol first
+    int getRightSideStart(int prodIndex) {
+        return rightSideOffsets[prodIndex];
+    }
+
+    int getRightSideEnd(int prodIndex) {
+        return rightSideOffsets[prodIndex + 1];
+    }
+
+    int[] getRightSides() {
+        return rightSides;
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package lr;
+
+import utils.*;
+import java.util.*;
+
+// The grammar extended with the start production S' -> S, together with a dense
+// numbering of its LR(0) items. Item ids enumerate (production, dot) pairs in
+// production order, so sorting item ids sorts by production and then by dot.
+public class AugmentedGrammar {
+    // Symbol code for complete items: nothing follows the dot
+    public static final int NO_SYMBOL = Integer.MIN_VALUE;
+
+    private final Grammar grammar;
+    private final Production startProduction;
+    private final int startProductionIndex;
+    private final int[] itemOffsets;
+    private final int[] itemProductions;
+    private final int[] itemSymbols;
+
+    public AugmentedGrammar(Grammar grammar) {
+        this.grammar = grammar;
+        // Create augmented grammar by adding a new start production: S' -> S.
+        // It is not interned by the grammar, so its Production index stays -1.
+        String name = grammar.getStartSymbol().getName() + "'";
+        while (grammar.getNonTerminalId(new Symbol(name, false)) >= 0) {
+            name += "'";
+        }
+        Symbol augmentedStart = new Symbol(name, false);
+        this.startProduction = new Production(augmentedStart, Arrays.asList(grammar.getStartSymbol()));
+        this.startProductionIndex = grammar.getProductionCount();
+
+        int productionCount = startProductionIndex + 1;
+        this.itemOffsets = new int[productionCount + 1];
+        for (int p = 0; p < productionCount; p++) {
+            itemOffsets[p + 1] = itemOffsets[p] + getProduction(p).getRightSideLength() + 1;
+        }
+
+        int itemCount = itemOffsets[productionCount];
+        this.itemProductions = new int[itemCount];
+        this.itemSymbols = new int[itemCount];
+        for (int p = 0; p < productionCount; p++) {
+            Production prod = getProduction(p);
+            for (int dot = 0; dot <= prod.getRightSideLength(); dot++) {
+                int item = itemOffsets[p] + dot;
+                itemProductions[item] = p;
+                itemSymbols[item] = dot < prod.getRightSideLength()
+                        ? encode(prod.getRightSideSymbol(dot)) : NO_SYMBOL;
+            }
+        }
+    }
+
+    // Terminals are encoded as their id, non-terminals as ~id
+    static int encode(Symbol symbol) {
+        return symbol.isTerminal() ? symbol.getId() : ~symbol.getId();
+    }
+
+    Symbol decode(int code) {
+        return code >= 0 ? grammar.getTerminal(code) : grammar.getNonTerminal(~code);
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    // Number of productions including the augmented start production
+    public int getProductionCount() {
+        return startProductionIndex + 1;
+    }
+
+    public int getStartProductionIndex() {
+        return startProductionIndex;
+    }
+
+    public Production getProduction(int prodIndex) {
+        return prodIndex == startProductionIndex ? startProduction : grammar.getProduction(prodIndex);
+    }
+
+    public int getItemCount() {
+        return itemProductions.length;
+    }
+
+    public int getItem(int prodIndex, int dotPosition) {
+        return itemOffsets[prodIndex] + dotPosition;
+    }
+
+    public int getStartItem() {
+        return itemOffsets[startProductionIndex];
+    }
+
+    public int getProductionOf(int item) {
+        return itemProductions[item];
+    }
+
+    public int getDotPosition(int item) {
+        return item - itemOffsets[itemProductions[item]];
+    }
+
+    // Code of the symbol after the dot, or NO_SYMBOL for complete items
+    public int getSymbolAfterDot(int item) {
+        return itemSymbols[item];
+    }
+
+    // Adds the productions brought into a closure by a non-terminal after the dot
+    void addClosure(int nonTerminalId, long[] productionSet) {
+        grammar.addStartsWithClosure(nonTerminalId, productionSet);
+    }
+
+    public Item toItem(int item) {
+        return new Item(getProduction(itemProductions[item]), getDotPosition(item));
+    }
+}
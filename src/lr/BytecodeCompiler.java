@@ -0,0 +1,212 @@
+package lr;
+
+import utils.*;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+// Compiles LR tables into a direct-threaded state machine: one block of bytecode per
+// state that switches on the lookahead. Shifts and GOTOs jump straight to the block
+// of the state they push, so the state stack is only read back after a reduction,
+// and every table entry becomes a constant in the code.
+//
+//   shift s:  read the next token, then fall into enter s
+//   enter s:  push s
+//   state s:  switch (token) { shift -> shift s' | reduce -> reduce p | accept | error }
+//   reduce p: pop |p|, then GOTO on the left side, switching on the exposed state
+// As in CompressedActionTable, each state's most common reduction is its switch default,
+// and each GOTO switch defaults to its most common target. Both keep the code small
+// enough for larger grammars without changing which inputs are accepted.
+final class BytecodeCompiler {
+    // Locals of the compiled parse(int[] tokens, int length)
+    private static final int TOKENS = 1;
+    private static final int LENGTH = 2;
+    private static final int STACK = 3;
+    private static final int TOP = 4;
+    private static final int POSITION = 5;
+    private static final int TOKEN = 6;
+
+    private BytecodeCompiler() {
+    }
+
+    // Throws IllegalStateException if the code is too large for HotSpot to JIT-compile,
+    // or the JVM rejects the class
+    static CompiledParser compile(LRParsingTable table) {
+        Grammar grammar = table.getGrammar();
+        int stateCount = table.getStateCount();
+        int terminalColumns = grammar.getTerminalCount() + 1;
+        int eof = grammar.getEndMarkerId();
+
+        // Which states are shifted to or reached by GOTO, and which productions are reduced
+        boolean[] shifted = new boolean[stateCount];
+        boolean[] entered = new boolean[stateCount];
+        boolean[] reduced = new boolean[grammar.getProductionCount()];
+        for (int state = 0; state < stateCount; state++) {
+            for (int t = 0; t < terminalColumns; t++) {
+                int action = table.getActionCode(state, t);
+                if (LRParsingTable.kindOf(action) == LRParsingTable.SHIFT) {
+                    shifted[LRParsingTable.valueOf(action)] = true;
+                    entered[LRParsingTable.valueOf(action)] = true;
+                } else if (LRParsingTable.kindOf(action) == LRParsingTable.REDUCE) {
+                    reduced[LRParsingTable.valueOf(action)] = true;
+                }
+            }
+            for (int n = 0; n < grammar.getNonTerminalCount(); n++) {
+                if (table.getGotoState(state, n) >= 0) {
+                    entered[table.getGotoState(state, n)] = true;
+                }
+            }
+        }
+
+        ClassAssembler asm = new ClassAssembler("lr/CompiledLRParser", "utils/CompiledParser", "parse", "([II)Z",
+                                                4, "[I", "I", "[I", "I", "I", "I");
+        ClassAssembler.Label[] shiftLabels = newLabels(asm, stateCount);
+        ClassAssembler.Label[] enterLabels = newLabels(asm, stateCount);
+        ClassAssembler.Label[] stateLabels = newLabels(asm, stateCount);
+        ClassAssembler.Label[] reduceLabels = newLabels(asm, grammar.getProductionCount());
+        ClassAssembler.Label accept = asm.newLabel();
+        ClassAssembler.Label error = asm.newLabel();
+
+        // stack = new int[64]; top = 0; position = 0; token = length > 0 ? tokens[0] : EOF
+        asm.pushInt(64);
+        asm.newIntArray();
+        asm.storeReference(STACK);
+        asm.pushInt(0);
+        asm.storeInt(TOP);
+        asm.pushInt(0);
+        asm.storeInt(POSITION);
+        asm.pushInt(eof);
+        asm.storeInt(TOKEN);
+        ClassAssembler.Label start = asm.newLabel();
+        asm.loadInt(LENGTH);
+        asm.branch(ClassAssembler.IFLE, start);
+        asm.loadReference(TOKENS);
+        asm.pushInt(0);
+        asm.op(ClassAssembler.IALOAD);
+        asm.storeInt(TOKEN);
+        asm.mark(start);
+        asm.jump(stateLabels[0]);
+
+        int[] rightSideLengths = new int[grammar.getProductionCount()];
+        for (int p = 0; p < rightSideLengths.length; p++) {
+            rightSideLengths[p] = table.getRightSideLength(p);
+        }
+        int[] actions = new int[terminalColumns];
+        int[] keys = new int[terminalColumns];
+        ClassAssembler.Label[] targets = new ClassAssembler.Label[terminalColumns];
+        for (int state = 0; state < stateCount; state++) {
+            if (shifted[state]) {
+                asm.mark(shiftLabels[state]);
+                asm.readNextToken(TOKENS, LENGTH, POSITION, TOKEN, eof);
+            }
+            if (entered[state]) {
+                asm.mark(enterLabels[state]);
+                asm.pushOnStack(STACK, TOP, state);
+            }
+
+            asm.mark(stateLabels[state]);
+            for (int t = 0; t < terminalColumns; t++) {
+                actions[t] = table.getActionCode(state, t);
+            }
+            int defaultAction = CompressedActionTable.mostCommonReduction(actions, 0, terminalColumns,
+                                                                          rightSideLengths);
+            int count = 0;
+            for (int t = 0; t < terminalColumns; t++) {
+                int action = actions[t];
+                if (action == defaultAction) {
+                    continue;
+                }
+                int value = LRParsingTable.valueOf(action);
+                switch (LRParsingTable.kindOf(action)) {
+                    case LRParsingTable.SHIFT:
+                        targets[count] = shiftLabels[value];
+                        break;
+                    case LRParsingTable.REDUCE:
+                        targets[count] = reduceLabels[value];
+                        break;
+                    case LRParsingTable.ACCEPT:
+                        targets[count] = accept;
+                        break;
+                    default:
+                        continue;
+                }
+                keys[count++] = t;
+            }
+            asm.loadInt(TOKEN);
+            asm.switchOn(Arrays.copyOf(keys, count), Arrays.copyOf(targets, count),
+                         defaultAction == LRParsingTable.ERROR ? error
+                                                               : reduceLabels[LRParsingTable.valueOf(defaultAction)]);
+        }
+
+        // Reductions, grouped by left side so each group shares one GOTO switch
+        for (int n = 0; n < grammar.getNonTerminalCount(); n++) {
+            List<Production> productions = new ArrayList<>();
+            for (Production prod : grammar.getProductionsFor(grammar.getNonTerminal(n))) {
+                if (reduced[prod.getIndex()]) {
+                    productions.add(prod);
+                }
+            }
+            if (productions.isEmpty()) {
+                continue;
+            }
+            ClassAssembler.Label gotoLabel = asm.newLabel();
+            for (int i = 0; i < productions.size(); i++) {
+                Production prod = productions.get(i);
+                asm.mark(reduceLabels[prod.getIndex()]);
+                if (prod.getRightSideLength() > 0) {
+                    asm.increment(TOP, -prod.getRightSideLength());
+                }
+                if (i < productions.size() - 1) {
+                    asm.jump(gotoLabel);
+                }
+            }
+            asm.mark(gotoLabel);
+
+            // Every state exposed by this reduction has a GOTO on n, so the most common
+            // target can take all states without one of their own
+            int[] targetCounts = new int[stateCount];
+            int defaultTarget = -1;
+            for (int state = 0; state < stateCount; state++) {
+                int next = table.getGotoState(state, n);
+                if (next >= 0 && ++targetCounts[next] > (defaultTarget < 0 ? 0 : targetCounts[defaultTarget])) {
+                    defaultTarget = next;
+                }
+            }
+            int count = 0;
+            int[] gotoKeys = new int[stateCount];
+            ClassAssembler.Label[] gotoTargets = new ClassAssembler.Label[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                int next = table.getGotoState(state, n);
+                if (next >= 0 && next != defaultTarget) {
+                    gotoKeys[count] = state;
+                    gotoTargets[count++] = enterLabels[next];
+                }
+            }
+            if (count == 0) {
+                asm.jump(enterLabels[defaultTarget]);
+            } else {
+                asm.loadReference(STACK);
+                asm.loadInt(TOP);
+                asm.op(ClassAssembler.IALOAD);
+                asm.switchOn(Arrays.copyOf(gotoKeys, count), Arrays.copyOf(gotoTargets, count),
+                             enterLabels[defaultTarget]);
+            }
+        }
+
+        asm.mark(accept);
+        asm.pushInt(1);
+        asm.op(ClassAssembler.IRETURN);
+        asm.mark(error);
+        asm.pushInt(0);
+        asm.op(ClassAssembler.IRETURN);
+
+        return asm.define(MethodHandles.lookup(), CompiledParser.class);
+    }
+
+    private static ClassAssembler.Label[] newLabels(ClassAssembler asm, int count) {
+        ClassAssembler.Label[] labels = new ClassAssembler.Label[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = asm.newLabel();
+        }
+        return labels;
+    }
+}
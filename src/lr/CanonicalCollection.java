@@ -3,130 +3,157 @@ package lr;
 import utils.*;
 import java.util.*;
 
-public class CanonicalCollection {
+public class CanonicalCollection implements LRAutomaton {
     private final Grammar grammar;
+    private final AugmentedGrammar augmentedGrammar;
     private final List<ItemSet> states;
-    private final Map<TransitionKey, Integer> transitions;
+    // States are identified by their kernel, so GOTO targets are found with one lookup
+    private final Map<Kernel, Integer> stateIndex;
+    // One row per state; terminal t is column t, non-terminal n is column terminalColumns + n
+    private final List<int[]> transitions;
+    private final int terminalColumns;
+    private final int symbolColumns;
+    private final long buildTimeNanos;
 
     public CanonicalCollection(Grammar grammar) {
         this.grammar = grammar;
+        this.augmentedGrammar = new AugmentedGrammar(grammar);
         this.states = new ArrayList<>();
-        this.transitions = new HashMap<>();
+        this.stateIndex = new HashMap<>();
+        this.transitions = new ArrayList<>();
+        this.terminalColumns = grammar.getTerminalCount() + 1;
+        this.symbolColumns = terminalColumns + grammar.getNonTerminalCount();
+        long start = System.nanoTime();
         constructCollection();
+        this.buildTimeNanos = System.nanoTime() - start;
     }
 
     private void constructCollection() {
-        // Create augmented grammar by adding a new start production: S' -> S
-        Symbol augmentedStart = new Symbol(grammar.getStartSymbol().getName() + "'", false);
-        Production startProduction = new Production(augmentedStart, 
-                                                   Arrays.asList(grammar.getStartSymbol()));
-        
-        // Create initial item set with S' -> •S
-        Set<Item> initialItems = new HashSet<>();
-        initialItems.add(new Item(startProduction, 0));
-        
-        // Compute closure of initial item set
-        Set<Item> closure = computeClosure(initialItems);
-        ItemSet initialState = new ItemSet(closure, 0);
-        
-        states.add(initialState);
-        
+        // Initial state is the closure of S' -> •S
+        addState(new int[] { augmentedGrammar.getStartItem() });
+
+        // Items advanced over each symbol, bucketed by the symbol's column
+        int[][] buckets = new int[symbolColumns][];
+        int[] bucketSizes = new int[symbolColumns];
+        int[] usedColumns = new int[symbolColumns];
+
         // Process states until no new states are added
         for (int i = 0; i < states.size(); i++) {
-            ItemSet state = states.get(i);
-            
-            // Get all symbols that appear after dot
-            Set<Symbol> symbols = state.getNextSymbols();
-            
-            for (Symbol symbol : symbols) {
-                // Compute GOTO(state, symbol)
-                ItemSet nextState = computeGoto(state, symbol);
-                
-                // Check if state already exists
-                int nextStateIndex = states.indexOf(nextState);
-                if (nextStateIndex == -1) {
-                    // Add new state
-                    nextState = new ItemSet(nextState.getItems(), states.size());
-                    states.add(nextState);
-                    nextStateIndex = nextState.getStateNumber();
+            int[] items = states.get(i).getItemIds();
+            int usedCount = 0;
+
+            // Closure items come out in ascending order and advancing keeps that order,
+            // so every bucket ends up as a sorted kernel
+            for (int item : items) {
+                int code = augmentedGrammar.getSymbolAfterDot(item);
+                if (code == AugmentedGrammar.NO_SYMBOL) {
+                    continue;
                 }
-                
-                // Add transition
-                transitions.put(new TransitionKey(state.getStateNumber(), symbol), nextStateIndex);
+                int column = code >= 0 ? code : terminalColumns + ~code;
+                if (bucketSizes[column] == 0) {
+                    usedColumns[usedCount++] = column;
+                    if (buckets[column] == null) {
+                        buckets[column] = new int[4];
+                    }
+                } else if (bucketSizes[column] == buckets[column].length) {
+                    buckets[column] = Arrays.copyOf(buckets[column], bucketSizes[column] * 2);
+                }
+                buckets[column][bucketSizes[column]++] = item + 1;
             }
-        }
-    }
 
-    private Set<Item> computeClosure(Set<Item> items) {
-        Set<Item> closure = new HashSet<>(items);
-        boolean changed;
-        
-        do {
-            changed = false;
-            Set<Item> newItems = new HashSet<>();
-            
-            for (Item item : closure) {
-                Symbol symbol = item.getSymbolAfterDot();
-                
-                if (symbol != null && !symbol.isTerminal()) {
-                    // Get all productions with this non-terminal on the left side
-                    for (Production prod : grammar.getProductionsFor(symbol)) {
-                        Item newItem = new Item(prod, 0);
-                        if (!closure.contains(newItem)) {
-                            newItems.add(newItem);
-                            changed = true;
-                        }
-                    }
+            // GOTO(state, symbol) for every symbol that appears after a dot
+            for (int u = 0; u < usedCount; u++) {
+                int column = usedColumns[u];
+                int[] kernel = Arrays.copyOf(buckets[column], bucketSizes[column]);
+                bucketSizes[column] = 0;
+
+                Integer nextState = stateIndex.get(new Kernel(kernel));
+                if (nextState == null) {
+                    nextState = addState(kernel);
                 }
+                transitions.get(i)[column] = nextState;
             }
-            
-            closure.addAll(newItems);
-        } while (changed);
-        
-        return closure;
+        }
     }
 
-    private ItemSet computeGoto(ItemSet state, Symbol symbol) {
-        Set<Item> gotoItems = new HashSet<>();
-        
-        // Get all items where symbol appears after dot
-        for (Item item : state.getItemsWithNextSymbol(symbol)) {
-            gotoItems.add(item.advance());
-        }
-        
-        // Compute closure
-        Set<Item> closure = computeClosure(gotoItems);
-        return new ItemSet(closure, -1); // State number will be assigned later
+    private int addState(int[] kernel) {
+        int stateNumber = states.size();
+        states.add(new ItemSet(augmentedGrammar, kernel, stateNumber));
+        stateIndex.put(new Kernel(kernel), stateNumber);
+        int[] row = new int[symbolColumns];
+        Arrays.fill(row, -1);
+        transitions.add(row);
+        return stateNumber;
+    }
+
+    @Override
+    public AugmentedGrammar getAugmentedGrammar() {
+        return augmentedGrammar;
+    }
+
+    @Override
+    public long getBuildTimeNanos() {
+        return buildTimeNanos;
     }
 
     public List<ItemSet> getStates() {
         return new ArrayList<>(states);
     }
 
+    @Override
+    public int getStateCount() {
+        return states.size();
+    }
+
+    public ItemSet getState(int stateNumber) {
+        return states.get(stateNumber);
+    }
+
+    @Override
+    public int[] getItemIds(int stateNumber) {
+        return states.get(stateNumber).getItemIds();
+    }
+
     public int getTransition(int stateNumber, Symbol symbol) {
-        TransitionKey key = new TransitionKey(stateNumber, symbol);
-        return transitions.getOrDefault(key, -1);
+        int column;
+        if (symbol.isTerminal()) {
+            column = grammar.getTerminalId(symbol);
+        } else {
+            int nonTerminalId = grammar.getNonTerminalId(symbol);
+            column = nonTerminalId < 0 ? -1 : terminalColumns + nonTerminalId;
+        }
+        return column < 0 ? -1 : transitions.get(stateNumber)[column];
+    }
+
+    @Override
+    public int getTerminalTransition(int stateNumber, int terminalId) {
+        return transitions.get(stateNumber)[terminalId];
+    }
+
+    @Override
+    public int getNonTerminalTransition(int stateNumber, int nonTerminalId) {
+        return transitions.get(stateNumber)[terminalColumns + nonTerminalId];
     }
 
-    private static class TransitionKey {
-        private final int stateNumber;
-        private final Symbol symbol;
+    static class Kernel {
+        private final int[] items;
+        private final int hash;
 
-        public TransitionKey(int stateNumber, Symbol symbol) {
-            this.stateNumber = stateNumber;
-            this.symbol = symbol;
+        public Kernel(int[] items) {
+            this.items = items;
+            this.hash = Arrays.hashCode(items);
         }
 
         @Override
         public boolean equals(Object obj) {
-            if (!(obj instanceof TransitionKey)) return false;
-            TransitionKey other = (TransitionKey) obj;
-            return stateNumber == other.stateNumber && symbol.equals(other.symbol);
+            if (!(obj instanceof Kernel)) return false;
+            Kernel other = (Kernel) obj;
+            return hash == other.hash && Arrays.equals(items, other.items);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(stateNumber, symbol);
+            return hash;
         }
     }
 }
\ No newline at end of file
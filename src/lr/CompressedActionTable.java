@@ -0,0 +1,270 @@
+package lr;
+
+import java.util.*;
+
+// ACTION table in row-displacement ("comb") form:
+//   defaults[state]   the state's most common reduction, or ERROR if it has none
+//   rows[state]       row id; states whose remaining entries are identical share one
+//   base[row]         offset of the row in next/check
+//   next[base + t]    packed action, valid only where check[base + t] == row
+// Entries equal to the state's default are dropped before packing, and a lookup that
+// misses the comb falls back to the default. Like yacc's default reductions this may
+// reduce before an error is detected, but it never shifts a token the dense table
+// would reject, so the same inputs are accepted. ε-productions are never defaults:
+// reducing them grows the stack, so on a bad token a chain of them could run forever.
+//
+// For error recovery, which has to see the errors where the dense table has them,
+// the terminals each default was taken from are kept as well:
+//   lookaheadSets[state]       offset of the state's set in lookaheads, or -1 if it has
+//                              no default
+//   lookaheads[offset + t/32]  bit t%32 set if the default applies to terminal t
+// States with the same set share one copy.
+public class CompressedActionTable {
+    private final int[] defaults;
+    private final int[] rows;
+    private final int[] base;
+    private final int[] next;
+    private final int[] check;
+    private final int[] lookaheadSets;
+    private final int[] lookaheads;
+
+    CompressedActionTable(int[] defaults, int[] rows, int[] base, int[] next, int[] check,
+                          int[] lookaheadSets, int[] lookaheads) {
+        this.defaults = defaults;
+        this.rows = rows;
+        this.base = base;
+        this.next = next;
+        this.check = check;
+        this.lookaheadSets = lookaheadSets;
+        this.lookaheads = lookaheads;
+    }
+
+    // Compresses a dense, row-major ACTION table; rightSideLengths is indexed by production
+    static CompressedActionTable compress(int[] dense, int stateCount, int terminalColumns,
+                                          int[] rightSideLengths) {
+        int[] defaults = new int[stateCount];
+        int[] rows = new int[stateCount];
+        List<int[]> rowEntries = new ArrayList<>();
+        Map<RowKey, Integer> rowIds = new HashMap<>();
+        int[] entries = new int[2 * terminalColumns];
+        int words = (terminalColumns + 31) >>> 5;
+        int[] lookaheadSets = new int[stateCount];
+        int[] lookaheads = new int[words];
+        int lookaheadSize = 0;
+        Map<RowKey, Integer> lookaheadIds = new HashMap<>();
+
+        for (int state = 0; state < stateCount; state++) {
+            int offset = state * terminalColumns;
+            defaults[state] = mostCommonReduction(dense, offset, terminalColumns, rightSideLengths);
+
+            // Remaining entries as (terminal, action) pairs, and the default's terminals
+            int count = 0;
+            int[] set = new int[words];
+            for (int t = 0; t < terminalColumns; t++) {
+                int action = dense[offset + t];
+                if (action == LRParsingTable.ERROR) {
+                    continue;
+                }
+                if (action == defaults[state]) {
+                    set[t >>> 5] |= 1 << t;
+                } else {
+                    entries[count++] = t;
+                    entries[count++] = action;
+                }
+            }
+            lookaheadSets[state] = -1;
+            if (defaults[state] != LRParsingTable.ERROR) {
+                Integer setOffset = lookaheadIds.get(new RowKey(set));
+                if (setOffset == null) {
+                    setOffset = lookaheadSize;
+                    lookaheadSize += words;
+                    if (lookaheadSize > lookaheads.length) {
+                        lookaheads = Arrays.copyOf(lookaheads, Math.max(lookaheadSize, lookaheads.length * 2));
+                    }
+                    System.arraycopy(set, 0, lookaheads, setOffset, words);
+                    lookaheadIds.put(new RowKey(set), setOffset);
+                }
+                lookaheadSets[state] = setOffset;
+            }
+            int[] row = Arrays.copyOf(entries, count);
+            Integer id = rowIds.get(new RowKey(row));
+            if (id == null) {
+                id = rowEntries.size();
+                rowEntries.add(row);
+                rowIds.put(new RowKey(row), id);
+            }
+            rows[state] = id;
+        }
+
+        // First-fit packing, densest rows first since they are the hardest to place
+        Integer[] order = new Integer[rowEntries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(rowEntries.get(b).length, rowEntries.get(a).length));
+
+        int[] base = new int[rowEntries.size()];
+        int[] next = new int[terminalColumns];
+        int[] check = new int[terminalColumns];
+        Arrays.fill(check, -1);
+        int size = 0;
+        for (int row : order) {
+            int[] entry = rowEntries.get(row);
+            int offset = 0;
+            while (!fits(entry, offset, check)) {
+                offset++;
+            }
+            // Keep every row's whole window inside the arrays so lookups need no bounds test
+            int end = offset + terminalColumns;
+            if (end > check.length) {
+                int capacity = Math.max(end, check.length * 2);
+                next = Arrays.copyOf(next, capacity);
+                int oldLength = check.length;
+                check = Arrays.copyOf(check, capacity);
+                Arrays.fill(check, oldLength, capacity, -1);
+            }
+            for (int i = 0; i < entry.length; i += 2) {
+                next[offset + entry[i]] = entry[i + 1];
+                check[offset + entry[i]] = row;
+            }
+            base[row] = offset;
+            size = Math.max(size, end);
+        }
+        return new CompressedActionTable(defaults, rows, base, Arrays.copyOf(next, size),
+                                         Arrays.copyOf(check, size), lookaheadSets,
+                                         Arrays.copyOf(lookaheads, lookaheadSize));
+    }
+
+    // The reduction most frequent in a row, or ERROR if it has none besides ε-productions
+    static int mostCommonReduction(int[] dense, int offset, int terminalColumns, int[] rightSideLengths) {
+        int best = LRParsingTable.ERROR;
+        int bestCount = 0;
+        for (int t = 0; t < terminalColumns; t++) {
+            int action = dense[offset + t];
+            if (LRParsingTable.kindOf(action) != LRParsingTable.REDUCE || action == best ||
+                rightSideLengths[LRParsingTable.valueOf(action)] == 0) {
+                continue;
+            }
+            int count = 0;
+            for (int u = t; u < terminalColumns; u++) {
+                if (dense[offset + u] == action) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                best = action;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private static boolean fits(int[] entry, int offset, int[] check) {
+        for (int i = 0; i < entry.length; i += 2) {
+            int index = offset + entry[i];
+            if (index < check.length && check[index] >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int get(int state, int terminalId) {
+        int row = rows[state];
+        int index = base[row] + terminalId;
+        return check[index] == row ? next[index] : defaults[state];
+    }
+
+    // The entry of the dense table: like get(), but ERROR where the default reduction
+    // only stands in for one
+    public int getExact(int state, int terminalId) {
+        int row = rows[state];
+        int index = base[row] + terminalId;
+        if (check[index] == row) {
+            return next[index];
+        }
+        int set = lookaheadSets[state];
+        return set >= 0 && (lookaheads[set + (terminalId >>> 5)] & (1 << terminalId)) != 0
+                ? defaults[state] : LRParsingTable.ERROR;
+    }
+
+    public int getRowCount() {
+        return base.length;
+    }
+
+    public int getDefaultReductionCount() {
+        int count = 0;
+        for (int action : defaults) {
+            if (action != LRParsingTable.ERROR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getMemoryFootprint() {
+        return 4L * (defaults.length + rows.length + base.length + next.length + check.length +
+                     lookaheadSets.length + lookaheads.length);
+    }
+
+    public int getStateCount() {
+        return rows.length;
+    }
+
+    // Rebuilds a table from the arrays of toArrays(), or returns null if they are
+    // inconsistent, so that lookups can trust every index
+    static CompressedActionTable fromArrays(int[][] arrays, int terminalColumns) {
+        int[] defaults = arrays[0];
+        int[] rows = arrays[1];
+        int[] base = arrays[2];
+        int[] next = arrays[3];
+        int[] check = arrays[4];
+        int[] lookaheadSets = arrays[5];
+        int[] lookaheads = arrays[6];
+        if (defaults.length != rows.length || next.length != check.length || lookaheadSets.length != rows.length) {
+            return null;
+        }
+        int words = (terminalColumns + 31) >>> 5;
+        for (int set : lookaheadSets) {
+            if (set < -1 || set > lookaheads.length - words) {
+                return null;
+            }
+        }
+        for (int row : rows) {
+            if (row < 0 || row >= base.length) {
+                return null;
+            }
+        }
+        for (int offset : base) {
+            if (offset < 0 || offset > next.length - terminalColumns) {
+                return null;
+            }
+        }
+        return new CompressedActionTable(defaults, rows, base, next, check, lookaheadSets, lookaheads);
+    }
+
+    int[][] toArrays() {
+        return new int[][] { defaults, rows, base, next, check, lookaheadSets, lookaheads };
+    }
+
+    // A row's (terminal, action) pairs, compared by content
+    private static class RowKey {
+        private final int[] entries;
+        private final int hash;
+
+        public RowKey(int[] entries) {
+            this.entries = entries;
+            this.hash = Arrays.hashCode(entries);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof RowKey && Arrays.equals(entries, ((RowKey) obj).entries);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package lr;
+
+import utils.*;
+import java.util.*;
+
+// Incremental LR parsing after Wagner and Graham. The parser keeps a document's text,
+// its tokens and its parse tree, and annotates each tree node with the LR state the
+// parser was in just before shifting it. After an edit:
+//   1. The lexer restarts at the first token whose match read into the edited text, and
+//      stops once it reaches the start of an old token past the edit, from where the
+//      old tokens are unchanged. Only the tokens in between are replaced.
+//   2. The parser runs with the old tree as its input. A subtree that covers no replaced
+//      token and is not followed by one, met in the state it was shifted in before, is
+//      shifted whole like a terminal: the parse inside it would repeat itself exactly.
+//      Any other subtree is broken down into its children.
+// The work is proportional to the replaced tokens plus the depth of the tree at the
+// edit, to which a list adds only the logarithm of its length (see below). An edit that
+// leaves the token kinds as they were, such as renaming an identifier, needs no parsing
+// at all. The text and the tokens are kept in gap buffers, so an edit moves only the
+// data between it and the previous edit rather than everything after it.
+//
+// Lists are kept balanced, as Wagner and Graham do with sequence nodes. A non-terminal
+// A with left-recursive productions A -> A α is a list: its node is a balanced binary
+// tree of SEQUENCE nodes whose leaves are, left to right, the node of the
+// non-recursive production A -> β that started the list and one node per item, with
+// production A -> A α and α's nodes as its children. A piece of a list that starts
+// after β, met in the state its items were parsed in, is appended to the list on top
+// of the parse stack whole, under the same condition as a subtree is shifted whole:
+// each item starts in the state of the list's A on the stack and reduces back to it.
+//
+// A document is often invalid between edits. A failed reparse leaves the tree of the
+// last document that parsed as it was, and the next edit is reparsed against that tree,
+// with the tokens that failed counted as part of the edit. A character that starts no
+// token becomes a token of its own, which no parse accepts.
+public class IncrementalParser {
+    // Production of the inner nodes of a list, which have two children
+    public static final int SEQUENCE = -2;
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final LRParsingTable parsingTable;
+    private final Lexer lexer;
+    private final int eof;
+    private final boolean[] listProductions;
+    private final GapText text = new GapText();
+
+    // Tokens, skipped text excluded: terminal id, [start, end) in the text, and how far
+    // the lexer read for the token and the skipped text before it. Tokens before the gap
+    // are at their own index and those after it gapEnd - gapStart slots further, with
+    // positions relative to the end of the text, which an edit before them leaves valid.
+    // maxReadAhead bounds how far past its end any token was read. An unlexable character
+    // is a token with terminal Lexer.NO_TOKEN.
+    private int tokenCount;
+    private int gapStart;
+    private int gapEnd = INITIAL_CAPACITY;
+    private int[] terminals = new int[INITIAL_CAPACITY];
+    private int[] tokenStarts = new int[INITIAL_CAPACITY];
+    private int[] tokenEnds = new int[INITIAL_CAPACITY];
+    private int[] lookaheadEnds = new int[INITIAL_CAPACITY];
+    private int maxReadAhead;
+
+    // Tree nodes: symbol code (terminal id or ~non-terminal id), production (NONE for
+    // tokens), first child, next sibling, number of tokens covered, height (0 except for
+    // SEQUENCE nodes), and the state below the node on the parse stack. Items of a list
+    // and SEQUENCE nodes that do not start the list have ~state instead, where state is
+    // the one with the list on top of the stack. Nodes freed by an edit are chained
+    // through nextSiblings for reuse.
+    private int[] symbolCodes = new int[INITIAL_CAPACITY];
+    private int[] productions = new int[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private int[] states = new int[INITIAL_CAPACITY];
+    private int nodeCount;
+    private int freeNodes = NONE;
+    private int root = NONE;
+    // Tokens not parsed since the tree was: the tokens [dirtyStart, dirtyStart +
+    // dirtyCount) stand in for the tree's tokens [dirtyStart, dirtyOldEnd). dirtyStart is
+    // NONE when the tree matches the tokens.
+    private int dirtyStart = NONE;
+    private int dirtyOldEnd;
+    private int dirtyCount;
+
+    // Scratch space of a reparse: the parse stack, the old subtrees still to be read
+    // (the next one on top), and the tokens lexed for the edited region
+    private int[] stateStack = new int[INITIAL_CAPACITY];
+    private int[] nodeStack = new int[INITIAL_CAPACITY];
+    private int[] pending = new int[INITIAL_CAPACITY];
+    private int[] children = new int[INITIAL_CAPACITY];
+    private int[] lexedTerminals = new int[INITIAL_CAPACITY];
+    private int[] lexedStarts = new int[INITIAL_CAPACITY];
+    private int[] lexedEnds = new int[INITIAL_CAPACITY];
+    private int[] lexedLookaheads = new int[INITIAL_CAPACITY];
+    private final int[] matchEnds = new int[2];
+    // Undo information of a reparse, so that a failed one leaves the old tree intact:
+    // nodes the old tree gave up (~node for a whole subtree), freed only once the reparse
+    // succeeds, and the earlier values of the links and states it overwrote in nodes that
+    // existed before it (~node for a state)
+    private int[] retired = new int[INITIAL_CAPACITY];
+    private int retiredCount;
+    private int[] undoNodes = new int[INITIAL_CAPACITY];
+    private int[] undoValues = new int[INITIAL_CAPACITY];
+    private int undoCount;
+    private int reparseNodeCount;
+    private int reparseFreeNodes;
+    // What the last relex() replaced: old tokens [first, replacedEnd) by insertedCount tokens
+    private int replacedEnd;
+    private int insertedCount;
+    private boolean tokensChanged;
+
+    public IncrementalParser(LRParsingTable parsingTable, Lexer lexer) {
+        if (lexer.getGrammar() != parsingTable.getGrammar()) {
+            throw new IllegalArgumentException("Lexer was generated for a different grammar");
+        }
+        this.parsingTable = parsingTable;
+        this.lexer = lexer;
+        this.eof = parsingTable.getGrammar().getEndMarkerId();
+        Grammar grammar = parsingTable.getGrammar();
+        this.listProductions = new boolean[grammar.getProductionCount()];
+        for (int p = 0; p < listProductions.length; p++) {
+            Production production = grammar.getProduction(p);
+            listProductions[p] = production.getRightSideLength() > 1 &&
+                                 production.getRightSideSymbol(0).equals(production.getLeftSide());
+        }
+    }
+
+    // Replaces the document and parses it from scratch
+    public boolean parse(CharSequence document) {
+        text.replace(0, text.length(), document);
+        return parseFromScratch();
+    }
+
+    // Replaces removedLength characters at offset with insertedText and reparses. Returns
+    // whether the edited document parses; after a failure the tree stays that of the last
+    // document that did.
+    public boolean edit(int offset, int removedLength, CharSequence insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > text.length()) {
+            throw new IllegalArgumentException("Edit [" + offset + ", " + (offset + removedLength) +
+                                               ") outside the document of length " + text.length());
+        }
+
+        int first = firstAffectedToken(offset);
+        moveGap(first);
+        text.replace(offset, removedLength, insertedText);
+        relex(first, offset + insertedText.length());
+        if (!tokensChanged) {
+            return dirtyStart == NONE;
+        }
+        if (dirtyStart == NONE) {
+            return reparse(first, replacedEnd, insertedCount);
+        }
+        // The tokens still to parse from earlier edits and this edit's, with any unchanged
+        // ones in between, replace one range of the tree's tokens
+        int end = Math.max(dirtyStart + dirtyCount, replacedEnd);
+        int oldEnd = dirtyOldEnd + end - (dirtyStart + dirtyCount);
+        int start = Math.min(dirtyStart, first);
+        return reparse(start, oldEnd, end + insertedCount - (replacedEnd - first) - start);
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    // Terminal id of a token, or Lexer.NO_TOKEN for a character that starts no token
+    public int getTerminal(int token) {
+        return terminals[slot(token)];
+    }
+
+    public int getTokenStart(int token) {
+        return position(tokenStarts, slot(token));
+    }
+
+    public int getTokenEnd(int token) {
+        return position(tokenEnds, slot(token));
+    }
+
+    // The tree of the last document that parsed, NONE if none has since parse(). It
+    // matches the tokens only if the last parse or edit succeeded.
+    public int getRoot() {
+        return root;
+    }
+
+    public int getSymbolCode(int node) {
+        return symbolCodes[node];
+    }
+
+    // Production index, NONE for tokens, or SEQUENCE
+    public int getProduction(int node) {
+        return productions[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    // Number of tokens the node covers; a node's tokens follow those of its previous siblings
+    public int getTokenWidth(int node) {
+        return widths[node];
+    }
+
+    private boolean parseFromScratch() {
+        nodeCount = 0;
+        freeNodes = NONE;
+        root = NONE;
+        tokenCount = 0;
+        gapStart = 0;
+        gapEnd = terminals.length;
+        maxReadAhead = 0;
+        dirtyStart = NONE;
+        relex(0, Integer.MAX_VALUE);
+        return reparse(0, 0, insertedCount);
+    }
+
+    // The first token that the lexer read an edit at offset for, or tokenCount
+    private int firstAffectedToken(int offset) {
+        // Tokens ending before offset - maxReadAhead did not read that far
+        int low = 0;
+        int high = tokenCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (position(tokenEnds, slot(middle)) < offset - maxReadAhead) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        while (low < tokenCount && position(lookaheadEnds, slot(low)) < offset) {
+            low++;
+        }
+        return low;
+    }
+
+    private int slot(int token) {
+        return token < gapStart ? token : token + gapEnd - gapStart;
+    }
+
+    private int position(int[] positions, int slot) {
+        return slot < gapStart ? positions[slot] : positions[slot] + text.length();
+    }
+
+    // Moves the gap in the token arrays to just before token k
+    private void moveGap(int k) {
+        int gapLength = gapEnd - gapStart;
+        if (k < gapStart) {
+            moveTokens(k, k + gapLength, gapStart - k, -text.length());
+        } else if (k > gapStart) {
+            moveTokens(gapEnd, gapStart, k - gapStart, text.length());
+        }
+        gapStart = k;
+        gapEnd = k + gapLength;
+    }
+
+    private void moveTokens(int from, int to, int count, int shift) {
+        System.arraycopy(terminals, from, terminals, to, count);
+        System.arraycopy(tokenStarts, from, tokenStarts, to, count);
+        System.arraycopy(tokenEnds, from, tokenEnds, to, count);
+        System.arraycopy(lookaheadEnds, from, lookaheadEnds, to, count);
+        for (int i = to; i < to + count; i++) {
+            tokenStarts[i] += shift;
+            tokenEnds[i] += shift;
+            lookaheadEnds[i] += shift;
+        }
+    }
+
+    // Lexes the edited text from where token first's segment starts (the end of the
+    // previous token), with the gap just before first, until it reaches, at or after
+    // syncFrom, the start of an old token's segment: the text from there on is unchanged,
+    // and so are the tokens. Old token first is always replaced. Splices the new tokens
+    // in place of the old ones in between.
+    private void relex(int first, int syncFrom) {
+        int length = text.length();
+        int capacity = terminals.length;
+        int position = first > 0 ? tokenEnds[first - 1] : 0;
+        int lookahead = position;
+        // Slot of the old token whose segment start is the next candidate to sync at
+        int next = gapEnd + 1;
+        int count = 0;
+        while (true) {
+            if (position >= syncFrom) {
+                while (next < capacity && tokenEnds[next - 1] + length < position) {
+                    next++;
+                }
+                if (next < capacity && tokenEnds[next - 1] + length == position) {
+                    break;
+                }
+            }
+            if (position == length) {
+                next = capacity;
+                break;
+            }
+            int token = lexer.match(text, position, matchEnds);
+            if (token == Lexer.NO_TOKEN) {
+                matchEnds[0] = position + 1;
+            }
+            lookahead = Math.max(lookahead, matchEnds[1]);
+            if (token != Lexer.SKIP) {
+                if (count == lexedTerminals.length) {
+                    lexedTerminals = Arrays.copyOf(lexedTerminals, count * 2);
+                    lexedStarts = Arrays.copyOf(lexedStarts, count * 2);
+                    lexedEnds = Arrays.copyOf(lexedEnds, count * 2);
+                    lexedLookaheads = Arrays.copyOf(lexedLookaheads, count * 2);
+                }
+                lexedTerminals[count] = token;
+                lexedStarts[count] = position;
+                lexedEnds[count] = matchEnds[0];
+                lexedLookaheads[count] = lookahead;
+                count++;
+                maxReadAhead = Math.max(maxReadAhead, lookahead - matchEnds[0]);
+                lookahead = matchEnds[0];
+            }
+            position = matchEnds[0];
+        }
+
+        int removed = next - gapEnd;
+        tokensChanged = count != removed || !Arrays.equals(terminals, gapEnd, next, lexedTerminals, 0, count);
+        replacedEnd = first + removed;
+        insertedCount = count;
+        gapEnd = next;
+        if (gapEnd < capacity) {
+            // The skipped text lexed before the sync point belongs to the next token's segment
+            lookaheadEnds[gapEnd] = Math.max(lookaheadEnds[gapEnd], lookahead - length);
+        }
+        if (gapEnd - gapStart < count) {
+            growGap(count);
+        }
+        System.arraycopy(lexedTerminals, 0, terminals, gapStart, count);
+        System.arraycopy(lexedStarts, 0, tokenStarts, gapStart, count);
+        System.arraycopy(lexedEnds, 0, tokenEnds, gapStart, count);
+        System.arraycopy(lexedLookaheads, 0, lookaheadEnds, gapStart, count);
+        gapStart += count;
+        tokenCount += count - removed;
+    }
+
+    private void growGap(int required) {
+        int tail = terminals.length - gapEnd;
+        int capacity = Math.max(terminals.length * 2, gapStart + required + tail);
+        terminals = withGap(terminals, capacity, tail);
+        tokenStarts = withGap(tokenStarts, capacity, tail);
+        tokenEnds = withGap(tokenEnds, capacity, tail);
+        lookaheadEnds = withGap(lookaheadEnds, capacity, tail);
+        gapEnd = capacity - tail;
+    }
+
+    private static int[] withGap(int[] array, int capacity, int tail) {
+        int[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    // Parses with the old tree as input, in which old tokens [changeStart, changeEnd) have
+    // been replaced by the insertedCount tokens now at changeStart. On failure the old
+    // tree is left as it was, and the replaced tokens as still to parse.
+    private boolean reparse(int changeStart, int changeEnd, int insertedCount) {
+        retiredCount = 0;
+        undoCount = 0;
+        reparseNodeCount = nodeCount;
+        reparseFreeNodes = freeNodes;
+        int tokenDelta = insertedCount - (changeEnd - changeStart);
+        int nextNewToken = changeStart;
+        int newTokensEnd = changeStart + insertedCount;
+        // Old index of the first token of the subtree on top of pending
+        int oldPosition = 0;
+        int pendingCount = 0;
+        if (root != NONE) {
+            pending[pendingCount++] = root;
+        }
+        int top = 0;
+        stateStack[0] = 0;
+
+        while (true) {
+            // The next input: a new token, an old subtree (or token), or the end marker
+            int node = NONE;
+            int end = oldPosition;
+            int terminal;
+            if (oldPosition == changeStart && nextNewToken < newTokensEnd) {
+                terminal = terminals[slot(nextNewToken)];
+            } else if (pendingCount == 0) {
+                terminal = eof;
+            } else {
+                node = pending[pendingCount - 1];
+                end = oldPosition + widths[node];
+                if (end == oldPosition || (oldPosition >= changeStart && end <= changeEnd)) {
+                    // The parser rebuilds empty subtrees itself, and replaced tokens are gone
+                    pendingCount--;
+                    retire(~node);
+                    oldPosition = end;
+                    continue;
+                }
+                if (end > changeStart && oldPosition < changeEnd) {
+                    pendingCount = breakDown(node, pendingCount);
+                    continue;
+                }
+                terminal = terminals[slot(oldPosition < changeStart ? oldPosition : oldPosition + tokenDelta)];
+            }
+
+            int state = stateStack[top];
+            if (node != NONE && symbolCodes[node] < 0 && states[node] == state &&
+                (end < changeStart || oldPosition >= changeEnd)) {
+                // The subtree was parsed from this same state before, and neither its tokens
+                // nor the one after it were replaced: parsing it again would take the same
+                // steps, including any reductions on its first token, so it is shifted whole
+                pendingCount--;
+                oldPosition = end;
+                top = push(top, parsingTable.getGotoState(state, ~symbolCodes[node]), node);
+                continue;
+            }
+            if (node != NONE && states[node] == ~state && (end < changeStart || oldPosition >= changeEnd)) {
+                // Items of the list on top of the stack, parsed from this state before:
+                // each would be shifted and reduced into the list as it was then
+                pendingCount--;
+                oldPosition = end;
+                nodeStack[top] = join(nodeStack[top], node);
+                continue;
+            }
+            int action = terminal == Lexer.NO_TOKEN ? LRParsingTable.ERROR
+                                                    : parsingTable.getActionCode(state, terminal);
+            int kind = LRParsingTable.kindOf(action);
+            if (kind == LRParsingTable.REDUCE) {
+                int prodIndex = LRParsingTable.valueOf(action);
+                int leftSideId = parsingTable.getLeftSideId(prodIndex);
+                int list = top - parsingTable.getRightSideLength(prodIndex) + 1;
+                int parent = newNode(~leftSideId, prodIndex);
+                int width = 0;
+                int previous = NONE;
+                for (int i = listProductions[prodIndex] ? list + 1 : list; i <= top; i++) {
+                    int child = nodeStack[i];
+                    if (previous == NONE) {
+                        firstChildren[parent] = child;
+                    } else {
+                        setNextSibling(previous, child);
+                    }
+                    width += widths[child];
+                    previous = child;
+                }
+                if (previous != NONE) {
+                    setNextSibling(previous, NONE);
+                }
+                widths[parent] = width;
+                top -= parsingTable.getRightSideLength(prodIndex);
+                if (listProductions[prodIndex]) {
+                    // A new item of the list below it
+                    states[parent] = ~stateStack[list];
+                    parent = join(nodeStack[list], parent);
+                } else {
+                    states[parent] = stateStack[top];
+                }
+                top = push(top, parsingTable.getGotoState(stateStack[top], leftSideId), parent);
+                continue;
+            }
+            if (kind == LRParsingTable.ACCEPT) {
+                root = nodeStack[top];
+                for (int i = 0; i < retiredCount; i++) {
+                    if (retired[i] >= 0) {
+                        freeNode(retired[i]);
+                    } else {
+                        freeSubtree(~retired[i]);
+                    }
+                }
+                dirtyStart = NONE;
+                return true;
+            }
+
+            if (node != NONE && symbolCodes[node] < 0) {
+                pendingCount = breakDown(node, pendingCount);
+                continue;
+            }
+            if (kind != LRParsingTable.SHIFT) {
+                // Undo in reverse order, which also restores the free list
+                for (int i = undoCount - 1; i >= 0; i--) {
+                    if (undoNodes[i] >= 0) {
+                        nextSiblings[undoNodes[i]] = undoValues[i];
+                    } else {
+                        states[~undoNodes[i]] = undoValues[i];
+                    }
+                }
+                nodeCount = reparseNodeCount;
+                freeNodes = reparseFreeNodes;
+                dirtyStart = changeStart;
+                dirtyOldEnd = changeEnd;
+                dirtyCount = insertedCount;
+                return false;
+            }
+            int leaf;
+            if (node != NONE) {
+                pendingCount--;
+                oldPosition = end;
+                leaf = node;
+            } else {
+                leaf = newNode(terminal, NONE);
+                widths[leaf] = 1;
+                nextNewToken++;
+            }
+            setState(leaf, state);
+            top = push(top, LRParsingTable.valueOf(action), leaf);
+        }
+    }
+
+    private int push(int top, int state, int node) {
+        if (++top == stateStack.length) {
+            stateStack = Arrays.copyOf(stateStack, top * 2);
+            nodeStack = Arrays.copyOf(nodeStack, top * 2);
+        }
+        stateStack[top] = state;
+        nodeStack[top] = node;
+        return top;
+    }
+
+    // The list left followed by the items right, balanced as an AVL tree (Blelloch et
+    // al., "Just Join for Parallel Ordered Sets"). Nodes on the path taken are replaced
+    // rather than changed, and retired, so that a failed reparse leaves the old tree intact.
+    private int join(int left, int right) {
+        if (heights[left] > heights[right] + 1) {
+            int leftChild = firstChildren[left];
+            int middle = nextSiblings[leftChild];
+            retire(left);
+            if (heights[middle] <= heights[right] + 1) {
+                if (Math.max(heights[middle], heights[right]) < heights[leftChild] + 1) {
+                    return sequence(leftChild, sequence(middle, right));
+                }
+                int middleLeft = firstChildren[middle];
+                int middleRight = nextSiblings[middleLeft];
+                retire(middle);
+                return sequence(sequence(leftChild, middleLeft), sequence(middleRight, right));
+            }
+            int joined = join(middle, right);
+            if (heights[joined] <= heights[leftChild] + 1) {
+                return sequence(leftChild, joined);
+            }
+            int joinedLeft = firstChildren[joined];
+            int joinedRight = nextSiblings[joinedLeft];
+            retire(joined);
+            return sequence(sequence(leftChild, joinedLeft), joinedRight);
+        }
+        if (heights[right] > heights[left] + 1) {
+            int middle = firstChildren[right];
+            int rightChild = nextSiblings[middle];
+            retire(right);
+            if (heights[middle] <= heights[left] + 1) {
+                if (Math.max(heights[left], heights[middle]) < heights[rightChild] + 1) {
+                    return sequence(sequence(left, middle), rightChild);
+                }
+                int middleLeft = firstChildren[middle];
+                int middleRight = nextSiblings[middleLeft];
+                retire(middle);
+                return sequence(sequence(left, middleLeft), sequence(middleRight, rightChild));
+            }
+            int joined = join(left, middle);
+            if (heights[joined] <= heights[rightChild] + 1) {
+                return sequence(joined, rightChild);
+            }
+            int joinedLeft = firstChildren[joined];
+            int joinedRight = nextSiblings[joinedLeft];
+            retire(joined);
+            return sequence(joinedLeft, sequence(joinedRight, rightChild));
+        }
+        return sequence(left, right);
+    }
+
+    private int sequence(int left, int right) {
+        int node = newNode(symbolCodes[left], SEQUENCE);
+        firstChildren[node] = left;
+        setNextSibling(left, right);
+        setNextSibling(right, NONE);
+        widths[node] = widths[left] + widths[right];
+        heights[node] = Math.max(heights[left], heights[right]) + 1;
+        states[node] = states[left];
+        return node;
+    }
+
+    // Replaces the subtree on top of pending by its children, the first on top
+    private int breakDown(int node, int pendingCount) {
+        int childCount = 0;
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            children[childCount++] = child;
+        }
+        pendingCount--;
+        if (pendingCount + childCount > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingCount + childCount));
+        }
+        for (int i = childCount - 1; i >= 0; i--) {
+            pending[pendingCount++] = children[i];
+        }
+        retire(node);
+        return pendingCount;
+    }
+
+    private void retire(int code) {
+        if (retiredCount == retired.length) {
+            retired = Arrays.copyOf(retired, retiredCount * 2);
+        }
+        retired[retiredCount++] = code;
+    }
+
+    private void setNextSibling(int node, int sibling) {
+        if (node < reparseNodeCount) {
+            logUndo(node, nextSiblings[node]);
+        }
+        nextSiblings[node] = sibling;
+    }
+
+    private void setState(int node, int state) {
+        if (node < reparseNodeCount) {
+            logUndo(~node, states[node]);
+        }
+        states[node] = state;
+    }
+
+    private void logUndo(int code, int value) {
+        if (undoCount == undoNodes.length) {
+            undoNodes = Arrays.copyOf(undoNodes, undoCount * 2);
+            undoValues = Arrays.copyOf(undoValues, undoCount * 2);
+        }
+        undoNodes[undoCount] = code;
+        undoValues[undoCount++] = value;
+    }
+
+    private void freeSubtree(int node) {
+        int count = 0;
+        children[count++] = node;
+        while (count > 0) {
+            int current = children[--count];
+            for (int child = firstChildren[current]; child != NONE; child = nextSiblings[child]) {
+                if (count == children.length) {
+                    children = Arrays.copyOf(children, count * 2);
+                }
+                children[count++] = child;
+            }
+            freeNode(current);
+        }
+    }
+
+    private void freeNode(int node) {
+        nextSiblings[node] = freeNodes;
+        freeNodes = node;
+    }
+
+    private int newNode(int symbolCode, int productionIndex) {
+        int node;
+        if (freeNodes != NONE) {
+            node = freeNodes;
+            freeNodes = nextSiblings[node];
+        } else {
+            if (nodeCount == symbolCodes.length) {
+                int capacity = nodeCount * 2;
+                symbolCodes = Arrays.copyOf(symbolCodes, capacity);
+                productions = Arrays.copyOf(productions, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                widths = Arrays.copyOf(widths, capacity);
+                heights = Arrays.copyOf(heights, capacity);
+                states = Arrays.copyOf(states, capacity);
+            }
+            node = nodeCount++;
+        }
+        symbolCodes[node] = symbolCode;
+        productions[node] = productionIndex;
+        firstChildren[node] = NONE;
+        setNextSibling(node, NONE);
+        widths[node] = 0;
+        heights[node] = 0;
+        return node;
+    }
+
+    // The document as a gap buffer: the characters before the gap, then after it
+    private static final class GapText implements CharSequence {
+        private char[] chars = new char[INITIAL_CAPACITY];
+        private int gapStart;
+        private int gapEnd = INITIAL_CAPACITY;
+
+        void replace(int offset, int removedLength, CharSequence inserted) {
+            int gapLength = gapEnd - gapStart;
+            if (offset < gapStart) {
+                System.arraycopy(chars, offset, chars, offset + gapLength, gapStart - offset);
+            } else if (offset > gapStart) {
+                System.arraycopy(chars, gapEnd, chars, gapStart, offset - gapStart);
+            }
+            gapStart = offset;
+            gapEnd = offset + gapLength + removedLength;
+            int insertedLength = inserted.length();
+            if (gapEnd - gapStart < insertedLength) {
+                int tail = chars.length - gapEnd;
+                int capacity = Math.max(chars.length * 2, gapStart + insertedLength + tail);
+                char[] grown = Arrays.copyOf(chars, capacity);
+                System.arraycopy(chars, gapEnd, grown, capacity - tail, tail);
+                chars = grown;
+                gapEnd = capacity - tail;
+            }
+            for (int i = 0; i < insertedLength; i++) {
+                chars[gapStart++] = inserted.charAt(i);
+            }
+        }
+
+        @Override
+        public int length() {
+            return chars.length - gapEnd + gapStart;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, gapStart) + new String(chars, gapEnd, chars.length - gapEnd);
+        }
+    }
+}
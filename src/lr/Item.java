@@ -21,14 +21,14 @@ public class Item {
     }
 
     public boolean isComplete() {
-        return dotPosition >= production.getRightSide().size();
+        return dotPosition >= production.getRightSideLength();
     }
 
     public Symbol getSymbolAfterDot() {
         if (isComplete()) {
             return null;
         }
-        return production.getRightSide().get(dotPosition);
+        return production.getRightSideSymbol(dotPosition);
     }
 
     public Item advance() {
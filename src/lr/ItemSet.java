@@ -4,16 +4,70 @@ import utils.*;
 import java.util.*;
 
 public class ItemSet {
-    private final Set<Item> items;
+    private final AugmentedGrammar grammar;
+    // Only the kernel is stored, as item ids in ascending order. The rest of the closure
+    // is the dot-0 items of the productions in the grammar's precomputed closure sets.
+    private final int[] kernel;
     private final int stateNumber;
 
-    public ItemSet(Set<Item> items, int stateNumber) {
-        this.items = new HashSet<>(items);
+    ItemSet(AugmentedGrammar grammar, int[] kernel, int stateNumber) {
+        this.grammar = grammar;
+        this.kernel = kernel;
         this.stateNumber = stateNumber;
     }
 
     public Set<Item> getItems() {
-        return new HashSet<>(items);
+        Set<Item> result = new LinkedHashSet<>();
+        for (int item : getItemIds()) {
+            result.add(grammar.toItem(item));
+        }
+        return result;
+    }
+
+    int[] getKernelIds() {
+        return kernel;
+    }
+
+    // Full closure as item ids in ascending order
+    int[] getItemIds() {
+        long[] productions = getClosureProductions();
+        int[] items = new int[kernel.length + cardinality(productions)];
+
+        // Kernel items never have the dot at 0 (apart from the start item, whose
+        // production is in no closure), so merging the two sorted runs is enough
+        int k = 0;
+        int count = 0;
+        for (int p = BitSets.nextSetBit(productions, 0); p >= 0; p = BitSets.nextSetBit(productions, p + 1)) {
+            int item = grammar.getItem(p, 0);
+            while (k < kernel.length && kernel[k] < item) {
+                items[count++] = kernel[k++];
+            }
+            items[count++] = item;
+        }
+        while (k < kernel.length) {
+            items[count++] = kernel[k++];
+        }
+        return items;
+    }
+
+    // Productions whose dot-0 items are added by closure
+    long[] getClosureProductions() {
+        long[] productions = BitSets.create(grammar.getProductionCount());
+        for (int item : kernel) {
+            int code = grammar.getSymbolAfterDot(item);
+            if (code != AugmentedGrammar.NO_SYMBOL && code < 0) {
+                grammar.addClosure(~code, productions);
+            }
+        }
+        return productions;
+    }
+
+    private static int cardinality(long[] set) {
+        int count = 0;
+        for (long word : set) {
+            count += Long.bitCount(word);
+        }
+        return count;
     }
 
     public int getStateNumber() {
@@ -21,21 +75,22 @@ public class ItemSet {
     }
 
     public Set<Symbol> getNextSymbols() {
-        Set<Symbol> symbols = new HashSet<>();
-        for (Item item : items) {
-            Symbol symbol = item.getSymbolAfterDot();
-            if (symbol != null) {
-                symbols.add(symbol);
+        Set<Symbol> symbols = new LinkedHashSet<>();
+        for (int item : getItemIds()) {
+            int code = grammar.getSymbolAfterDot(item);
+            if (code != AugmentedGrammar.NO_SYMBOL) {
+                symbols.add(grammar.decode(code));
             }
         }
         return symbols;
     }
 
     public Set<Item> getItemsWithNextSymbol(Symbol symbol) {
-        Set<Item> result = new HashSet<>();
-        for (Item item : items) {
-            if (item.getSymbolAfterDot() != null && item.getSymbolAfterDot().equals(symbol)) {
-                result.add(item);
+        Set<Item> result = new LinkedHashSet<>();
+        for (int item : getItemIds()) {
+            int code = grammar.getSymbolAfterDot(item);
+            if (code != AugmentedGrammar.NO_SYMBOL && grammar.decode(code).equals(symbol)) {
+                result.add(grammar.toItem(item));
             }
         }
         return result;
@@ -45,20 +100,20 @@ public class ItemSet {
     public boolean equals(Object obj) {
         if (!(obj instanceof ItemSet)) return false;
         ItemSet other = (ItemSet) obj;
-        return items.equals(other.items);
+        return Arrays.equals(kernel, other.kernel);
     }
 
     @Override
     public int hashCode() {
-        return items.hashCode();
+        return Arrays.hashCode(kernel);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("State ").append(stateNumber).append(":\n");
-        for (Item item : items) {
-            sb.append("  ").append(item).append("\n");
+        for (int item : getItemIds()) {
+            sb.append("  ").append(grammar.toItem(item)).append("\n");
         }
         return sb.toString();
     }
@@ -0,0 +1,363 @@
+package lr;
+
+import utils.*;
+import java.util.*;
+
+// LR(1) automaton built with Pager's practical general method. A GOTO target is merged
+// into an existing state with the same core whenever their lookaheads are weakly
+// compatible, which never introduces a conflict that canonical LR(1) would not have.
+// The result has full LR(1) power with a state count close to LALR(1).
+public class LR1Collection implements LRAutomaton {
+    private final Grammar grammar;
+    private final AugmentedGrammar augmentedGrammar;
+    private final int terminalColumns;
+    private final int symbolColumns;
+
+    private final GrammarAnalysis analysis;
+
+    // States as kernels (sorted item ids) with one lookahead set per kernel item
+    private List<ItemSet> states;
+    private List<long[][]> kernelLookaheads;
+    private List<int[]> transitions;
+    private final Map<CanonicalCollection.Kernel, List<Integer>> statesByCore;
+    private final Deque<Integer> worklist;
+    private final BitSet queued;
+
+    // Reductions of each state: production indices and their lookahead sets
+    private int[][] reductions;
+    private long[][][] reductionLookaheads;
+    private final long buildTimeNanos;
+
+    public LR1Collection(Grammar grammar) {
+        long start = System.nanoTime();
+        this.grammar = grammar;
+        this.augmentedGrammar = new AugmentedGrammar(grammar);
+        this.terminalColumns = grammar.getTerminalCount() + 1;
+        this.symbolColumns = terminalColumns + grammar.getNonTerminalCount();
+        this.analysis = grammar.getAnalysis();
+        this.states = new ArrayList<>();
+        this.kernelLookaheads = new ArrayList<>();
+        this.transitions = new ArrayList<>();
+        this.statesByCore = new HashMap<>();
+        this.worklist = new ArrayDeque<>();
+        this.queued = new BitSet();
+        constructCollection();
+        removeUnreachableStates();
+        collectReductions();
+        this.buildTimeNanos = System.nanoTime() - start;
+    }
+
+    private void constructCollection() {
+        // Initial state is [S' -> •S, $]
+        long[] endMarker = BitSets.create(terminalColumns);
+        BitSets.set(endMarker, grammar.getEndMarkerId());
+        addState(new int[] { augmentedGrammar.getStartItem() }, new long[][] { endMarker });
+
+        int[][] buckets = new int[symbolColumns][];
+        long[][][] bucketLookaheads = new long[symbolColumns][][];
+        int[] bucketSizes = new int[symbolColumns];
+        int[] usedColumns = new int[symbolColumns];
+
+        // A state is processed again whenever a merge grows its lookaheads, so that the
+        // new lookaheads reach its successors
+        while (!worklist.isEmpty()) {
+            int stateNumber = worklist.poll();
+            queued.clear(stateNumber);
+
+            int[] items = states.get(stateNumber).getItemIds();
+            long[][] lookaheads = computeClosureLookaheads(stateNumber, items);
+            int usedCount = 0;
+
+            for (int i = 0; i < items.length; i++) {
+                int code = augmentedGrammar.getSymbolAfterDot(items[i]);
+                if (code == AugmentedGrammar.NO_SYMBOL) {
+                    continue;
+                }
+                int column = code >= 0 ? code : terminalColumns + ~code;
+                if (bucketSizes[column] == 0) {
+                    usedColumns[usedCount++] = column;
+                    if (buckets[column] == null) {
+                        buckets[column] = new int[4];
+                        bucketLookaheads[column] = new long[4][];
+                    }
+                } else if (bucketSizes[column] == buckets[column].length) {
+                    buckets[column] = Arrays.copyOf(buckets[column], bucketSizes[column] * 2);
+                    bucketLookaheads[column] = Arrays.copyOf(bucketLookaheads[column], bucketSizes[column] * 2);
+                }
+                bucketLookaheads[column][bucketSizes[column]] = lookaheads[i].clone();
+                buckets[column][bucketSizes[column]++] = items[i] + 1;
+            }
+
+            for (int u = 0; u < usedCount; u++) {
+                int column = usedColumns[u];
+                int size = bucketSizes[column];
+                int[] kernel = Arrays.copyOf(buckets[column], size);
+                long[][] kernelSets = Arrays.copyOf(bucketLookaheads[column], size);
+                bucketSizes[column] = 0;
+                transitions.get(stateNumber)[column] = findOrAddState(kernel, kernelSets);
+            }
+        }
+    }
+
+    // Lookaheads of every item in a state's closure, parallel to items. Kernel items
+    // carry their own sets; the dot-0 items of a non-terminal all share one set.
+    private long[][] computeClosureLookaheads(int stateNumber, int[] items) {
+        int[] kernel = states.get(stateNumber).getKernelIds();
+        long[][] kernelSets = kernelLookaheads.get(stateNumber);
+        long[][] nonTerminalSets = new long[grammar.getNonTerminalCount()][];
+
+        // Seed from the kernel: [A -> α•Bβ, L] gives B the lookaheads FIRST(βL)
+        for (int k = 0; k < kernel.length; k++) {
+            int code = augmentedGrammar.getSymbolAfterDot(kernel[k]);
+            if (code == AugmentedGrammar.NO_SYMBOL || code >= 0) {
+                continue;
+            }
+            long[] set = lookaheadsFor(nonTerminalSets, ~code);
+            int prodIndex = augmentedGrammar.getProductionOf(kernel[k]);
+            if (addFirstOfSuffix(prodIndex, augmentedGrammar.getDotPosition(kernel[k]) + 1, set)) {
+                BitSets.or(set, kernelSets[k]);
+            }
+        }
+
+        // Closure items [B -> •Cδ] give C FIRST(δ), plus B's lookaheads when δ derives ε.
+        // The latter edges are propagated to a fixpoint.
+        int[] edges = new int[16];
+        int edgeCount = 0;
+        for (int item : items) {
+            if (augmentedGrammar.getDotPosition(item) != 0
+                    || augmentedGrammar.getProductionOf(item) == augmentedGrammar.getStartProductionIndex()) {
+                continue;
+            }
+            int code = augmentedGrammar.getSymbolAfterDot(item);
+            if (code == AugmentedGrammar.NO_SYMBOL || code >= 0) {
+                continue;
+            }
+            int prodIndex = augmentedGrammar.getProductionOf(item);
+            if (addFirstOfSuffix(prodIndex, 1, lookaheadsFor(nonTerminalSets, ~code))) {
+                if (edgeCount + 2 > edges.length) {
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                }
+                edges[edgeCount++] = grammar.getProduction(prodIndex).getLeftSide().getId();
+                edges[edgeCount++] = ~code;
+            }
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (int e = 0; e < edgeCount; e += 2) {
+                long[] from = lookaheadsFor(nonTerminalSets, edges[e]);
+                if (BitSets.or(lookaheadsFor(nonTerminalSets, edges[e + 1]), from)) {
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        long[][] result = new long[items.length][];
+        int k = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (k < kernel.length && kernel[k] == items[i]) {
+                result[i] = kernelSets[k++];
+            } else {
+                int prodIndex = augmentedGrammar.getProductionOf(items[i]);
+                result[i] = lookaheadsFor(nonTerminalSets, grammar.getProduction(prodIndex).getLeftSide().getId());
+            }
+        }
+        return result;
+    }
+
+    private boolean addFirstOfSuffix(int prodIndex, int from, long[] target) {
+        // Nothing follows the start symbol in S' -> S
+        if (prodIndex == augmentedGrammar.getStartProductionIndex()) {
+            return true;
+        }
+        return analysis.addFirstOfSuffix(prodIndex, from, target);
+    }
+
+    private long[] lookaheadsFor(long[][] nonTerminalSets, int nonTerminalId) {
+        if (nonTerminalSets[nonTerminalId] == null) {
+            nonTerminalSets[nonTerminalId] = BitSets.create(terminalColumns);
+        }
+        return nonTerminalSets[nonTerminalId];
+    }
+
+    private int findOrAddState(int[] kernel, long[][] lookaheads) {
+        CanonicalCollection.Kernel core = new CanonicalCollection.Kernel(kernel);
+        List<Integer> candidates = statesByCore.get(core);
+        if (candidates != null) {
+            for (int candidate : candidates) {
+                long[][] existing = kernelLookaheads.get(candidate);
+                if (!weaklyCompatible(existing, lookaheads)) {
+                    continue;
+                }
+                boolean grown = false;
+                for (int i = 0; i < existing.length; i++) {
+                    grown |= BitSets.or(existing[i], lookaheads[i]);
+                }
+                if (grown && !queued.get(candidate)) {
+                    queued.set(candidate);
+                    worklist.add(candidate);
+                }
+                return candidate;
+            }
+        }
+        return addState(kernel, lookaheads);
+    }
+
+    // Pager's weak compatibility: for every pair of kernel items i and j, either the
+    // cross lookaheads are disjoint, or one of the states already has a conflict
+    // between i and j, so merging cannot create a new one
+    private static boolean weaklyCompatible(long[][] first, long[][] second) {
+        for (int i = 0; i < first.length; i++) {
+            for (int j = i + 1; j < first.length; j++) {
+                if (!intersects(first[i], second[j]) && !intersects(first[j], second[i])) {
+                    continue;
+                }
+                if (intersects(first[i], first[j]) || intersects(second[i], second[j])) {
+                    continue;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if ((a[i] & b[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int addState(int[] kernel, long[][] lookaheads) {
+        int stateNumber = states.size();
+        states.add(new ItemSet(augmentedGrammar, kernel, stateNumber));
+        kernelLookaheads.add(lookaheads);
+        int[] row = new int[symbolColumns];
+        Arrays.fill(row, -1);
+        transitions.add(row);
+        statesByCore.computeIfAbsent(new CanonicalCollection.Kernel(kernel), k -> new ArrayList<>(1)).add(stateNumber);
+        queued.set(stateNumber);
+        worklist.add(stateNumber);
+        return stateNumber;
+    }
+
+    // Reprocessing a merged state can redirect its transitions, leaving states that are
+    // no longer reachable. Renumber the reachable ones in breadth-first order.
+    private void removeUnreachableStates() {
+        int[] newNumbers = new int[states.size()];
+        Arrays.fill(newNumbers, -1);
+        int[] order = new int[states.size()];
+        int count = 0;
+        newNumbers[0] = 0;
+        order[count++] = 0;
+        for (int i = 0; i < count; i++) {
+            for (int target : transitions.get(order[i])) {
+                if (target >= 0 && newNumbers[target] < 0) {
+                    newNumbers[target] = count;
+                    order[count++] = target;
+                }
+            }
+        }
+
+        List<ItemSet> reachableStates = new ArrayList<>(count);
+        List<long[][]> reachableLookaheads = new ArrayList<>(count);
+        List<int[]> reachableTransitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int old = order[i];
+            reachableStates.add(new ItemSet(augmentedGrammar, states.get(old).getKernelIds(), i));
+            reachableLookaheads.add(kernelLookaheads.get(old));
+            int[] row = transitions.get(old);
+            for (int c = 0; c < row.length; c++) {
+                if (row[c] >= 0) {
+                    row[c] = newNumbers[row[c]];
+                }
+            }
+            reachableTransitions.add(row);
+        }
+        states = reachableStates;
+        kernelLookaheads = reachableLookaheads;
+        transitions = reachableTransitions;
+        statesByCore.clear();
+    }
+
+    private void collectReductions() {
+        reductions = new int[states.size()][];
+        reductionLookaheads = new long[states.size()][][];
+        for (int stateNumber = 0; stateNumber < states.size(); stateNumber++) {
+            int[] items = getItemIds(stateNumber);
+            long[][] lookaheads = computeClosureLookaheads(stateNumber, items);
+            int[] productions = new int[items.length];
+            long[][] sets = new long[items.length][];
+            int count = 0;
+            for (int i = 0; i < items.length; i++) {
+                int prodIndex = augmentedGrammar.getProductionOf(items[i]);
+                if (augmentedGrammar.getSymbolAfterDot(items[i]) == AugmentedGrammar.NO_SYMBOL
+                        && prodIndex != augmentedGrammar.getStartProductionIndex()) {
+                    productions[count] = prodIndex;
+                    sets[count++] = lookaheads[i];
+                }
+            }
+            reductions[stateNumber] = Arrays.copyOf(productions, count);
+            reductionLookaheads[stateNumber] = Arrays.copyOf(sets, count);
+        }
+    }
+
+    @Override
+    public AugmentedGrammar getAugmentedGrammar() {
+        return augmentedGrammar;
+    }
+
+    @Override
+    public int getStateCount() {
+        return states.size();
+    }
+
+    @Override
+    public int getTerminalTransition(int stateNumber, int terminalId) {
+        return transitions.get(stateNumber)[terminalId];
+    }
+
+    @Override
+    public int getNonTerminalTransition(int stateNumber, int nonTerminalId) {
+        return transitions.get(stateNumber)[terminalColumns + nonTerminalId];
+    }
+
+    @Override
+    public int[] getItemIds(int stateNumber) {
+        return states.get(stateNumber).getItemIds();
+    }
+
+    @Override
+    public long getBuildTimeNanos() {
+        return buildTimeNanos;
+    }
+
+    // Lookahead terminals for reducing by a production in a state, as a bitset over
+    // terminal ids (end marker included), or null if the state has no such reduction
+    public long[] getLookaheads(int stateNumber, int prodIndex) {
+        int[] stateReductions = reductions[stateNumber];
+        for (int r = 0; r < stateReductions.length; r++) {
+            if (stateReductions[r] == prodIndex) {
+                return reductionLookaheads[stateNumber][r].clone();
+            }
+        }
+        return null;
+    }
+
+    public Set<LR1Item> getItems(int stateNumber) {
+        int[] items = getItemIds(stateNumber);
+        long[][] lookaheads = computeClosureLookaheads(stateNumber, items);
+        Set<LR1Item> result = new LinkedHashSet<>();
+        for (int i = 0; i < items.length; i++) {
+            Set<Symbol> symbols = new LinkedHashSet<>();
+            for (int t = BitSets.nextSetBit(lookaheads[i], 0); t >= 0; t = BitSets.nextSetBit(lookaheads[i], t + 1)) {
+                symbols.add(grammar.getTerminal(t));
+            }
+            Item item = augmentedGrammar.toItem(items[i]);
+            result.add(new LR1Item(item.getProduction(), item.getDotPosition(), symbols));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package lr;
+
+import utils.*;
+import java.util.*;
+
+// An LR(0) item paired with the terminals that may follow it when it is reduced
+public class LR1Item extends Item {
+    private final Set<Symbol> lookaheads;
+
+    public LR1Item(Production production, int dotPosition, Set<Symbol> lookaheads) {
+        super(production, dotPosition);
+        this.lookaheads = new LinkedHashSet<>(lookaheads);
+    }
+
+    public Set<Symbol> getLookaheads() {
+        return new LinkedHashSet<>(lookaheads);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof LR1Item)) return false;
+        LR1Item other = (LR1Item) obj;
+        return super.equals(other) && lookaheads.equals(other.lookaheads);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + lookaheads.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[").append(super.toString()).append(", ");
+        boolean first = true;
+        for (Symbol lookahead : lookaheads) {
+            if (!first) {
+                sb.append("/");
+            }
+            sb.append(lookahead);
+            first = false;
+        }
+        return sb.append("]").toString();
+    }
+}
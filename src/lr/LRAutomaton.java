@@ -0,0 +1,18 @@
+package lr;
+
+// The parts of an LR automaton that table construction needs: states, transitions and
+// the items of each state. Implemented by the LR(0) and LR(1) collections.
+interface LRAutomaton {
+    AugmentedGrammar getAugmentedGrammar();
+
+    int getStateCount();
+
+    int getTerminalTransition(int stateNumber, int terminalId);
+
+    int getNonTerminalTransition(int stateNumber, int nonTerminalId);
+
+    // Closure of a state as item ids in ascending order
+    int[] getItemIds(int stateNumber);
+
+    long getBuildTimeNanos();
+}
@@ -0,0 +1,14 @@
+package lr;
+
+// Receives the steps of an LR parse as they happen, instead of a tree. Shifts arrive
+// in input order and each reduction right after the last token of its phrase, so the
+// reductions form a rightmost derivation in reverse: a consumer that keeps a value
+// stack can compute anything bottom-up in one pass. Arguments are primitive, so the
+// parser allocates nothing per event.
+public interface LRParseListener {
+    // offset is the token's position in the input: its index in a token array, or the
+    // offset reported by the TokenSource
+    void onShift(int terminalId, long offset);
+
+    void onReduce(int productionIndex);
+}
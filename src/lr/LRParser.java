@@ -1,81 +1,399 @@
 package lr;
 
 import utils.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
+// Parsers are immutable apart from compile(), which any thread may call, so one parser
+// and its tables can be shared by every thread of a JVM. The state stack of a parse
+// lives in a ParseContext: methods without one create their own, and a thread that
+// parses repeatedly can pass the same context each time to reuse its stack.
 public class LRParser {
     private final Grammar grammar;
     private final LRParsingTable parsingTable;
-    private final Symbol EOF = new Symbol("$", true);
+    private final int errorTerminalId;
+    // FOLLOW set of each non-terminal, for recovery
+    private final long[][] followSets;
+    private volatile CompiledParser compiledParser;
 
     public LRParser(Grammar grammar) {
+        this(grammar, LRParsingTable.TableType.SLR);
+    }
+
+    public LRParser(Grammar grammar, LRParsingTable.TableType tableType) {
         this.grammar = grammar;
-        CanonicalCollection collection = new CanonicalCollection(grammar);
-        this.parsingTable = new LRParsingTable(grammar, collection);
+        if (tableType == LRParsingTable.TableType.LR1) {
+            this.parsingTable = new LRParsingTable(grammar, new LR1Collection(grammar));
+        } else {
+            this.parsingTable = new LRParsingTable(grammar, new CanonicalCollection(grammar), tableType);
+        }
+        this.errorTerminalId = grammar.getErrorTerminalId();
+        this.followSets = followSets(grammar);
     }
 
-    public boolean parse(List<Symbol> input) {
-        // Add EOF to input
-        input = new ArrayList<>(input);
-        input.add(EOF);
-        
-        // Initialize stacks
-        Stack<Integer> stateStack = new Stack<>();
-        Stack<Symbol> symbolStack = new Stack<>();
-        stateStack.push(0);
-        
-        int inputIndex = 0;
-        
-        while (true) {
-            int currentState = stateStack.peek();
-            Symbol currentSymbol = input.get(inputIndex);
-            
-            LRParsingTable.Action action = parsingTable.getAction(currentState, currentSymbol);
-            
-            if (action == null) {
-                System.out.println("Error: No action defined for state " + currentState + 
-                                  " and symbol " + currentSymbol);
+    // Parser over prebuilt tables, e.g. loaded with LRParsingTable.load()
+    public LRParser(LRParsingTable parsingTable) {
+        this.grammar = parsingTable.getGrammar();
+        this.parsingTable = parsingTable;
+        this.errorTerminalId = grammar.getErrorTerminalId();
+        this.followSets = followSets(grammar);
+    }
+
+    private static long[][] followSets(Grammar grammar) {
+        long[][] sets = new long[grammar.getNonTerminalCount()][];
+        for (int n = 0; n < sets.length; n++) {
+            sets[n] = grammar.getAnalysis().getFollowSet(n);
+        }
+        return sets;
+    }
+
+    // Parser whose tables come from the default table cache when it has them, and are
+    // built and added to it otherwise
+    public static LRParser create(Grammar grammar, LRParsingTable.TableType tableType) {
+        return create(grammar, tableType, TableCache.getDefault());
+    }
+
+    public static LRParser create(Grammar grammar, LRParsingTable.TableType tableType, TableCache cache) {
+        Path path = cache.getPath(grammar, tableType.toString());
+        if (Files.isRegularFile(path)) {
+            try {
+                return new LRParser(LRParsingTable.load(path, grammar, tableType));
+            } catch (IOException e) {
+                // Unreadable or stale entry: rebuild and replace it
+            }
+        }
+        LRParser parser = new LRParser(grammar, tableType);
+        cache.store(path, parser.getParsingTable()::save);
+        return parser;
+    }
+
+    public LRParsingTable getParsingTable() {
+        return parsingTable;
+    }
+
+    // Compiles the tables into a class of their own, which parse(int[], int) then runs
+    // instead of interpreting them. Returns false, leaving the parser interpreting, if
+    // the grammar is too large for one JIT-compiled method.
+    public boolean compile() {
+        if (compiledParser == null) {
+            try {
+                compiledParser = BytecodeCompiler.compile(parsingTable);
+            } catch (IllegalStateException e) {
                 return false;
             }
-            
-            switch (action.getType()) {
-                case SHIFT:
-                    // Shift: Push symbol and next state
-                    symbolStack.push(currentSymbol);
-                    stateStack.push(action.getValue());
-                    inputIndex++;
+        }
+        return true;
+    }
+
+    public boolean isCompiled() {
+        return compiledParser != null;
+    }
+
+    public boolean parse(List<Symbol> input) {
+        int[] tokens = new int[input.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = grammar.getTerminalId(input.get(i));
+            if (tokens[i] < 0) {
+                return false; // Unknown terminal
+            }
+        }
+        // A failed parse only says no; parse(tokens, length, errors) reports where and
+        // recovers
+        return parse(tokens, tokens.length);
+    }
+
+    // Parses a sequence of terminal ids (all of which must belong to the grammar).
+    // The end marker is implied after the last token.
+    public boolean parse(int[] tokens, int length) {
+        return parse(tokens, length, new ParseContext());
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context) {
+        CompiledParser compiledParser = this.compiledParser;
+        if (compiledParser != null) {
+            return compiledParser.parse(tokens, length);
+        }
+        return run(tokens, length, context, null, null);
+    }
+
+    // Parses tokens pulled from a source one at a time (all of which must belong to the
+    // grammar), so memory use does not grow with the length of the input
+    public boolean parse(TokenSource source) throws IOException {
+        return parse(source, new ParseContext());
+    }
+
+    public boolean parse(TokenSource source, ParseContext context) throws IOException {
+        return run(source, context, null, null);
+    }
+
+    // Parses while reporting every shift and reduction to a listener. A failed parse
+    // returns false after the events up to the error. Always interprets the tables.
+    public boolean parse(int[] tokens, int length, LRParseListener listener) {
+        return parse(tokens, length, new ParseContext(), listener);
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context, LRParseListener listener) {
+        return run(tokens, length, context, listener, null);
+    }
+
+    public boolean parse(TokenSource source, LRParseListener listener) throws IOException {
+        return parse(source, new ParseContext(), listener);
+    }
+
+    public boolean parse(TokenSource source, ParseContext context, LRParseListener listener) throws IOException {
+        return run(source, context, listener, null);
+    }
+
+    // Parses and builds the parse tree into an arena, replacing what it held before.
+    // The tree is complete only if the parse succeeds.
+    public boolean parse(int[] tokens, int length, ParseTree tree) {
+        tree.clear();
+        return parse(tokens, length, new ParseContext(), new TreeBuilder(parsingTable, tree));
+    }
+
+    public boolean parse(TokenSource source, ParseTree tree) throws IOException {
+        tree.clear();
+        return parse(source, new ParseContext(), new TreeBuilder(parsingTable, tree));
+    }
+
+    private static final class TreeBuilder implements LRParseListener {
+        private final LRParsingTable parsingTable;
+        private final ParseTree tree;
+
+        TreeBuilder(LRParsingTable parsingTable, ParseTree tree) {
+            this.parsingTable = parsingTable;
+            this.tree = tree;
+        }
+
+        @Override
+        public void onShift(int terminalId, long offset) {
+            tree.shift(terminalId, offset);
+        }
+
+        @Override
+        public void onReduce(int productionIndex) {
+            tree.reduce(parsingTable.getLeftSideId(productionIndex), productionIndex,
+                        parsingTable.getRightSideLength(productionIndex));
+        }
+    }
+
+    // Parses to the end of the input whatever errors it contains, adding one SyntaxError
+    // per error to errors, and returns whether there were none. On an error the parser
+    // pops the stack to the nearest state that can shift the grammar's error terminal,
+    // if the grammar has error productions, and skips tokens until one it can go on with
+    // after the error terminal. Otherwise, and at the end of the input, it pops to the
+    // nearest state with a goto on a non-terminal that the next token can follow
+    // (panic mode on FOLLOW sets), skipping tokens until there is one, and takes the
+    // non-terminal as complete.
+    //
+    // An input without errors goes through parse(tokens, length) as is; only after that
+    // fails is it parsed again with recovery.
+    public boolean parse(int[] tokens, int length, List<SyntaxError> errors) {
+        return parse(tokens, length, new ParseContext(), errors);
+    }
+
+    public boolean parse(int[] tokens, int length, ParseContext context, List<SyntaxError> errors) {
+        return parse(tokens, length, context) || run(tokens, length, context, null, errors);
+    }
+
+    public boolean parse(TokenSource source, List<SyntaxError> errors) throws IOException {
+        return parse(source, new ParseContext(), errors);
+    }
+
+    public boolean parse(TokenSource source, ParseContext context, List<SyntaxError> errors) throws IOException {
+        return run(source, context, null, errors);
+    }
+
+    // Token arrays go through the same loop as any other source
+    private boolean run(int[] tokens, int length, ParseContext context, LRParseListener listener,
+                        List<SyntaxError> errors) {
+        try {
+            return run(TokenSource.of(tokens, length), context, listener, errors);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The one parsing loop behind every parse method. Without a listener or an error
+    // list it only recognizes the input; with a listener it reports the parse as it
+    // goes, and with an error list it recovers from errors instead of stopping at the
+    // first one.
+    private boolean run(TokenSource source, ParseContext context, LRParseListener listener,
+                        List<SyntaxError> errors) throws IOException {
+        int eof = grammar.getEndMarkerId();
+        int terminalId = nextTerminal(source, eof);
+        int errorCount = errors != null ? errors.size() : 0;
+
+        int[] stack = context.getStack();
+        int top = 0;
+        stack[0] = 0;
+        // Tokens consumed, and their number and the stack height after the last recovery
+        long consumed = 0;
+        long recoveredAt = -1;
+        int recoveredTop = 0;
+        int[] recovery = null;
+
+        while (true) {
+            // Recovery reads the table without default reductions, so that a compressed
+            // table finds errors in the same states as a dense one
+            int action = errors == null ? parsingTable.getActionCode(stack[top], terminalId)
+                                        : parsingTable.getExactActionCode(stack[top], terminalId);
+
+            switch (LRParsingTable.kindOf(action)) {
+                case LRParsingTable.SHIFT:
+                    // Shift: Push next state and advance past the token. The end marker is
+                    // never shifted, so running off the input only ever yields EOF.
+                    if (++top == stack.length) {
+                        stack = context.growStack(top + 1);
+                    }
+                    stack[top] = LRParsingTable.valueOf(action);
+                    if (listener != null) {
+                        listener.onShift(terminalId, source.getTokenOffset());
+                    }
+                    terminalId = nextTerminal(source, eof);
+                    consumed++;
                     break;
-                    
-                case REDUCE:
-                    // Reduce: Apply production rule
-                    Production prod = grammar.getProductions().get(action.getValue());
-                    
-                    // Pop states and symbols for right-hand side
-                    for (int i = 0; i < prod.getRightSide().size(); i++) {
-                        stateStack.pop();
-                        symbolStack.pop();
+
+                case LRParsingTable.REDUCE:
+                    // Reduce: Pop the right-hand side, then GOTO on the left-hand side
+                    int prodIndex = LRParsingTable.valueOf(action);
+                    top -= parsingTable.getRightSideLength(prodIndex);
+                    int nextState = parsingTable.getGotoState(stack[top], parsingTable.getLeftSideId(prodIndex));
+                    if (++top == stack.length) {
+                        stack = context.growStack(top + 1);
+                    }
+                    stack[top] = nextState;
+                    if (listener != null) {
+                        listener.onReduce(prodIndex);
                     }
-                    
-                    // Push left-hand side non-terminal
-                    symbolStack.push(prod.getLeftSide());
-                    
-                    // GOTO
-                    int nextState = parsingTable.getGoto(stateStack.peek(), prod.getLeftSide());
-                    stateStack.push(nextState);
                     break;
-                    
-                case ACCEPT:
-                    // Parsing successful
-                    return true;
-                    
-                case ERROR:
-                    System.out.println("Error: Invalid syntax at symbol " + currentSymbol);
-                    return false;
-                    
+
+                case LRParsingTable.ACCEPT:
+                    return errors == null || errors.size() == errorCount;
+
                 default:
-                    System.out.println("Error: Unknown action type");
-                    return false;
+                    if (errors == null) {
+                        return false;
+                    }
+                    // An error at the token of the last recovery continues that error
+                    boolean continued = consumed == recoveredAt && errors.size() > errorCount;
+                    long offset = source.getTokenOffset();
+                    int found = terminalId;
+                    int[] expected = expectedTerminals(stack[top]);
+                    int skipped = 0;
+                    if (recovery == null) {
+                        recovery = new int[3];
+                    }
+                    // Going on from the same token as the last recovery, only a recovery
+                    // lower down the stack can avoid coming back to the same error
+                    int limit = consumed == recoveredAt ? Math.min(top, recoveredTop - 2) : top;
+                    while (!findRecovery(stack, limit, terminalId, eof, recovery)) {
+                        if (terminalId == eof) {
+                            new SyntaxError(offset, found, expected, SyntaxError.Repair.ABANDONED, -1, skipped)
+                                .addTo(errors, continued);
+                            return false;
+                        }
+                        terminalId = nextTerminal(source, eof);
+                        consumed++;
+                        skipped++;
+                        limit = top;
+                    }
+                    top = recovery[0];
+                    if (++top == stack.length) {
+                        stack = context.growStack(top + 1);
+                    }
+                    stack[top] = recovery[1];
+                    if (recovery[2] < 0) {
+                        new SyntaxError(offset, found, expected, SyntaxError.Repair.ERROR_PRODUCTION, -1, skipped)
+                            .addTo(errors, continued);
+                    } else {
+                        new SyntaxError(offset, found, expected, SyntaxError.Repair.SYNCHRONIZED, ~recovery[2], skipped)
+                            .addTo(errors, continued);
+                    }
+                    recoveredAt = consumed;
+                    recoveredTop = top;
+                    break;
+            }
+        }
+    }
+
+    // Looks for a way to go on with the given terminal among the states up to stack
+    // index top, the highest first: a state whose error terminal shift leads to a state
+    // with an action on it, or else (when no state on the stack shifts the error
+    // terminal, or at the end of the input) a state with a goto on a non-terminal that
+    // the terminal can follow and the goto state has an action on. Stores the stack
+    // index of the state, the state to push on it and the non-terminal's id (-1 for the
+    // error terminal) in result.
+    private boolean findRecovery(int[] stack, int top, int terminalId, int eof, int[] result) {
+        boolean errorStates = false;
+        if (errorTerminalId >= 0) {
+            for (int i = top; i >= 0; i--) {
+                int action = parsingTable.getExactActionCode(stack[i], errorTerminalId);
+                if (LRParsingTable.kindOf(action) == LRParsingTable.SHIFT) {
+                    errorStates = true;
+                    int state = LRParsingTable.valueOf(action);
+                    if (parsingTable.getExactActionCode(state, terminalId) != LRParsingTable.ERROR) {
+                        result[0] = i;
+                        result[1] = state;
+                        result[2] = -1;
+                        return true;
+                    }
+                }
+            }
+        }
+        if (errorStates && terminalId != eof) {
+            return false;
+        }
+        for (int i = top; i >= 0; i--) {
+            for (int n = 0; n < followSets.length; n++) {
+                int state = parsingTable.getGotoState(stack[i], n);
+                if (state >= 0 && BitSets.get(followSets[n], terminalId) &&
+                    parsingTable.getExactActionCode(state, terminalId) != LRParsingTable.ERROR) {
+                    result[0] = i;
+                    result[1] = state;
+                    result[2] = n;
+                    return true;
+                }
             }
         }
+        return false;
+    }
+
+    private int[] expectedTerminals(int state) {
+        int[] expected = new int[grammar.getEndMarkerId() + 1];
+        int count = 0;
+        for (int t = 0; t <= grammar.getEndMarkerId(); t++) {
+            if (t != errorTerminalId && parsingTable.getExactActionCode(state, t) != LRParsingTable.ERROR) {
+                expected[count++] = t;
+            }
+        }
+        return Arrays.copyOf(expected, count);
+    }
+
+    // Parses a UTF-8 file, lexed straight from its memory-mapped bytes
+    public boolean parse(Path file, Lexer lexer) throws IOException {
+        if (lexer.getGrammar() != grammar) {
+            throw new IllegalArgumentException("Lexer was generated for a different grammar");
+        }
+        return parse(lexer.tokens(file));
+    }
+
+    private static int nextTerminal(TokenSource source, int eof) throws IOException {
+        int token = source.nextToken();
+        return token == TokenSource.END_OF_INPUT ? eof : token;
+    }
+
+    // Parses independent token arrays concurrently; results[i] tells whether the i-th
+    // is accepted. All threads share this parser's tables.
+    public boolean[] parseAll(Iterable<int[]> inputs) {
+        return BatchParser.parseAll(inputs, (tokens, context) -> parse(tokens, tokens.length, context));
+    }
+
+    public boolean[] parseAll(Iterable<int[]> inputs, ExecutorService executor) {
+        return BatchParser.parseAll(inputs, (tokens, context) -> parse(tokens, tokens.length, context), executor);
     }
 }
\ No newline at end of file
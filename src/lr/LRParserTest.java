@@ -2,8 +2,22 @@ package lr;
 
 import utils.*;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 public class LRParserTest {
     public static void main(String[] args) {
@@ -37,9 +51,6 @@ public class LRParserTest {
                 // Display some parts of the parsing table for verification
                 displayParsingTableSample(parsingTable, collection, grammar);
                 
-                // Create the parser
-                LRParser parser = new LRParser(grammar);
-                
                 // Test parsing with various inputs
                 String[][] testCases = {
                     {"id", "Success"},                // Simple id
@@ -47,29 +58,100 @@ public class LRParserTest {
                     {"id * id", "Success"},           // Multiplication
                     {"id + id * id", "Success"},      // Addition and multiplication
                     {"(id + id) * id", "Success"},  // Parenthesized expression
+                    {"(id+id)*id", "Success"},        // Tokens need no separating spaces
                     {"(id +)", "Failure"},          // Invalid expression
                     {"*id", "Failure"}               // Invalid expression
                 };
                 
-                System.out.println("\n=== Parsing Test Cases ===");
-                for (String[] testCase : testCases) {
-                    String input = testCase[0];
-                    String expectedResult = testCase[1];
-                    
-                    List<Symbol> inputSymbols = tokenizeInput(input, grammar);
-                    boolean result = parser.parse(inputSymbols);
+                Lexer lexer = LexerGenerator.generate(grammar);
+
+                // Every SLR(1) grammar is also LALR(1) and LR(1), so run the cases through all tables
+                for (LRParsingTable.TableType tableType : LRParsingTable.TableType.values()) {
+                    // Create the parser
+                    LRParser parser = new LRParser(grammar, tableType);
+                    // The same tables with a compressed ACTION table must give the same results
+                    // and report the same errors
+                    LRParser compressedParser = new LRParser(parser.getParsingTable().compress());
+                    // And so must the tables compiled to bytecode
+                    LRParser compiledParser = new LRParser(parser.getParsingTable());
+                    boolean compiled = compiledParser.compile();
                     
-                    System.out.println("Input: " + input);
-                    System.out.println("Expected: " + expectedResult);
-                    System.out.println("Actual: " + (result ? "Success" : "Failure"));
-                    System.out.println("Result: " + (expectedResult.equals(result ? "Success" : "Failure") ? "✓" : "✗"));
+                    System.out.println("\n=== " + tableType + " Parsing Test Cases ===");
+                    System.out.println(parser.getParsingTable().getStatistics());
+                    System.out.println(compressedParser.getParsingTable().getCompressionReport());
+                    System.out.println("Compiled: " + compiled);
+                    System.out.println("Result: " + (compiled && compiledParser.isCompiled() ? "✓" : "✗"));
                     System.out.println();
+                    for (String[] testCase : testCases) {
+                        String input = testCase[0];
+                        String expectedResult = testCase[1];
+                        
+                        List<Symbol> inputSymbols = tokenizeInput(input, lexer);
+                        boolean result = parser.parse(inputSymbols);
+                        boolean compressedResult = compressedParser.parse(inputSymbols);
+                        boolean compiledResult = compiledParser.parse(inputSymbols);
+                        List<String> errors = formatErrors(parser, input, lexer);
+                        boolean sameErrors = errors.equals(formatErrors(compressedParser, input, lexer));
+                        
+                        System.out.println("Input: " + input);
+                        System.out.println("Expected: " + expectedResult);
+                        System.out.println("Actual: " + (result ? "Success" : "Failure"));
+                        System.out.println("Same with compressed table: result " + (result == compressedResult) +
+                                           ", errors " + sameErrors);
+                        System.out.println("Same when compiled: " + (result == compiledResult));
+                        boolean passed = expectedResult.equals(result ? "Success" : "Failure") &&
+                                         result == compressedResult && sameErrors && result == compiledResult;
+                        System.out.println("Result: " + (passed ? "✓" : "✗"));
+                        for (String error : errors) {
+                            System.out.println("Error at token " + error);
+                        }
+                        System.out.println();
+                    }
                 }
+
+                testSaveAndLoad(grammar, lexer, testCases);
+                testParseTree(new LRParser(grammar, LRParsingTable.TableType.LALR), lexer);
+                testParseListener(new LRParser(grammar, LRParsingTable.TableType.LALR), lexer);
+                testParseAll(new LRParser(grammar, LRParsingTable.TableType.LALR), lexer, testCases);
+                testTableCache(grammar, lexer, testCases);
             } catch (IllegalStateException e) {
                 System.out.println("\nGrammar is not SLR(1): " + e.getMessage());
                 return;
             }
-            
+
+            testIncrementalEdits();
+            testIncrementalList();
+            testReaderTokenSource();
+            testByteTokenSource();
+            testCompileSizeLimit(10, true);
+            testCompileSizeLimit(40, false);
+            testTableTypeBoundary("LALR(1) but not SLR(1)",
+                                  grammarOf("S -> L = R | R", "L -> * R | id", "R -> L"),
+                                  LRParsingTable.TableType.SLR, LRParsingTable.TableType.LALR,
+                                  new String[][] {
+                                      {"* id = id", "Success"},
+                                      {"id", "Success"},
+                                      {"* * id", "Success"},
+                                      {"id = = id", "Failure"}
+                                  });
+            testTableTypeBoundary("LR(1) but not LALR(1)",
+                                  grammarOf("S -> a E c | a F d | b F c | b E d", "E -> e", "F -> e"),
+                                  LRParsingTable.TableType.LALR, LRParsingTable.TableType.LR1,
+                                  new String[][] {
+                                      {"a e c", "Success"},
+                                      {"a e d", "Success"},
+                                      {"b e c", "Success"},
+                                      {"b e d", "Success"},
+                                      {"a e e", "Failure"}
+                                  });
+
+            // Inputs are terminal names separated by spaces
+            testGeneratedParser("Expression", grammar,
+                                new String[] {"id + id * id", "( id + id ) * id", "( id + )", "* id", ""});
+            // A terminal spelled like a Unicode escape must not break the generated source
+            testGeneratedParser("Escaped terminal", grammarOf("S -> \\u000a x S | y"),
+                                new String[] {"y", "\\u000a x y", "\\u000a x \\u000a x y", "\\u000a y", "x y"});
+
         } catch (Exception e) {
             System.err.println("Error testing LR parser: " + e.getMessage());
             e.printStackTrace();
@@ -148,27 +230,818 @@ public class LRParserTest {
         }
     }
     
-    private static List<Symbol> tokenizeInput(String input, Grammar grammar) {
-        List<Symbol> symbols = new ArrayList<>();
-        String[] tokens = input.split("\\s+");
+    private static List<String> formatErrors(LRParser parser, String input, Lexer lexer) {
+        int[] tokens = lexer.tokenize(input);
+        List<SyntaxError> errors = new ArrayList<>();
+        parser.parse(tokens, tokens.length, errors);
+        List<String> formatted = new ArrayList<>();
+        for (SyntaxError error : errors) {
+            formatted.add(error.format(lexer.getGrammar()));
+        }
+        return formatted;
+    }
+
+    // Builds parse trees into one arena and walks them with a cursor: node symbols and
+    // token spans in pre-order must be those expected, and again after clear()
+    private static void testParseTree(LRParser parser, Lexer lexer) {
+        String[][] testCases = {
+            {"id", "E[0,1) T[0,1) F[0,1) id[0,1) T'[1,1) E'[1,1)"},
+            {"( id + id ) * id", "E[0,7) T[0,7) F[0,5) ([0,1) E[1,4) T[1,2) F[1,2) id[1,2) T'[2,2) " +
+                                 "E'[2,4) +[2,3) T[3,4) F[3,4) id[3,4) T'[4,4) E'[4,4) )[4,5) " +
+                                 "T'[5,7) *[5,6) F[6,7) id[6,7) T'[7,7) E'[7,7)"}
+        };
+        
+        System.out.println("\n=== Parse Tree Test Cases ===");
+        ParseTree tree = new ParseTree();
+        for (String[] testCase : testCases) {
+            int[] tokens = lexer.tokenize(testCase[0]);
+            boolean result = parser.parse(tokens, tokens.length, tree);
+            String outline = outline(tree, lexer.getGrammar());
+            int nodeCount = tree.getNodeCount();
+            System.out.print(tree.format(lexer.getGrammar()));
+            
+            // An arena reused after clear() must hold the same tree
+            tree.clear();
+            boolean cleared = tree.getRoot() == ParseTree.NONE && tree.getNodeCount() == 0;
+            boolean reused = parser.parse(tokens, tokens.length, tree) && outline.equals(outline(tree, lexer.getGrammar())) &&
+                             tree.getNodeCount() == nodeCount;
+            
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1]);
+            System.out.println("Actual: " + outline);
+            System.out.println("Same after clear(): " + (cleared && reused));
+            System.out.println("Result: " + (result && outline.equals(testCase[1]) && cleared && reused ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+    
+    // Records the events of a listener parse. A failed parse stops at the offending
+    // token: the events up to it arrive, none for that token or after it.
+    private static void testParseListener(LRParser parser, Lexer lexer) {
+        String[][] testCases = {
+            {"id * id", "Success", "shift id@0, reduce F → id, shift *@1, shift id@2, reduce F → id, reduce T' → ε, " +
+                                   "reduce T' → * F T', reduce T → F T', reduce E' → ε, reduce E → T E'"},
+            {"id + )", "Failure", "shift id@0, reduce F → id, reduce T' → ε, reduce T → F T', shift +@1"}
+        };
         
-        for (String token : tokens) {
-            boolean found = false;
-            for (Symbol terminal : grammar.getTerminals()) {
-                if (terminal.getName().equals(token)) {
-                    symbols.add(terminal);
-                    found = true;
-                    break;
+        System.out.println("\n=== Parse Listener Test Cases ===");
+        Grammar grammar = lexer.getGrammar();
+        for (String[] testCase : testCases) {
+            List<String> events = new ArrayList<>();
+            int[] tokens = lexer.tokenize(testCase[0]);
+            boolean result = parser.parse(tokens, tokens.length, new LRParseListener() {
+                @Override
+                public void onShift(int terminalId, long offset) {
+                    events.add("shift " + grammar.getTerminal(terminalId) + "@" + offset);
+                }
+                
+                @Override
+                public void onReduce(int productionIndex) {
+                    events.add("reduce " + grammar.getProduction(productionIndex));
                 }
+            });
+            String actual = String.join(", ", events);
+            
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1] + ", " + testCase[2]);
+            System.out.println("Actual: " + (result ? "Success" : "Failure") + ", " + actual);
+            System.out.println("Result: " + (testCase[1].equals(result ? "Success" : "Failure") &&
+                                             testCase[2].equals(actual) ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+    
+    // Creates parsers through the default table cache in a temporary directory: the
+    // first create builds and stores the tables, the next loads them, and an entry built
+    // for another grammar is rebuilt and replaced
+    private static void testTableCache(Grammar grammar, Lexer lexer, String[][] testCases) throws IOException {
+        Path directory = Files.createTempDirectory("syntaxforge-cache");
+        System.setProperty(TableCache.DIRECTORY_PROPERTY, directory.toString());
+        try {
+            System.out.println("\n=== Table Cache Test Cases ===");
+            TableCache cache = TableCache.getDefault();
+            Path entry = cache.getPath(grammar, LRParsingTable.TableType.LALR.toString());
+            System.out.println("Cache directory from " + TableCache.DIRECTORY_PROPERTY + ": " +
+                               cache.getDirectory().equals(directory));
+            
+            LRParser built = LRParser.create(grammar, LRParsingTable.TableType.LALR);
+            // Entries are renamed into place, so no temporary file is left behind
+            List<Path> files = new ArrayList<>();
+            try (java.util.stream.Stream<Path> list = Files.list(directory)) {
+                list.forEach(files::add);
+            }
+            checkCacheEntry("First create", built, false,
+                            cache.getDirectory().equals(directory) && files.equals(Collections.singletonList(entry)));
+            
+            LRParser loaded = LRParser.create(grammar, LRParsingTable.TableType.LALR);
+            boolean sameResults = true;
+            for (String[] testCase : testCases) {
+                List<Symbol> inputSymbols = tokenizeInput(testCase[0], lexer);
+                sameResults &= loaded.parse(inputSymbols) == built.parse(inputSymbols);
             }
+            checkCacheEntry("Second create", loaded, true, sameResults);
             
-            if (!found) {
-                // Create a new terminal for this token
-                Symbol terminal = new Symbol(token, true);
-                symbols.add(terminal);
+            new LRParser(grammarOf("S -> id"), LRParsingTable.TableType.LALR).getParsingTable().save(entry);
+            checkCacheEntry("Create over a stale entry",
+                            LRParser.create(grammar, LRParsingTable.TableType.LALR), false, true);
+            checkCacheEntry("Create after the entry was replaced",
+                            LRParser.create(grammar, LRParsingTable.TableType.LALR), true, true);
+        } finally {
+            System.clearProperty(TableCache.DIRECTORY_PROPERTY);
+            try {
+                deleteRecursively(directory);
+            } catch (IOException e) {
+                // On Windows a mapped file cannot be deleted until the mapping is collected
+                directory.toFile().deleteOnExit();
             }
         }
+    }
+    
+    private static void checkCacheEntry(String name, LRParser parser, boolean expectLoaded, boolean passed) {
+        boolean loaded = parser.getParsingTable().isLoaded();
+        System.out.println(name + ": " + (loaded ? "loaded" : "built"));
+        System.out.println("Result: " + (loaded == expectLoaded && passed ? "✓" : "✗"));
+    }
+    
+    // Parses many accepted and rejected inputs in parallel: every result must be that of
+    // parsing the input alone, and an exception thrown in a task must reach the caller
+    private static void testParseAll(LRParser parser, Lexer lexer, String[][] testCases) {
+        List<int[]> inputs = new ArrayList<>();
+        boolean[] expected = new boolean[10000];
+        for (int i = 0; i < expected.length; i++) {
+            int[] tokens = lexer.tokenize(testCases[i % testCases.length][0]);
+            inputs.add(tokens);
+            expected[i] = parser.parse(tokens, tokens.length);
+        }
         
+        System.out.println("\n=== Parallel Parsing Test Cases ===");
+        boolean[] results = parser.parseAll(inputs);
+        System.out.println("Common pool: " + inputs.size() + " inputs, same results " + Arrays.equals(results, expected));
+        System.out.println("Result: " + (Arrays.equals(results, expected) ? "✓" : "✗"));
+        
+        ExecutorService executor = virtualThreadExecutor();
+        boolean virtual = executor != null;
+        if (!virtual) {
+            executor = Executors.newFixedThreadPool(4);
+        }
+        try {
+            results = parser.parseAll(inputs, executor);
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println((virtual ? "Virtual threads" : "Thread pool (no virtual threads before Java 21)") +
+                           ": same results " + Arrays.equals(results, expected));
+        System.out.println("Result: " + (Arrays.equals(results, expected) ? "✓" : "✗"));
+        
+        List<int[]> withEmpty = new ArrayList<>(inputs);
+        withEmpty.set(inputs.size() / 2, new int[0]);
+        boolean rethrown;
+        try {
+            BatchParser.parseAll(withEmpty, (tokens, context) -> {
+                if (tokens.length == 0) {
+                    throw new IllegalStateException("Empty input");
+                }
+                return parser.parse(tokens, tokens.length, context);
+            });
+            rethrown = false;
+        } catch (IllegalStateException e) {
+            // The common pool may rethrow a copy made on the calling thread, with the original
+            // as its cause
+            Throwable original = e.getCause() instanceof IllegalStateException ? e.getCause() : e;
+            rethrown = "Empty input".equals(original.getMessage());
+        }
+        System.out.println("Exception in a task rethrown: " + rethrown);
+        System.out.println("Result: " + (rethrown ? "✓" : "✗"));
+    }
+    
+    // Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    // Nodes in pre-order as symbol[tokenStart,tokenEnd), through a cursor. Token nodes
+    // must cover one token, whose offset is its index in the token array.
+    private static String outline(ParseTree tree, Grammar grammar) {
+        StringBuilder sb = new StringBuilder();
+        ParseTree.Cursor cursor = tree.cursor();
+        while (true) {
+            int code = cursor.getSymbolCode();
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(code >= 0 ? grammar.getTerminal(code) : grammar.getNonTerminal(~code))
+              .append('[').append(cursor.getTokenStart()).append(',').append(cursor.getTokenEnd()).append(')');
+            if (cursor.isToken() && (cursor.getTokenEnd() != cursor.getTokenStart() + 1 ||
+                                     tree.getTokenOffset(cursor.getTokenStart()) != cursor.getTokenStart())) {
+                sb.append('!');
+            }
+            if (cursor.gotoFirstChild()) {
+                continue;
+            }
+            while (!cursor.gotoNextSibling()) {
+                if (!cursor.gotoParent()) {
+                    return sb.toString();
+                }
+            }
+        }
+    }
+
+    // Saves dense and compressed tables, loads them back and checks that the loaded tables
+    // parse like the originals; then checks that damaged or mismatched files are rejected
+    private static void testSaveAndLoad(Grammar grammar, Lexer lexer, String[][] testCases) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try {
+            LRParsingTable dense = new LRParser(grammar, LRParsingTable.TableType.LALR).getParsingTable();
+            for (LRParsingTable table : Arrays.asList(dense, dense.compress())) {
+                Path file = Files.createTempFile("tables", ".bin");
+                files.add(file);
+                table.save(file);
+                LRParsingTable loaded = LRParsingTable.load(file, grammar, LRParsingTable.TableType.LALR);
+                LRParser original = new LRParser(table);
+                LRParser parser = new LRParser(loaded);
+
+                System.out.println("\n=== Save and Load Test Cases (" +
+                                   (table.isCompressed() ? "compressed" : "dense") + ") ===");
+                System.out.println("Loaded table compressed: " + loaded.isCompressed());
+                for (String[] testCase : testCases) {
+                    List<Symbol> inputSymbols = tokenizeInput(testCase[0], lexer);
+                    boolean result = parser.parse(inputSymbols);
+                    boolean originalResult = original.parse(inputSymbols);
+                    System.out.println("Input: " + testCase[0]);
+                    System.out.println("Expected: " + testCase[1]);
+                    System.out.println("Actual: " + (result ? "Success" : "Failure"));
+                    boolean passed = testCase[1].equals(result ? "Success" : "Failure") &&
+                                     result == originalResult && loaded.isCompressed() == table.isCompressed();
+                    System.out.println("Result: " + (passed ? "✓" : "✗"));
+                }
+            }
+
+            System.out.println("\n=== Rejected Table Files ===");
+            byte[] bytes = Files.readAllBytes(files.get(0));
+            // The grammar block, covered by the checksum, follows the five header ints
+            byte[] corrupt = bytes.clone();
+            corrupt[20] ^= 1;
+            checkRejected("Corrupt grammar block", writeTemp(corrupt, files), grammar);
+            // The version is the second little-endian int
+            byte[] newer = bytes.clone();
+            newer[4] = (byte) (TableFile.VERSION + 1);
+            checkRejected("Unsupported version", writeTemp(newer, files), grammar);
+            checkRejected("Different grammar", files.get(0), grammarOf("S -> id"));
+        } finally {
+            for (Path file : files) {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    // On Windows a mapped file cannot be deleted until the mapping is collected
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private static Path writeTemp(byte[] bytes, List<Path> files) throws IOException {
+        Path file = Files.createTempFile("tables", ".bin");
+        files.add(file);
+        return Files.write(file, bytes);
+    }
+
+    private static void checkRejected(String name, Path file, Grammar grammar) {
+        System.out.println("File: " + name);
+        try {
+            LRParsingTable.load(file, grammar, LRParsingTable.TableType.LALR);
+            System.out.println("Loaded");
+            System.out.println("Result: ✗");
+        } catch (IOException e) {
+            System.out.println("Rejected: " + e.getMessage());
+            System.out.println("Result: ✓");
+        }
+    }
+
+    // Generates parsers from the dense and the compressed LALR(1) table, compiles them and
+    // checks that they accept exactly what LRParser accepts
+    private static void testGeneratedParser(String name, Grammar grammar, String[] inputs) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        LRParser parser = new LRParser(grammar, LRParsingTable.TableType.LALR);
+        for (LRParsingTable table : Arrays.asList(parser.getParsingTable(), parser.getParsingTable().compress())) {
+            System.out.println("\n=== Generated Parser Test Cases (" + name + ", " +
+                               (table.isCompressed() ? "compressed" : "dense") + ") ===");
+            if (compiler == null) {
+                System.out.println("No Java compiler available, skipped");
+                return;
+            }
+            Path sourceRoot = Files.createTempDirectory("generated");
+            try {
+                Path source = new ParserGenerator(table).write(sourceRoot, "generated", "GeneratedParser");
+                boolean compiled = compiler.run(null, null, null, "-d", sourceRoot.toString(), source.toString()) == 0;
+                System.out.println("Compiled: " + compiled);
+                System.out.println("Result: " + (compiled ? "✓" : "✗"));
+                if (!compiled) {
+                    continue;
+                }
+                try (URLClassLoader loader = new URLClassLoader(new URL[] {sourceRoot.toUri().toURL()})) {
+                    Method parse = loader.loadClass("generated.GeneratedParser").getMethod("parse", int[].class, int.class);
+                    for (String input : inputs) {
+                        int[] tokens = terminalIds(grammar, input);
+                        boolean expected = parser.parse(tokens, tokens.length);
+                        boolean result = (Boolean) parse.invoke(null, tokens, tokens.length);
+                        System.out.println("Input: " + input);
+                        System.out.println("Expected: " + (expected ? "Success" : "Failure"));
+                        System.out.println("Actual: " + (result ? "Success" : "Failure"));
+                        System.out.println("Result: " + (result == expected ? "✓" : "✗"));
+                    }
+                }
+            } finally {
+                deleteRecursively(sourceRoot);
+            }
+        }
+    }
+
+    private static int[] terminalIds(Grammar grammar, String input) {
+        if (input.isEmpty()) {
+            return new int[0];
+        }
+        String[] names = input.split(" ");
+        int[] tokens = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            tokens[i] = grammar.getTerminalId(new Symbol(names[i], true));
+        }
+        return tokens;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(path)) {
+            walk.forEach(paths::add);
+        }
+        // Children before their directories
+        Collections.reverse(paths);
+        for (Path each : paths) {
+            Files.delete(each);
+        }
+    }
+
+    // Checks that a grammar is rejected by one table type, with a conflict, and that the
+    // next more powerful one builds and parses it
+    // An expression grammar with one precedence level per operator ~0, ~1, ...; at 40
+    // levels its LALR(1) state machine needs more than the 8000 bytes of code HotSpot
+    // JIT-compiles, so compile() must leave the parser interpreting
+    private static void testCompileSizeLimit(int levels, boolean expectCompiled) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("%token id /[a-z]+/");
+        for (int i = 0; i < levels; i++) {
+            lines.add("%token op" + i + " /~" + i + "/");
+        }
+        lines.add("%skip / +/");
+        for (int i = 0; i < levels; i++) {
+            String operand = i == levels - 1 ? "P" : "E" + (i + 1);
+            lines.add("E" + i + " -> E" + i + " op" + i + " " + operand + " | " + operand);
+        }
+        lines.add("P -> ( E0 ) | id");
+        Grammar grammar = grammarOf(lines.toArray(new String[0]));
+        Lexer lexer = LexerGenerator.generate(grammar);
+        LRParser parser = new LRParser(grammar, LRParsingTable.TableType.LALR);
+        LRParser compiledParser = new LRParser(grammar, LRParsingTable.TableType.LALR);
+
+        System.out.println("\n=== Compiling " + parser.getParsingTable().getStateCount() + " States ===");
+        boolean compiled = compiledParser.compile();
+        System.out.println("Expected: " + (expectCompiled ? "compiled" : "not compiled"));
+        System.out.println("Actual: " + (compiled ? "compiled" : "not compiled"));
+        System.out.println("Result: " + (compiled == expectCompiled && compiledParser.isCompiled() == compiled ? "✓" : "✗"));
+        String last = "~" + (levels - 1);
+        String[][] testCases = {
+            {"x ~0 y " + last + " ( z ~7 w )", "Success"},
+            {"( ( x " + last + " y ) )", "Success"},
+            {"x ~0 ~1 y", "Failure"},
+            {"( x " + last, "Failure"}
+        };
+        for (String[] testCase : testCases) {
+            int[] tokens = lexer.tokenize(testCase[0]);
+            boolean result = compiledParser.parse(tokens, tokens.length);
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1]);
+            System.out.println("Actual: " + (result ? "Success" : "Failure"));
+            boolean passed = testCase[1].equals(result ? "Success" : "Failure") &&
+                             result == parser.parse(tokens, tokens.length);
+            System.out.println("Result: " + (passed ? "✓" : "✗"));
+        }
+    }
+
+    private static void testTableTypeBoundary(String name, Grammar grammar, LRParsingTable.TableType rejectedType,
+                                              LRParsingTable.TableType acceptedType, String[][] testCases) {
+        System.out.println("\n=== " + name + " ===");
+        boolean rejected;
+        try {
+            new LRParser(grammar, rejectedType);
+            rejected = false;
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            rejected = true;
+        }
+        System.out.println(rejectedType + " reports a conflict: " + (rejected ? "✓" : "✗"));
+
+        LRParser parser = new LRParser(grammar, acceptedType);
+        Lexer lexer = LexerGenerator.generate(grammar);
+        System.out.println(acceptedType + " table built");
+        for (String[] testCase : testCases) {
+            boolean result = parser.parse(tokenizeInput(testCase[0], lexer));
+            System.out.println("Input: " + testCase[0]);
+            System.out.println("Expected: " + testCase[1]);
+            System.out.println("Actual: " + (result ? "Success" : "Failure"));
+            System.out.println("Result: " + (testCase[1].equals(result ? "Success" : "Failure") ? "✓" : "✗"));
+        }
+    }
+
+    // Edits a document one step at a time; after each edit the result and tokens must be
+    // those of parsing the text from scratch, and the tree that of the last text that parsed
+    // Assignments to expressions, with a left-recursive statement list
+    private static Grammar statementGrammar() throws IOException {
+        return grammarOf("%token id /[a-z][a-z0-9]*/",
+                         "%token num /[0-9]+/",
+                         "%skip /[ \\t\\n]+/",
+                         "Stmts -> Stmts Stmt | epsilon",
+                         "Stmt -> id = E ;",
+                         "E -> E + T | T",
+                         "T -> T * F | F",
+                         "F -> ( E ) | id | num");
+    }
+
+    private static void testIncrementalEdits() throws IOException {
+        Grammar grammar = statementGrammar();
+        LRParsingTable parsingTable = new LRParser(grammar, LRParsingTable.TableType.LALR).getParsingTable();
+        Lexer lexer = LexerGenerator.generate(grammar);
+        IncrementalParser parser = new IncrementalParser(parsingTable, lexer);
+        String text = "x = a + 1 ;\ny = ( b * c ) ;\n";
+        String lastParsed = text;
+        parser.parse(text);
+
+        // Each edit removes the removed text and inserts the inserted text right after
+        // the first occurrence of the anchor
+        String[][] edits = {
+            // Description, anchor, removed, inserted, expected result
+            {"Insert statement", "x = a + 1 ;\n", "", "z = a * 2 ;\n", "Success"},
+            {"Delete statement", "x = a + 1 ;\n", "z = a * 2 ;\n", "", "Success"},
+            {"Rename", "", "x", "total", "Success"},
+            {"Whitespace", "total =", "", "   ", "Success"},
+            {"Break", "( b * c ", ")", "", "Failure"},
+            {"Edit while broken", "", "", "w = 3 ;\n", "Failure"},
+            {"Fix", "( b * c ", "", ")", "Success"}
+        };
+
+        System.out.println("\n=== Incremental Parsing Test Cases ===");
+        for (String[] edit : edits) {
+            int offset = text.indexOf(edit[1]) + edit[1].length();
+            text = text.substring(0, offset) + edit[3] + text.substring(offset + edit[2].length());
+            boolean result = parser.edit(offset, edit[2].length(), edit[3]);
+
+            IncrementalParser fresh = new IncrementalParser(parsingTable, lexer);
+            boolean freshResult = fresh.parse(text);
+            if (freshResult) {
+                lastParsed = text;
+            }
+            // After a failure the tree stays that of the last text that parsed
+            IncrementalParser expectedTree = new IncrementalParser(parsingTable, lexer);
+            expectedTree.parse(lastParsed);
+            boolean sameTokens = sameTokens(parser, fresh);
+            boolean sameTree = sameTree(parser, parser.getRoot(), expectedTree, expectedTree.getRoot());
+
+            System.out.println("Edit: " + edit[0]);
+            System.out.println("Expected: " + edit[4]);
+            System.out.println("Actual: " + (result ? "Success" : "Failure"));
+            System.out.println("Same as a fresh parse: result " + (result == freshResult) +
+                               ", tokens " + sameTokens + ", tree " + sameTree);
+            boolean passed = edit[4].equals(result ? "Success" : "Failure") && result == freshResult &&
+                             sameTokens && sameTree;
+            System.out.println("Result: " + (passed ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+
+    // Inserts a statement at the start, middle and end of a list of 100000. The list is
+    // kept balanced, so the tree stays shallow and each reparse creates a number of nodes
+    // that grows with the logarithm of the list's length, not the length.
+    private static void testIncrementalList() throws IOException {
+        Grammar grammar = statementGrammar();
+        LRParsingTable parsingTable = new LRParser(grammar, LRParsingTable.TableType.LALR).getParsingTable();
+        Lexer lexer = LexerGenerator.generate(grammar);
+        IncrementalParser parser = new IncrementalParser(parsingTable, lexer);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("x").append(i).append(" = y + ").append(i).append(" ;\n");
+        }
+        parser.parse(text);
+
+        System.out.println("\n=== Incremental List Test Cases ===");
+        String[] names = {"start", "middle", "end"};
+        for (String name : names) {
+            int offset = name.equals("start") ? 0 : name.equals("middle") ? text.indexOf("x50000 ") : text.length();
+            BitSet before = new BitSet();
+            collectNodes(parser, parser.getRoot(), before);
+            String inserted = "q = ( 2 ) ;\n";
+            boolean result = parser.edit(offset, 0, inserted);
+            text.insert(offset, inserted);
+            BitSet created = new BitSet();
+            collectNodes(parser, parser.getRoot(), created);
+            created.andNot(before);
+            int depth = depth(parser, parser.getRoot());
+            IncrementalParser fresh = new IncrementalParser(parsingTable, lexer);
+            fresh.parse(text);
+            boolean sameTree = sameTree(parser, parser.getRoot(), fresh, fresh.getRoot());
+
+            System.out.println("Input: statement inserted at the " + name + " of " + parser.getTokenCount() + " tokens");
+            System.out.println("Expected: Success, at most 100 new nodes, depth at most 60");
+            System.out.println("Actual: " + (result ? "Success" : "Failure") + ", " + created.cardinality() +
+                               " new nodes, depth " + depth + ", same tree as a fresh parse " + sameTree);
+            boolean passed = result && created.cardinality() <= 100 && depth <= 60 && sameTree;
+            System.out.println("Result: " + (passed ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+
+    // Lexes text several times the reader buffer's size through a Reader, whole and in
+    // small reads, so that tokens cross refills; one identifier is longer than the
+    // buffer and makes it grow
+    private static void testReaderTokenSource() throws IOException {
+        Grammar grammar = statementGrammar();
+        Lexer lexer = LexerGenerator.generate(grammar);
+        LRParser parser = new LRParser(grammar, LRParsingTable.TableType.LALR);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 8192; i++) {
+            text.append("x").append(i).append(" = a").append(i % 7).append(" + ").append(i).append(" ;\n");
+            if (i == 500) {
+                text.append("y");
+                for (int k = 0; k < 20000; k++) {
+                    text.append((char) ('a' + k % 26));
+                }
+                text.append(" = ( b * 2 ) ;\n");
+            }
+        }
+        String input = text.toString();
+        List<long[]> expected = expectedTokens(lexer, input);
+
+        System.out.println("\n=== Reader Token Source Test Cases ===");
+        String[] names = {"Whole reads", "Reads of at most 7 characters"};
+        for (int run = 0; run < names.length; run++) {
+            TokenSource source = lexer.tokens(run == 0 ? new StringReader(input) : trickle(input, 7));
+            List<long[]> actual = new ArrayList<>();
+            for (int token = source.nextToken(); token != TokenSource.END_OF_INPUT; token = source.nextToken()) {
+                actual.add(new long[] { token, source.getTokenOffset(), source.getTokenLength() });
+            }
+            boolean sameTokens = sameTokenList(expected, actual);
+            boolean parsed = parser.parse(lexer.tokens(run == 0 ? new StringReader(input) : trickle(input, 7)));
+
+            System.out.println("Input: " + names[run] + ", " + input.length() + " characters, " +
+                               expected.size() + " tokens");
+            System.out.println("Expected: same tokens as Lexer.match, Success");
+            System.out.println("Actual: " + (sameTokens ? "same tokens" : "different tokens") + ", " +
+                               (parsed ? "Success" : "Failure"));
+            boolean passed = sameTokens && parsed;
+            System.out.println("Result: " + (passed ? "✓" : "✗"));
+            System.out.println();
+        }
+    }
+
+    // Lexes UTF-8 bytes with two- and four-byte characters, from a buffer and from a file
+    // mapped in the default window and in 16-byte windows, so that tokens and characters
+    // cross window boundaries; malformed bytes read as U+FFFD
+    private static void testByteTokenSource() throws IOException {
+        Grammar grammar = grammarOf("%token word /([a-z\\u00e9]|\\ud83d\\ude00)+/",
+                                    "%token num /[0-9]+/",
+                                    "%token other /\\ufffd/",
+                                    "%skip / +/",
+                                    "Items -> Items Item | epsilon",
+                                    "Item -> word | num | other");
+        Lexer lexer = LexerGenerator.generate(grammar);
+        LRParser parser = new LRParser(grammar, LRParsingTable.TableType.LALR);
+        int word = grammar.getTerminalId(new Symbol("word", true));
+        int other = grammar.getTerminalId(new Symbol("other", true));
+        StringBuilder text = new StringBuilder("x\u00e9 ");
+        for (int i = 0; i < 200; i++) {
+            text.append(i % 3 == 0 ? "ab\ud83d\ude00c " : i % 3 == 1 ? "\u00e9\u00e9\ud83d\ude00 " : i + " ");
+        }
+        String input = text.toString();
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        List<long[]> expected = new ArrayList<>();
+        for (long[] token : expectedTokens(lexer, input)) {
+            int start = input.substring(0, (int) token[1]).getBytes(StandardCharsets.UTF_8).length;
+            int end = input.substring(0, (int) (token[1] + token[2])).getBytes(StandardCharsets.UTF_8).length;
+            expected.add(new long[] { token[0], start, end - start });
+        }
+        // Truncated and stray continuation bytes, and a sequence cut off by the end
+        byte[] malformed = { 'a', (byte) 0xE2, (byte) 0x82, ' ', (byte) 0x82, 'b', (byte) 0xFF, (byte) 0xF0, (byte) 0x9F };
+        List<long[]> expectedMalformed = Arrays.asList(
+            new long[] { word, 0, 1 }, new long[] { other, 1, 1 }, new long[] { other, 2, 1 },
+            new long[] { other, 4, 1 }, new long[] { word, 5, 1 }, new long[] { other, 6, 1 },
+            new long[] { other, 7, 1 }, new long[] { other, 8, 1 });
+
+        System.out.println("\n=== Byte Token Source Test Cases ===");
+        List<Path> files = new ArrayList<>();
+        try {
+            Path file = writeTemp(bytes, files);
+            Path malformedFile = writeTemp(malformed, files);
+            List<long[]> first = tokenList(lexer.tokens(ByteBuffer.wrap(bytes)));
+            System.out.println("Input: " + input.substring(0, input.offsetByCodePoints(0, 10)) + "..., " + bytes.length + " bytes");
+            System.out.println("Expected: " + Arrays.toString(expected.get(0)) + " " + Arrays.toString(expected.get(1)));
+            System.out.println("Actual: " + Arrays.toString(first.get(0)) + " " + Arrays.toString(first.get(1)));
+            checkTokenList("Buffer", expected, first);
+            checkTokenList("File", expected, tokenList(lexer.tokens(file)));
+            checkTokenList("File in 16-byte windows", expected, tokenList(lexer.tokens(file, 16)));
+            checkTokenList("Malformed buffer", expectedMalformed, tokenList(lexer.tokens(ByteBuffer.wrap(malformed))));
+            checkTokenList("Malformed file in 16-byte windows", expectedMalformed,
+                           tokenList(lexer.tokens(malformedFile, 16)));
+
+            boolean parsed = parser.parse(file, lexer);
+            System.out.println("Input: parse(Path, Lexer)");
+            System.out.println("Expected: Success");
+            System.out.println("Actual: " + (parsed ? "Success" : "Failure"));
+            System.out.println("Result: " + (parsed ? "✓" : "✗"));
+            System.out.println();
+
+            // Without a token for U+FFFD the malformed byte is reported where it is
+            Lexer asciiLexer = LexerGenerator.generate(statementGrammar());
+            String error = "none";
+            try {
+                tokenList(asciiLexer.tokens(ByteBuffer.wrap(new byte[] { 'a', ' ', (byte) 0xC3, 'b' })));
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+            System.out.println("Input: malformed byte without a matching token");
+            System.out.println("Expected: Unexpected byte 0xc3 at offset 2");
+            System.out.println("Actual: " + error);
+            System.out.println("Result: " + (error.equals("Unexpected byte 0xc3 at offset 2") ? "✓" : "✗"));
+            System.out.println();
+
+            // A token that cannot fit in a window
+            Path longFile = writeTemp("abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII), files);
+            error = "none";
+            try {
+                tokenList(lexer.tokens(longFile, 16));
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+            System.out.println("Input: 26-byte token in 16-byte windows");
+            System.out.println("Expected: Token longer than 16 bytes at offset 0");
+            System.out.println("Actual: " + error);
+            System.out.println("Result: " + (error.equals("Token longer than 16 bytes at offset 0") ? "✓" : "✗"));
+            System.out.println();
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static List<long[]> tokenList(TokenSource source) throws IOException {
+        List<long[]> tokens = new ArrayList<>();
+        for (int token = source.nextToken(); token != TokenSource.END_OF_INPUT; token = source.nextToken()) {
+            tokens.add(new long[] { token, source.getTokenOffset(), source.getTokenLength() });
+        }
+        return tokens;
+    }
+
+    private static void checkTokenList(String name, List<long[]> expected, List<long[]> actual) {
+        boolean passed = sameTokenList(expected, actual);
+        System.out.println("Input: " + name);
+        System.out.println("Expected: " + expected.size() + " tokens");
+        System.out.println("Actual: " + actual.size() + " tokens, " + (passed ? "same" : "different") +
+                           " terminals, offsets and lengths");
+        System.out.println("Result: " + (passed ? "✓" : "✗"));
+        System.out.println();
+    }
+
+    // Reader over text that returns at most count characters per read
+    private static Reader trickle(String text, int count) {
+        return new FilterReader(new StringReader(text)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, count));
+            }
+        };
+    }
+
+    // Terminal id, offset and length of each token in text, skipped text left out
+    private static List<long[]> expectedTokens(Lexer lexer, String text) {
+        List<long[]> tokens = new ArrayList<>();
+        int[] ends = new int[2];
+        int position = 0;
+        while (position < text.length()) {
+            int token = lexer.match(text, position, ends);
+            if (token == Lexer.NO_TOKEN) {
+                throw new IllegalArgumentException("Unexpected character at offset " + position);
+            }
+            if (token != Lexer.SKIP) {
+                tokens.add(new long[] { token, position, ends[0] - position });
+            }
+            position = ends[0];
+        }
+        return tokens;
+    }
+
+    private static boolean sameTokenList(List<long[]> a, List<long[]> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameTokens(IncrementalParser a, IncrementalParser b) {
+        if (a.getTokenCount() != b.getTokenCount()) {
+            return false;
+        }
+        for (int i = 0; i < a.getTokenCount(); i++) {
+            if (a.getTerminal(i) != b.getTerminal(i) || a.getTokenStart(i) != b.getTokenStart(i) ||
+                a.getTokenEnd(i) != b.getTokenEnd(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether two trees are the same parse, however their lists' SEQUENCE nodes are shaped
+    private static boolean sameTree(IncrementalParser a, int nodeA, IncrementalParser b, int nodeB) {
+        if (nodeA == -1 || nodeB == -1) {
+            return nodeA == nodeB;
+        }
+        List<Integer> itemsA = new ArrayList<>();
+        List<Integer> itemsB = new ArrayList<>();
+        listItems(a, nodeA, itemsA);
+        listItems(b, nodeB, itemsB);
+        if (itemsA.size() != itemsB.size()) {
+            return false;
+        }
+        for (int i = 0; i < itemsA.size(); i++) {
+            int itemA = itemsA.get(i);
+            int itemB = itemsB.get(i);
+            if (a.getSymbolCode(itemA) != b.getSymbolCode(itemB) || a.getProduction(itemA) != b.getProduction(itemB) ||
+                a.getTokenWidth(itemA) != b.getTokenWidth(itemB)) {
+                return false;
+            }
+            int childA = a.getFirstChild(itemA);
+            int childB = b.getFirstChild(itemB);
+            while (childA != -1 && childB != -1) {
+                if (!sameTree(a, childA, b, childB)) {
+                    return false;
+                }
+                childA = a.getNextSibling(childA);
+                childB = b.getNextSibling(childB);
+            }
+            if (childA != childB) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The leaves of a list's SEQUENCE nodes in order, or the node itself if it is not one
+    private static void listItems(IncrementalParser parser, int node, List<Integer> items) {
+        if (parser.getProduction(node) == IncrementalParser.SEQUENCE) {
+            int left = parser.getFirstChild(node);
+            listItems(parser, left, items);
+            listItems(parser, parser.getNextSibling(left), items);
+        } else {
+            items.add(node);
+        }
+    }
+
+    private static void collectNodes(IncrementalParser parser, int node, BitSet nodes) {
+        nodes.set(node);
+        for (int child = parser.getFirstChild(node); child != -1; child = parser.getNextSibling(child)) {
+            collectNodes(parser, child, nodes);
+        }
+    }
+
+    private static int depth(IncrementalParser parser, int node) {
+        int depth = 0;
+        for (int child = parser.getFirstChild(node); child != -1; child = parser.getNextSibling(child)) {
+            depth = Math.max(depth, depth(parser, child));
+        }
+        return depth + 1;
+    }
+
+    // Reads a grammar given line by line, through a temporary file
+    private static Grammar grammarOf(String... lines) throws IOException {
+        Path file = Files.createTempFile("grammar", ".txt");
+        try {
+            Files.write(file, Arrays.asList(lines));
+            return GrammarReader.readGrammar(file.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Symbol> tokenizeInput(String input, Lexer lexer) {
+        List<Symbol> symbols = new ArrayList<>();
+        for (int token : lexer.tokenize(input)) {
+            symbols.add(lexer.getGrammar().getTerminal(token));
+        }
         return symbols;
     }
 }
\ No newline at end of file
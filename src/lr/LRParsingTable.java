@@ -1,77 +1,241 @@
 package lr;
 
 import utils.*;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.*;
 
 public class LRParsingTable {
+    // Packed action encoding: the low two bits hold the kind, the remaining bits the
+    // target state (SHIFT) or production index (REDUCE). Zero is the error entry.
+    static final int ERROR = 0;
+    static final int SHIFT = 1;
+    static final int REDUCE = 2;
+    static final int ACCEPT = 3;
+    private static final int KIND_BITS = 2;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    private static final int COMPRESSED_SECTIONS = 7;
+
     private final Grammar grammar;
-    private final CanonicalCollection canonicalCollection;
-    private final Map<ActionKey, Action> actionTable;
-    private final Map<GotoKey, Integer> gotoTable;
-    private final Symbol EOF = new Symbol("$", true);
-    private final FirstFollowCalculator followCalculator;
+    private final TableType tableType;
+    private final int stateCount;
+    private final int terminalColumns;
+    private final int nonTerminalColumns;
+    // Row-major by state. Heap arrays when built, views of the file when loaded.
+    // A compressed table has compressedActions instead of actionTable.
+    private final IntBuffer actionTable;
+    private final CompressedActionTable compressedActions;
+    private final IntBuffer gotoTable;
+    private final int[] rightSideLengths;
+    private final int[] leftSideIds;
+    private final boolean loaded;
+    private final long buildTimeNanos;
 
     public LRParsingTable(Grammar grammar, CanonicalCollection canonicalCollection) {
+        this(grammar, canonicalCollection, TableType.SLR);
+    }
+
+    public LRParsingTable(Grammar grammar, CanonicalCollection canonicalCollection, TableType tableType) {
+        this(grammar, canonicalCollection, null, requireLR0Type(tableType));
+    }
+
+    public LRParsingTable(Grammar grammar, LR1Collection lr1Collection) {
+        this(grammar, lr1Collection, lr1Collection, TableType.LR1);
+    }
+
+    // Checked before delegating, as the shared constructor would need the LR(1) states
+    private static TableType requireLR0Type(TableType tableType) {
+        if (tableType == TableType.LR1) {
+            throw new IllegalArgumentException("LR(1) tables are built from an LR1Collection");
+        }
+        return tableType;
+    }
+
+    private LRParsingTable(Grammar grammar, LRAutomaton automaton, LR1Collection lr1Collection, TableType tableType) {
+        long start = System.nanoTime();
+        this.grammar = grammar;
+        this.tableType = tableType;
+        this.stateCount = automaton.getStateCount();
+        this.terminalColumns = grammar.getTerminalCount() + 1;
+        this.nonTerminalColumns = grammar.getNonTerminalCount();
+        this.rightSideLengths = new int[grammar.getProductionCount()];
+        this.leftSideIds = new int[grammar.getProductionCount()];
+        indexProductions();
+
+        int[] actions = new int[stateCount * terminalColumns];
+        int[] gotos = new int[stateCount * nonTerminalColumns];
+        Arrays.fill(gotos, -1);
+        // SLR(1) takes reduce lookaheads from FOLLOW sets, LALR(1) computes them per
+        // LR(0) state, and LR(1) states carry their own
+        FirstFollowCalculator followCalculator = tableType == TableType.SLR ? new FirstFollowCalculator(grammar) : null;
+        LookaheadCalculator lookaheadCalculator = tableType == TableType.LALR
+                ? new LookaheadCalculator((CanonicalCollection) automaton) : null;
+        constructTable(automaton, followCalculator, lookaheadCalculator, lr1Collection, actions, gotos);
+        this.actionTable = IntBuffer.wrap(actions);
+        this.compressedActions = null;
+        this.gotoTable = IntBuffer.wrap(gotos);
+        this.loaded = false;
+        this.buildTimeNanos = automaton.getBuildTimeNanos() + System.nanoTime() - start;
+    }
+
+    private LRParsingTable(Grammar grammar, TableType tableType, int stateCount, IntBuffer actionTable,
+                           CompressedActionTable compressedActions, IntBuffer gotoTable,
+                           boolean loaded, long buildTimeNanos) {
         this.grammar = grammar;
-        this.canonicalCollection = canonicalCollection;
-        this.actionTable = new HashMap<>();
-        this.gotoTable = new HashMap<>();
-        this.followCalculator = new FirstFollowCalculator(grammar);
-        constructTable();
+        this.tableType = tableType;
+        this.stateCount = stateCount;
+        this.terminalColumns = grammar.getTerminalCount() + 1;
+        this.nonTerminalColumns = grammar.getNonTerminalCount();
+        this.actionTable = actionTable;
+        this.compressedActions = compressedActions;
+        this.gotoTable = gotoTable;
+        this.rightSideLengths = new int[grammar.getProductionCount()];
+        this.leftSideIds = new int[grammar.getProductionCount()];
+        indexProductions();
+        this.loaded = loaded;
+        this.buildTimeNanos = buildTimeNanos;
     }
 
-    private void constructTable() {
-        // For simplicity, we'll implement SLR(1) parsing
-        // Get all states from canonical collection
-        List<ItemSet> states = canonicalCollection.getStates();
+    // A copy of this table with the ACTION table in compressed form: smaller, with
+    // lookups that stay O(1) but cost a few more loads than the dense form
+    public LRParsingTable compress() {
+        if (compressedActions != null) {
+            return this;
+        }
+        long start = System.nanoTime();
+        int[] dense = new int[stateCount * terminalColumns];
+        actionTable.duplicate().rewind().get(dense);
+        CompressedActionTable compressed = CompressedActionTable.compress(dense, stateCount, terminalColumns,
+                                                                          rightSideLengths);
+        return new LRParsingTable(grammar, tableType, stateCount, null, compressed, gotoTable,
+                                  loaded, buildTimeNanos + System.nanoTime() - start);
+    }
+
+    public boolean isCompressed() {
+        return compressedActions != null;
+    }
+
+    // Whether the tables were read from a table file rather than built
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void indexProductions() {
+        for (int p = 0; p < rightSideLengths.length; p++) {
+            Production prod = grammar.getProduction(p);
+            rightSideLengths[p] = prod.getRightSideLength();
+            leftSideIds[p] = prod.getLeftSide().getId();
+        }
+    }
+
+    // Writes the grammar and tables in the binary table file format. Dense tables
+    // store ACTION and GOTO; compressed ones store the seven compressed ACTION arrays
+    // (defaults, rows, base, next, check, lookahead sets, lookaheads) followed by GOTO.
+    public void save(Path path) throws IOException {
+        if (compressedActions == null) {
+            TableFile.write(path, tableType.getCode(), grammar, actionTable, gotoTable);
+            return;
+        }
+        int[][] arrays = compressedActions.toArrays();
+        IntBuffer[] sections = new IntBuffer[arrays.length + 1];
+        for (int i = 0; i < arrays.length; i++) {
+            sections[i] = IntBuffer.wrap(arrays[i]);
+        }
+        sections[arrays.length] = gotoTable;
+        TableFile.write(path, tableType.getCode(), grammar, sections);
+    }
+
+    // Loads tables written by save(), together with the grammar stored alongside them.
+    // The tables are used in place from the mapped file.
+    public static LRParsingTable load(Path path) throws IOException {
+        long start = System.nanoTime();
+        return load(TableFile.read(path), null, start);
+    }
+
+    // Loads tables and checks that they were built for the given grammar, which the
+    // loaded table then uses for symbol lookups
+    public static LRParsingTable load(Path path, Grammar grammar, TableType tableType) throws IOException {
+        long start = System.nanoTime();
+        return load(TableFile.read(path, grammar, tableType.getCode()), grammar, start);
+    }
+
+    private static LRParsingTable load(TableFile file, Grammar grammar, long start) throws IOException {
+        TableType tableType = TableType.forCode(file.getKind());
+        int sections = file.getSectionCount();
+        if (tableType == null || (sections != 2 && sections != COMPRESSED_SECTIONS + 1)) {
+            throw new IOException("Not an LR table file");
+        }
+        if (grammar == null) {
+            grammar = file.getGrammar();
+        }
+        int terminalColumns = grammar.getTerminalCount() + 1;
+        IntBuffer gotoTable = file.getSection(sections - 1);
+        int stateCount = gotoTable.remaining() / Math.max(1, grammar.getNonTerminalCount());
+
+        IntBuffer actionTable = null;
+        CompressedActionTable compressedActions = null;
+        if (sections == 2) {
+            actionTable = file.getSection(0);
+            stateCount = actionTable.remaining() / terminalColumns;
+        } else {
+            // The compressed arrays are small, so they are copied to the heap
+            int[][] arrays = new int[COMPRESSED_SECTIONS][];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = new int[file.getSection(i).remaining()];
+                file.getSection(i).duplicate().get(arrays[i]);
+            }
+            compressedActions = CompressedActionTable.fromArrays(arrays, terminalColumns);
+            if (compressedActions == null) {
+                throw new IOException("Malformed compressed ACTION table");
+            }
+            stateCount = compressedActions.getStateCount();
+        }
+        if ((actionTable != null && actionTable.remaining() != stateCount * terminalColumns)
+                || gotoTable.remaining() != stateCount * grammar.getNonTerminalCount()) {
+            throw new IOException("Table sizes do not match the grammar");
+        }
+        return new LRParsingTable(grammar, tableType, stateCount, actionTable, compressedActions, gotoTable,
+                                  true, System.nanoTime() - start);
+    }
+
+    private void constructTable(LRAutomaton automaton, FirstFollowCalculator followCalculator,
+                                LookaheadCalculator lookaheadCalculator, LR1Collection lr1Collection,
+                                int[] actions, int[] gotos) {
+        AugmentedGrammar augmentedGrammar = automaton.getAugmentedGrammar();
         
-        for (ItemSet state : states) {
-            int stateNum = state.getStateNumber();
-            
+        for (int stateNum = 0; stateNum < stateCount; stateNum++) {
             // Process each item in the state
-            for (Item item : state.getItems()) {
-                Symbol symbolAfterDot = item.getSymbolAfterDot();
+            for (int item : automaton.getItemIds(stateNum)) {
+                int symbolAfterDot = augmentedGrammar.getSymbolAfterDot(item);
                 
-                if (symbolAfterDot != null) {
+                if (symbolAfterDot >= 0) {
                     // Case 1: [A -> α•aβ] => shift
-                    if (symbolAfterDot.isTerminal()) {
-                        int nextState = canonicalCollection.getTransition(stateNum, symbolAfterDot);
-                        if (nextState != -1) {
-                            ActionKey key = new ActionKey(stateNum, symbolAfterDot);
-                            Action action = new Action(ActionType.SHIFT, nextState);
-                            checkConflict(key, action);
-                            actionTable.put(key, action);
-                        }
-                    } 
+                    int nextState = automaton.getTerminalTransition(stateNum, symbolAfterDot);
+                    setAction(actions, stateNum, symbolAfterDot, encode(SHIFT, nextState));
+                } else if (symbolAfterDot != AugmentedGrammar.NO_SYMBOL) {
                     // For GOTO table
-                    else {
-                        int nextState = canonicalCollection.getTransition(stateNum, symbolAfterDot);
-                        if (nextState != -1) {
-                            gotoTable.put(new GotoKey(stateNum, symbolAfterDot), nextState);
-                        }
-                    }
+                    int nextState = automaton.getNonTerminalTransition(stateNum, ~symbolAfterDot);
+                    gotos[stateNum * nonTerminalColumns + ~symbolAfterDot] = nextState;
                 } else {
                     // Case 2: [A -> α•] => reduce
-                    Production prod = item.getProduction();
-                    Symbol leftSide = prod.getLeftSide();
+                    int prodIndex = augmentedGrammar.getProductionOf(item);
                     
                     // Handle accepting state specially
-                    if (leftSide.getName().equals(grammar.getStartSymbol().getName() + "'")) {
-                        ActionKey key = new ActionKey(stateNum, EOF);
-                        Action action = new Action(ActionType.ACCEPT, 0);
-                        checkConflict(key, action);
-                        actionTable.put(key, action);
-                    } else {
-                        // Find production index for reduce action
-                        int prodIndex = findProductionIndex(prod);
-                        
+                    if (prodIndex == augmentedGrammar.getStartProductionIndex()) {
+                        setAction(actions, stateNum, grammar.getEndMarkerId(), encode(ACCEPT, 0));
+                    } else if (tableType == TableType.SLR) {
                         // For SLR(1), we use FOLLOW set
-                        Set<Symbol> followSet = followCalculator.getFollow(leftSide);
-                        for (Symbol symbol : followSet) {
-                            ActionKey key = new ActionKey(stateNum, symbol);
-                            Action action = new Action(ActionType.REDUCE, prodIndex);
-                            checkConflict(key, action);
-                            actionTable.put(key, action);
+                        long[] followSet = followCalculator.getFollowSet(leftSideIds[prodIndex]);
+                        for (int t = BitSets.nextSetBit(followSet, 0); t >= 0; t = BitSets.nextSetBit(followSet, t + 1)) {
+                            setAction(actions, stateNum, t, encode(REDUCE, prodIndex));
+                        }
+                    } else {
+                        long[] lookaheads = tableType == TableType.LALR
+                                ? lookaheadCalculator.getLookaheads(stateNum, prodIndex)
+                                : lr1Collection.getLookaheads(stateNum, prodIndex);
+                        for (int t = BitSets.nextSetBit(lookaheads, 0); t >= 0; t = BitSets.nextSetBit(lookaheads, t + 1)) {
+                            setAction(actions, stateNum, t, encode(REDUCE, prodIndex));
                         }
                     }
                 }
@@ -79,76 +243,147 @@ public class LRParsingTable {
         }
     }
 
-    private void checkConflict(ActionKey key, Action newAction) {
-        if (actionTable.containsKey(key)) {
-            Action existingAction = actionTable.get(key);
-            if (!existingAction.equals(newAction)) {
-                throw new IllegalStateException("Grammar is not SLR(1): Conflict at state " +
-                                               key.stateNumber + " for symbol " + key.symbol);
-            }
+    private void setAction(int[] actions, int stateNum, int terminalId, int action) {
+        int index = stateNum * terminalColumns + terminalId;
+        int existingAction = actions[index];
+        if (existingAction != ERROR && existingAction != action) {
+            throw new IllegalStateException("Grammar is not " + tableType + ": Conflict at state " +
+                                           stateNum + " for symbol " + grammar.getTerminal(terminalId));
         }
+        actions[index] = action;
     }
 
-    private int findProductionIndex(Production prod) {
-        List<Production> productions = grammar.getProductions();
-        for (int i = 0; i < productions.size(); i++) {
-            if (productions.get(i).equals(prod)) {
-                return i;
-            }
-        }
-        return -1;
+    static int encode(int kind, int value) {
+        return (value << KIND_BITS) | kind;
     }
 
-    public Action getAction(int state, Symbol symbol) {
-        return actionTable.get(new ActionKey(state, symbol));
+    static int kindOf(int action) {
+        return action & KIND_MASK;
     }
 
-    public int getGoto(int state, Symbol nonTerminal) {
-        return gotoTable.getOrDefault(new GotoKey(state, nonTerminal), -1);
+    static int valueOf(int action) {
+        return action >>> KIND_BITS;
     }
 
-    private static class ActionKey {
-        private final int stateNumber;
-        private final Symbol symbol;
+    public Grammar getGrammar() {
+        return grammar;
+    }
 
-        public ActionKey(int stateNumber, Symbol symbol) {
-            this.stateNumber = stateNumber;
-            this.symbol = symbol;
-        }
+    public TableType getTableType() {
+        return tableType;
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof ActionKey)) return false;
-            ActionKey other = (ActionKey) obj;
-            return stateNumber == other.stateNumber && symbol.equals(other.symbol);
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    // Packed action for a state and terminal id (the end marker included)
+    public int getActionCode(int state, int terminalId) {
+        if (compressedActions != null) {
+            return compressedActions.get(state, terminalId);
         }
+        return actionTable.get(state * terminalColumns + terminalId);
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(stateNumber, symbol);
+    // The entry of the dense table even when compressed, with no default reduction in
+    // place of an error. Slower on a compressed table; for error reporting and recovery,
+    // which have to see errors where they are.
+    public int getExactActionCode(int state, int terminalId) {
+        if (compressedActions != null) {
+            return compressedActions.getExact(state, terminalId);
         }
+        return actionTable.get(state * terminalColumns + terminalId);
+    }
+
+    // Target state for a state and non-terminal id, or -1 if undefined
+    public int getGotoState(int state, int nonTerminalId) {
+        return gotoTable.get(state * nonTerminalColumns + nonTerminalId);
+    }
+
+    // Number of states popped when reducing by a production
+    public int getRightSideLength(int prodIndex) {
+        return rightSideLengths[prodIndex];
     }
 
-    private static class GotoKey {
-        private final int stateNumber;
-        private final Symbol symbol;
+    public int getLeftSideId(int prodIndex) {
+        return leftSideIds[prodIndex];
+    }
+
+    // Bytes held by the ACTION and GOTO tables and the per-production arrays
+    public long getMemoryFootprint() {
+        return getActionTableFootprint() + 4L * (gotoTable.capacity() + rightSideLengths.length + leftSideIds.length);
+    }
 
-        public GotoKey(int stateNumber, Symbol symbol) {
-            this.stateNumber = stateNumber;
-            this.symbol = symbol;
+    // Bytes held by the ACTION table in its current form
+    public long getActionTableFootprint() {
+        return compressedActions != null ? compressedActions.getMemoryFootprint() : 4L * stateCount * terminalColumns;
+    }
+
+    // ACTION table size against the dense form it was compressed from
+    public String getCompressionReport() {
+        long dense = 4L * stateCount * terminalColumns;
+        if (compressedActions == null) {
+            return String.format("ACTION: %d bytes dense, not compressed", dense);
         }
+        long compressed = compressedActions.getMemoryFootprint();
+        return String.format("ACTION: %d bytes dense, %d bytes compressed (%.1f%% saved); " +
+                             "%d distinct rows for %d states, %d default reductions",
+                             dense, compressed, 100.0 * (dense - compressed) / Math.max(1, dense),
+                             compressedActions.getRowCount(), stateCount,
+                             compressedActions.getDefaultReductionCount());
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof GotoKey)) return false;
-            GotoKey other = (GotoKey) obj;
-            return stateNumber == other.stateNumber && symbol.equals(other.symbol);
+    // Time to build the automaton, its lookaheads and the tables, or to load them
+    public long getBuildTimeNanos() {
+        return buildTimeNanos;
+    }
+
+    public String getStatistics() {
+        return String.format("%s: %d states, %d bytes, %s in %.2f ms", tableType, stateCount,
+                             getMemoryFootprint(), loaded ? "loaded" : "built", buildTimeNanos / 1e6);
+    }
+
+    // Copies of the tables for code generation; the ACTION copy is null when compressed
+    int[] copyActionTable() {
+        if (actionTable == null) {
+            return null;
         }
+        int[] copy = new int[actionTable.capacity()];
+        actionTable.duplicate().rewind().get(copy);
+        return copy;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(stateNumber, symbol);
+    int[] copyGotoTable() {
+        int[] copy = new int[gotoTable.capacity()];
+        gotoTable.duplicate().rewind().get(copy);
+        return copy;
+    }
+
+    CompressedActionTable getCompressedActions() {
+        return compressedActions;
+    }
+
+    public Action getAction(int state, Symbol symbol) {
+        int terminalId = grammar.getTerminalId(symbol);
+        if (terminalId < 0) {
+            return null;
         }
+        int action = getActionCode(state, terminalId);
+        switch (kindOf(action)) {
+            case SHIFT:
+                return new Action(ActionType.SHIFT, valueOf(action));
+            case REDUCE:
+                return new Action(ActionType.REDUCE, valueOf(action));
+            case ACCEPT:
+                return new Action(ActionType.ACCEPT, 0);
+            default:
+                return null;
+        }
+    }
+
+    public int getGoto(int state, Symbol nonTerminal) {
+        int nonTerminalId = grammar.getNonTerminalId(nonTerminal);
+        return nonTerminalId < 0 ? -1 : getGotoState(state, nonTerminalId);
     }
 
     public static class Action {
@@ -189,4 +424,35 @@ public class LRParsingTable {
     public enum ActionType {
         SHIFT, REDUCE, ACCEPT, ERROR
     }
+
+    public enum TableType {
+        SLR("SLR(1)", 1), LALR("LALR(1)", 2), LR1("LR(1)", 3);
+
+        private final String label;
+        // Kind written to table files; LL tables use TableFile.LL_TABLE
+        private final int code;
+
+        TableType(String label, int code) {
+            this.label = label;
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static TableType forCode(int code) {
+            for (TableType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
 }
\ No newline at end of file
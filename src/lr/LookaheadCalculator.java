@@ -0,0 +1,168 @@
+package lr;
+
+import utils.*;
+import java.util.*;
+
+// LALR(1) lookaheads for the LR(0) automaton, computed with DeRemer and Pennello's
+// relations:
+//   DR(p,A)     terminals t such that GOTO(GOTO(p,A), t) is defined
+//   (p,A) reads (r,C)      r = GOTO(p,A), C nullable and GOTO(r,C) defined
+//   (p,A) includes (p',B)  B -> βAγ, γ nullable and p' --β--> p
+//   (q,A->ω) lookback (p,A)  p --ω--> q
+// Read = digraph(DR, reads), Follow = digraph(Read, includes), and the lookahead of
+// a reduction is the union of Follow over its lookbacks.
+public class LookaheadCalculator {
+    private final CanonicalCollection collection;
+    private final AugmentedGrammar augmentedGrammar;
+    private final Grammar grammar;
+    private final int nonTerminalCount;
+    private final GrammarAnalysis analysis;
+
+    // Non-terminal transitions (p, A), numbered densely
+    private int transitionCount;
+    private int[] transitionStates;
+    private int[] transitionSymbols;
+    private final int[] transitionIndex;
+
+    // Reductions per state: production indices and their lookahead sets
+    private final int[][] reductions;
+    private final long[][][] lookaheads;
+
+    public LookaheadCalculator(CanonicalCollection collection) {
+        this.collection = collection;
+        this.augmentedGrammar = collection.getAugmentedGrammar();
+        this.grammar = augmentedGrammar.getGrammar();
+        this.nonTerminalCount = grammar.getNonTerminalCount();
+        this.analysis = grammar.getAnalysis();
+        this.transitionIndex = new int[collection.getStateCount() * nonTerminalCount];
+        this.reductions = new int[collection.getStateCount()][];
+        this.lookaheads = new long[collection.getStateCount()][][];
+        computeLookaheads();
+    }
+
+    private void computeLookaheads() {
+        int stateCount = collection.getStateCount();
+        int terminalColumns = grammar.getTerminalCount() + 1;
+
+        // Number the non-terminal transitions
+        Arrays.fill(transitionIndex, -1);
+        transitionStates = new int[16];
+        transitionSymbols = new int[16];
+        for (int state = 0; state < stateCount; state++) {
+            for (int n = 0; n < nonTerminalCount; n++) {
+                if (collection.getNonTerminalTransition(state, n) >= 0) {
+                    if (transitionCount == transitionStates.length) {
+                        transitionStates = Arrays.copyOf(transitionStates, transitionCount * 2);
+                        transitionSymbols = Arrays.copyOf(transitionSymbols, transitionCount * 2);
+                    }
+                    transitionStates[transitionCount] = state;
+                    transitionSymbols[transitionCount] = n;
+                    transitionIndex[state * nonTerminalCount + n] = transitionCount++;
+                }
+            }
+        }
+
+        // Reductions of each state, in item order
+        for (int state = 0; state < stateCount; state++) {
+            int[] items = collection.getState(state).getItemIds();
+            int count = 0;
+            int[] productions = new int[items.length];
+            for (int item : items) {
+                int prodIndex = augmentedGrammar.getProductionOf(item);
+                if (augmentedGrammar.getSymbolAfterDot(item) == AugmentedGrammar.NO_SYMBOL
+                        && prodIndex != augmentedGrammar.getStartProductionIndex()) {
+                    productions[count++] = prodIndex;
+                }
+            }
+            reductions[state] = Arrays.copyOf(productions, count);
+            lookaheads[state] = new long[count][];
+        }
+
+        // Direct reads, plus the end marker after the start symbol (S' -> S $)
+        long[][] follow = new long[transitionCount][];
+        Relation reads = new Relation(transitionCount);
+        for (int t = 0; t < transitionCount; t++) {
+            follow[t] = BitSets.create(terminalColumns);
+            int target = collection.getNonTerminalTransition(transitionStates[t], transitionSymbols[t]);
+            for (int terminal = 0; terminal < terminalColumns; terminal++) {
+                if (collection.getTerminalTransition(target, terminal) >= 0) {
+                    BitSets.set(follow[t], terminal);
+                }
+            }
+            for (int n = 0; n < nonTerminalCount; n++) {
+                if (analysis.isNullable(n) && transitionIndex[target * nonTerminalCount + n] >= 0) {
+                    reads.add(t, transitionIndex[target * nonTerminalCount + n]);
+                }
+            }
+        }
+        int startTransition = transitionIndex[grammar.getStartSymbol().getId()];
+        if (startTransition >= 0) {
+            BitSets.set(follow[startTransition], grammar.getEndMarkerId());
+        }
+        reads.propagate(follow);
+
+        // includes and lookback, found by walking every production from every
+        // transition on its left side
+        Relation includes = new Relation(transitionCount);
+        int[] reductionIds = new int[stateCount + 1];
+        for (int state = 0; state < stateCount; state++) {
+            reductionIds[state + 1] = reductionIds[state] + reductions[state].length;
+        }
+        Relation lookback = new Relation(reductionIds[stateCount]);
+
+        for (int t = 0; t < transitionCount; t++) {
+            for (Production prod : grammar.getProductionsFor(grammar.getNonTerminal(transitionSymbols[t]))) {
+                int state = transitionStates[t];
+                for (int i = 0; i < prod.getRightSideLength(); i++) {
+                    Symbol symbol = prod.getRightSideSymbol(i);
+                    if (!symbol.isTerminal() && analysis.isNullableSuffix(prod.getIndex(), i + 1)) {
+                        includes.add(transitionIndex[state * nonTerminalCount + symbol.getId()], t);
+                    }
+                    state = symbol.isTerminal()
+                            ? collection.getTerminalTransition(state, symbol.getId())
+                            : collection.getNonTerminalTransition(state, symbol.getId());
+                }
+                int reduction = indexOf(reductions[state], prod.getIndex());
+                lookback.add(reductionIds[state] + reduction, t);
+            }
+        }
+        includes.propagate(follow);
+
+        for (int state = 0; state < stateCount; state++) {
+            for (int r = 0; r < reductions[state].length; r++) {
+                long[] set = BitSets.create(terminalColumns);
+                int id = reductionIds[state] + r;
+                for (int e = 0; e < lookback.getSize(id); e++) {
+                    BitSets.or(set, follow[lookback.getTarget(id, e)]);
+                }
+                lookaheads[state][r] = set;
+            }
+        }
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Missing reduction for production " + value);
+    }
+
+    // Lookahead terminals for reducing by a production in a state, as a bitset over
+    // terminal ids (end marker included), or null if the state has no such reduction
+    public long[] getLookaheads(int state, int prodIndex) {
+        int[] stateReductions = reductions[state];
+        for (int r = 0; r < stateReductions.length; r++) {
+            if (stateReductions[r] == prodIndex) {
+                return lookaheads[state][r].clone();
+            }
+        }
+        return null;
+    }
+
+    public Set<Symbol> getLookaheadSymbols(int state, int prodIndex) {
+        long[] set = getLookaheads(state, prodIndex);
+        return set != null ? analysis.toTerminalSet(set) : new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,111 @@
+package lr;
+
+import utils.*;
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Generates a self-contained Java class that parses with a copy of an LR table. The
+// tables become static final arrays and the driver loop is specialized to them, with
+// no dependency on this library at run time.
+public class ParserGenerator {
+    private final LRParsingTable parsingTable;
+    private final Grammar grammar;
+
+    public ParserGenerator(LRParsingTable parsingTable) {
+        this.parsingTable = parsingTable;
+        this.grammar = parsingTable.getGrammar();
+    }
+
+    public String generate(String packageName, String className) {
+        int terminalColumns = grammar.getTerminalCount() + 1;
+        int nonTerminalColumns = grammar.getNonTerminalCount();
+        int[] rightSideLengths = new int[grammar.getProductionCount()];
+        int[] leftSideIds = new int[grammar.getProductionCount()];
+        for (int p = 0; p < rightSideLengths.length; p++) {
+            rightSideLengths[p] = parsingTable.getRightSideLength(p);
+            leftSideIds[p] = parsingTable.getLeftSideId(p);
+        }
+        CompressedActionTable compressed = parsingTable.getCompressedActions();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by SyntaxForge from a ").append(parsingTable.getTableType())
+          .append(" table with ").append(parsingTable.getStateCount()).append(" states. Do not edit.\n");
+        JavaSource.appendPackage(sb, packageName);
+        sb.append("import java.util.Arrays;\n\n");
+        sb.append("public final class ").append(className).append(" {\n");
+        JavaSource.appendTerminals(sb, grammar);
+
+        sb.append("    private static final int TERMINAL_COLUMNS = ").append(terminalColumns).append(";\n");
+        sb.append("    private static final int NON_TERMINAL_COLUMNS = ").append(nonTerminalColumns).append(";\n");
+        if (compressed == null) {
+            JavaSource.appendIntArray(sb, "    ", "ACTION", parsingTable.copyActionTable());
+        } else {
+            int[][] arrays = compressed.toArrays();
+            String[] names = { "DEFAULTS", "ROWS", "BASE", "NEXT", "CHECK" };
+            for (int i = 0; i < names.length; i++) {
+                JavaSource.appendIntArray(sb, "    ", names[i], arrays[i]);
+            }
+        }
+        JavaSource.appendIntArray(sb, "    ", "GOTO", parsingTable.copyGotoTable());
+        JavaSource.appendIntArray(sb, "    ", "RIGHT_SIDE_LENGTHS", rightSideLengths);
+        JavaSource.appendIntArray(sb, "    ", "LEFT_SIDE_IDS", leftSideIds);
+        sb.append('\n');
+
+        sb.append("    private ").append(className).append("() {\n    }\n\n");
+
+        // Same loop as LRParser.parse(int[], int), over the arrays above
+        sb.append("    // Parses a sequence of terminal ids (all of which must belong to the grammar).\n")
+          .append("    // The end marker is implied after the last token. Safe to call concurrently.\n")
+          .append("    public static boolean parse(int[] tokens, int length) {\n")
+          .append("        int[] stack = new int[64];\n")
+          .append("        int top = 0;\n")
+          .append("        int position = 0;\n")
+          .append("        int token = length > 0 ? tokens[0] : EOF;\n\n")
+          .append("        while (true) {\n")
+          .append("            int action = action(stack[top], token);\n")
+          .append("            switch (action & 3) {\n")
+          .append("                case 1:\n")
+          .append("                    if (++top == stack.length) {\n")
+          .append("                        stack = Arrays.copyOf(stack, top * 2);\n")
+          .append("                    }\n")
+          .append("                    stack[top] = action >>> 2;\n")
+          .append("                    position++;\n")
+          .append("                    token = position < length ? tokens[position] : EOF;\n")
+          .append("                    break;\n\n")
+          .append("                case 2:\n")
+          .append("                    int production = action >>> 2;\n")
+          .append("                    top -= RIGHT_SIDE_LENGTHS[production];\n")
+          .append("                    int next = GOTO[stack[top] * NON_TERMINAL_COLUMNS + LEFT_SIDE_IDS[production]];\n")
+          .append("                    if (++top == stack.length) {\n")
+          .append("                        stack = Arrays.copyOf(stack, top * 2);\n")
+          .append("                    }\n")
+          .append("                    stack[top] = next;\n")
+          .append("                    break;\n\n")
+          .append("                case 3:\n")
+          .append("                    return true;\n\n")
+          .append("                default:\n")
+          .append("                    return false;\n")
+          .append("            }\n")
+          .append("        }\n")
+          .append("    }\n\n");
+
+        sb.append("    private static int action(int state, int token) {\n");
+        if (compressed == null) {
+            sb.append("        return ACTION[state * TERMINAL_COLUMNS + token];\n");
+        } else {
+            sb.append("        int row = ROWS[state];\n")
+              .append("        int index = BASE[row] + token;\n")
+              .append("        return CHECK[index] == row ? NEXT[index] : DEFAULTS[state];\n");
+        }
+        sb.append("    }\n\n");
+
+        JavaSource.appendDecoder(sb, "    ");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Writes the generated class below a source root and returns its path
+    public Path write(Path sourceRoot, String packageName, String className) throws IOException {
+        return JavaSource.write(sourceRoot, packageName, className, generate(packageName, className));
+    }
+}
@@ -0,0 +1,68 @@
+package utils;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+
+// Parses many independent inputs concurrently with one shared parser. The inputs are
+// cut into contiguous chunks, a few per processor so that uneven input lengths even
+// out, and each chunk is one task that reuses a single ParseContext for its inputs.
+public final class BatchParser {
+    private static final int CHUNKS_PER_PROCESSOR = 8;
+
+    private BatchParser() {
+    }
+
+    // Runs on the common ForkJoinPool, which suits parsing as CPU-bound work
+    public static <T> boolean[] parseAll(Iterable<T> inputs, BiPredicate<T, ParseContext> parser) {
+        return parseAll(inputs, parser, ForkJoinPool.commonPool());
+    }
+
+    // Runs on the given executor, e.g. one with a virtual thread per task when producing
+    // the inputs blocks. results[i] is the outcome for the i-th input. Exceptions thrown
+    // by a parse are rethrown after all tasks have finished.
+    public static <T> boolean[] parseAll(Iterable<T> inputs, BiPredicate<T, ParseContext> parser,
+                                         ExecutorService executor) {
+        List<T> inputList = new ArrayList<>();
+        inputs.forEach(inputList::add);
+        int size = inputList.size();
+        boolean[] results = new boolean[size];
+
+        int chunkCount = Math.min(size, Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR);
+        List<Callable<Void>> tasks = new ArrayList<>(chunkCount);
+        for (int c = 0; c < chunkCount; c++) {
+            int from = (int) ((long) size * c / chunkCount);
+            int to = (int) ((long) size * (c + 1) / chunkCount);
+            tasks.add(() -> {
+                ParseContext context = new ParseContext();
+                for (int i = from; i < to; i++) {
+                    results[i] = parser.test(inputList.get(i), context);
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+// Static helpers for bitsets stored as long[] words, used where java.util.BitSet
+// would add an object and bounds checks per operation
+public final class BitSets {
+    private BitSets() {
+    }
+
+    public static long[] create(int bits) {
+        return new long[(bits + 63) >>> 6];
+    }
+
+    public static void set(long[] set, int bit) {
+        set[bit >>> 6] |= 1L << bit;
+    }
+
+    public static boolean get(long[] set, int bit) {
+        return (set[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Adds all bits of source to target and reports whether target changed
+    public static boolean or(long[] target, long[] source) {
+        boolean changed = false;
+        for (int i = 0; i < source.length; i++) {
+            long merged = target[i] | source[i];
+            if (merged != target[i]) {
+                target[i] = merged;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Index of the first set bit at or after from, or -1 if there is none
+    public static int nextSetBit(long[] set, int from) {
+        int word = from >>> 6;
+        if (word >= set.length) {
+            return -1;
+        }
+        long bits = set[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == set.length) {
+                return -1;
+            }
+            bits = set[word];
+        }
+    }
+
+    public static boolean isEmpty(long[] set) {
+        for (long word : set) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
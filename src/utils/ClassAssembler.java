@@ -0,0 +1,549 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Assembles a class with a public no-argument constructor and one public method, the
+// implementation of a single-method interface. Just enough of the class file format
+// for parsers compiled from tables:
+//   - every label is a branch target with the same frame: all locals set, operand
+//     stack empty. Code must initialize each local before its first label and may
+//     leave nothing on the operand stack across a jump
+//   - unconditional jumps and switches use 32-bit offsets; conditional branches are
+//     16-bit and meant for short local jumps
+// The method may not exceed 8000 bytes of code. The JVM allows 64 KB, but HotSpot never
+// JIT-compiles a method over 8000 bytes (DontCompileHugeMethods), and interpreted,
+// such a state machine is slower than the table interpreter it replaces.
+// toByteArray() reports a larger method with an IllegalStateException so callers can
+// fall back to interpreting their tables.
+public class ClassAssembler {
+    public static final int IALOAD = 0x2E;
+    public static final int IASTORE = 0x4F;
+    public static final int IMUL = 0x68;
+    public static final int IFLE = 0x9E;
+    public static final int IF_ICMPEQ = 0x9F;
+    public static final int IF_ICMPNE = 0xA0;
+    public static final int IF_ICMPLT = 0xA1;
+    public static final int IF_ICMPGE = 0xA2;
+    public static final int IRETURN = 0xAC;
+    public static final int ARRAYLENGTH = 0xBE;
+
+    private static final int MAX_CODE_LENGTH = 8000;
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final String className;
+    private final String interfaceName;
+    private final String methodName;
+    private final String methodDescriptor;
+    private final String[] frameLocals;
+    private final int maxStack;
+
+    private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantBytes);
+    private final Map<String, Integer> constantIndex = new HashMap<>();
+    private int constantCount = 1;
+
+    private byte[] code = new byte[1024];
+    private int codeLength;
+    private final List<Label> labels = new ArrayList<>();
+    private final List<int[]> fixups = new ArrayList<>(); // {field position, instruction address, label, size}
+
+    // A position in the code, defined by mark()
+    public static final class Label {
+        private final int id;
+        private int offset = -1;
+
+        private Label(int id) {
+            this.id = id;
+        }
+    }
+
+    // frameLocals are the descriptors of the method's locals after "this" ("I", "[I", ...),
+    // parameters first. The class name gets a unique suffix so that repeated compilations
+    // never clash, and must be in the package of the lookup passed to define().
+    public ClassAssembler(String className, String interfaceName, String methodName,
+                          String methodDescriptor, int maxStack, String... frameLocals) {
+        this.className = className + "$" + classCount.incrementAndGet();
+        this.interfaceName = interfaceName;
+        this.methodName = methodName;
+        this.methodDescriptor = methodDescriptor;
+        this.maxStack = maxStack;
+        this.frameLocals = frameLocals;
+    }
+
+    public Label newLabel() {
+        Label label = new Label(labels.size());
+        labels.add(label);
+        return label;
+    }
+
+    public void mark(Label label) {
+        if (label.offset >= 0) {
+            throw new IllegalStateException("Label marked twice");
+        }
+        label.offset = codeLength;
+    }
+
+    public void op(int opcode) {
+        emit(opcode);
+    }
+
+    public void loadInt(int local) {
+        localOp(0x15, 0x1A, local);
+    }
+
+    public void storeInt(int local) {
+        localOp(0x36, 0x3B, local);
+    }
+
+    public void loadReference(int local) {
+        localOp(0x19, 0x2A, local);
+    }
+
+    public void storeReference(int local) {
+        localOp(0x3A, 0x4B, local);
+    }
+
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(0x03 + value);
+        } else if (value == (byte) value) {
+            emit(0x10);
+            emit(value);
+        } else if (value == (short) value) {
+            emit(0x11);
+            emit16(value);
+        } else {
+            emit(0x13);
+            emit16(constant("I" + value, 3, out -> out.writeInt(value)));
+        }
+    }
+
+    public void increment(int local, int delta) {
+        if (local < 256 && delta == (byte) delta) {
+            emit(0x84);
+            emit(local);
+            emit(delta);
+        } else {
+            emit(0xC4);
+            emit(0x84);
+            emit16(local);
+            emit16(delta);
+        }
+    }
+
+    public void newIntArray() {
+        emit(0xBC);
+        emit(10);
+    }
+
+    public void invokeStatic(String owner, String name, String descriptor) {
+        emit(0xB8);
+        emit16(methodRef(owner, name, descriptor));
+    }
+
+    public void jump(Label target) {
+        int address = codeLength;
+        emit(0xC8);
+        fixup(address, target, 4);
+    }
+
+    // A conditional branch (IFLE, IF_ICMPxx) to a label within 32 KB
+    public void branch(int opcode, Label target) {
+        int address = codeLength;
+        emit(opcode);
+        fixup(address, target, 2);
+    }
+
+    // Switches on the int on top of the stack, using whichever of tableswitch and
+    // lookupswitch is smaller. keys must be ascending.
+    public void switchOn(int[] keys, Label[] targets, Label defaultTarget) {
+        if (keys.length == 0) {
+            emit(0x57); // pop
+            jump(defaultTarget);
+            return;
+        }
+
+        // HotSpot counts loop iterations, and so decides when to compile a running
+        // method, on backward gotos and conditional branches but not on switches. A
+        // backward switch target therefore goes through a goto placed after the switch.
+        Map<Label, Label> stubs = new LinkedHashMap<>();
+        Label[] switchTargets = targets.clone();
+        for (int k = 0; k < targets.length; k++) {
+            if (targets[k].offset >= 0) {
+                switchTargets[k] = stubs.computeIfAbsent(targets[k], target -> newLabel());
+            }
+        }
+        if (defaultTarget.offset >= 0) {
+            defaultTarget = stubs.computeIfAbsent(defaultTarget, target -> newLabel());
+        }
+
+        long range = (long) keys[keys.length - 1] - keys[0] + 1;
+        if (range <= 2L * keys.length + 2) {
+            tableSwitch(keys, switchTargets, defaultTarget);
+        } else {
+            lookupSwitch(keys, switchTargets, defaultTarget);
+        }
+        for (Map.Entry<Label, Label> stub : stubs.entrySet()) {
+            mark(stub.getValue());
+            jump(stub.getKey());
+        }
+    }
+
+    private void tableSwitch(int[] keys, Label[] targets, Label defaultTarget) {
+        int address = codeLength;
+        emit(0xAA);
+        align();
+        fixup(address, defaultTarget, 4);
+        int low = keys[0];
+        int high = keys[keys.length - 1];
+        emit32(low);
+        emit32(high);
+        int k = 0;
+        for (int key = low; key <= high; key++) {
+            fixup(address, key == keys[k] ? targets[k++] : defaultTarget, 4);
+        }
+    }
+
+    private void lookupSwitch(int[] keys, Label[] targets, Label defaultTarget) {
+        int address = codeLength;
+        emit(0xAB);
+        align();
+        fixup(address, defaultTarget, 4);
+        emit32(keys.length);
+        for (int k = 0; k < keys.length; k++) {
+            emit32(keys[k]);
+            fixup(address, targets[k], 4);
+        }
+    }
+
+    // top++, growing the int[] in stackLocal when it is full, then stack[top] = value
+    public void pushOnStack(int stackLocal, int topLocal, int value) {
+        Label store = newLabel();
+        increment(topLocal, 1);
+        loadInt(topLocal);
+        loadReference(stackLocal);
+        emit(ARRAYLENGTH);
+        branch(IF_ICMPLT, store);
+        loadReference(stackLocal);
+        loadInt(topLocal);
+        pushInt(2);
+        emit(IMUL);
+        invokeStatic("java/util/Arrays", "copyOf", "([II)[I");
+        storeReference(stackLocal);
+        mark(store);
+        loadReference(stackLocal);
+        loadInt(topLocal);
+        pushInt(value);
+        emit(IASTORE);
+    }
+
+    // position++; token = position < length ? tokens[position] : endMarker
+    public void readNextToken(int tokensLocal, int lengthLocal, int positionLocal, int tokenLocal, int endMarker) {
+        Label read = newLabel();
+        increment(positionLocal, 1);
+        pushInt(endMarker);
+        storeInt(tokenLocal);
+        loadInt(positionLocal);
+        loadInt(lengthLocal);
+        branch(IF_ICMPGE, read);
+        loadReference(tokensLocal);
+        loadInt(positionLocal);
+        emit(IALOAD);
+        storeInt(tokenLocal);
+        mark(read);
+    }
+
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public byte[] toByteArray() {
+        if (codeLength > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("Method too large: " + codeLength + " bytes of code");
+        }
+        for (int[] fixup : fixups) {
+            Label label = labels.get(fixup[2]);
+            if (label.offset < 0) {
+                throw new IllegalStateException("Jump to an unmarked label");
+            }
+            int delta = label.offset - fixup[1];
+            if (fixup[3] == 2) {
+                if (delta != (short) delta) {
+                    throw new IllegalStateException("Branch out of range");
+                }
+                code[fixup[0]] = (byte) (delta >> 8);
+                code[fixup[0] + 1] = (byte) delta;
+            } else {
+                putInt(code, fixup[0], delta);
+            }
+        }
+
+        try {
+            int thisClass = classRef(className);
+            int superClass = classRef("java/lang/Object");
+            int iface = classRef(interfaceName);
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int voidDescriptor = utf8("()V");
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int name = utf8(methodName);
+            int descriptor = utf8(methodDescriptor);
+            byte[] frames = stackMapTable(thisClass);
+            int framesName = frames == null ? 0 : utf8("StackMapTable");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(codeLength + 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(constantCount);
+            constants.flush();
+            constantBytes.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public <init>() { super(); }
+            out.writeShort(0x0001);
+            out.writeShort(initName);
+            out.writeShort(voidDescriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + 5);
+            out.writeShort(1);
+            out.writeShort(1);
+            out.writeInt(5);
+            out.writeByte(0x2A);
+            out.writeByte(0xB7);
+            out.writeShort(objectInit);
+            out.writeByte(0xB1);
+            out.writeShort(0);
+            out.writeShort(0);
+
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            int framesLength = frames == null ? 0 : 6 + frames.length;
+            out.writeInt(12 + codeLength + framesLength);
+            out.writeShort(maxStack);
+            out.writeShort(1 + frameLocals.length);
+            out.writeInt(codeLength);
+            out.write(code, 0, codeLength);
+            out.writeShort(0); // exception table
+            if (frames == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(framesName);
+                out.writeInt(frames.length);
+                out.write(frames);
+            }
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in-memory streams
+        }
+    }
+
+    // One frame per distinct label offset: a full frame first, then same_frame entries
+    private byte[] stackMapTable(int thisClass) throws IOException {
+        int[] offsets = new int[labels.size()];
+        int count = 0;
+        for (Label label : labels) {
+            if (label.offset >= 0) {
+                offsets[count++] = label.offset;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        Arrays.sort(offsets, 0, count);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int frameCount = 0;
+        int previous = -1;
+        out.writeShort(0); // patched below
+        for (int i = 0; i < count; i++) {
+            int offset = offsets[i];
+            if (offset == previous) {
+                continue;
+            }
+            int delta = previous < 0 ? offset : offset - previous - 1;
+            if (previous < 0) {
+                out.writeByte(255);
+                out.writeShort(delta);
+                out.writeShort(1 + frameLocals.length);
+                out.writeByte(7);
+                out.writeShort(thisClass);
+                for (String local : frameLocals) {
+                    if (local.equals("I")) {
+                        out.writeByte(1);
+                    } else {
+                        out.writeByte(7);
+                        out.writeShort(classRef(local));
+                    }
+                }
+                out.writeShort(0);
+            } else if (delta < 64) {
+                out.writeByte(delta);
+            } else {
+                out.writeByte(251);
+                out.writeShort(delta);
+            }
+            previous = offset;
+            frameCount++;
+        }
+        byte[] result = bytes.toByteArray();
+        result[0] = (byte) (frameCount >> 8);
+        result[1] = (byte) frameCount;
+        return result;
+    }
+
+    // Defines the assembled class in the lookup's package and returns a new instance.
+    // Hidden classes (Java 15 and later) can be unloaded once unreachable; older
+    // runtimes get an ordinary class in the lookup's class loader. A class the JVM
+    // rejects is reported as an IllegalStateException, like a method that is too large.
+    public <T> T define(MethodHandles.Lookup lookup, Class<T> type) {
+        byte[] bytes = toByteArray();
+        try {
+            MethodHandles.Lookup classLookup;
+            Method defineHidden = defineHiddenClassMethod();
+            if (defineHidden != null) {
+                Object options = Array.newInstance(defineHidden.getParameterTypes()[2].getComponentType(), 0);
+                classLookup = (MethodHandles.Lookup) defineHidden.invoke(lookup, bytes, true, options);
+            } else {
+                classLookup = lookup.in(lookup.defineClass(bytes));
+            }
+            Object instance = classLookup.findConstructor(classLookup.lookupClass(), MethodType.methodType(void.class))
+                                         .invoke();
+            return type.cast(instance);
+        } catch (LinkageError e) {
+            throw new IllegalStateException("Cannot define " + className, e);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define " + className, e);
+        }
+    }
+
+    private static Method defineHiddenClassMethod() {
+        try {
+            Class<?> options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                                                        Array.newInstance(options, 0).getClass());
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void localOp(int opcode, int shortOpcode, int local) {
+        if (local < 4) {
+            emit(shortOpcode + local);
+        } else if (local < 256) {
+            emit(opcode);
+            emit(local);
+        } else {
+            emit(0xC4);
+            emit(opcode);
+            emit16(local);
+        }
+    }
+
+    private void fixup(int address, Label target, int size) {
+        fixups.add(new int[] { codeLength, address, target.id, size });
+        for (int i = 0; i < size; i++) {
+            emit(0);
+        }
+    }
+
+    private void align() {
+        while (codeLength % 4 != 0) {
+            emit(0);
+        }
+    }
+
+    private void emit(int value) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[codeLength++] = (byte) value;
+    }
+
+    private void emit16(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private void emit32(int value) {
+        emit16(value >> 16);
+        emit16(value);
+    }
+
+    private static void putInt(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) (value >> 24);
+        bytes[position + 1] = (byte) (value >> 16);
+        bytes[position + 2] = (byte) (value >> 8);
+        bytes[position + 3] = (byte) value;
+    }
+
+    private interface ConstantWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, ConstantWriter writer) {
+        Integer index = constantIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            constants.writeByte(tag);
+            writer.write(constants);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        constantIndex.put(key, constantCount);
+        return constantCount++;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 7, out -> out.writeShort(name));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + ":" + descriptor, 10, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+}
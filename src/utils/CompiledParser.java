@@ -0,0 +1,9 @@
+package utils;
+
+// A parser compiled to bytecode for one grammar. Implementations keep no state
+// between calls, so one instance can be shared between threads.
+public interface CompiledParser {
+    // Parses a sequence of terminal ids (all of which must belong to the grammar).
+    // The end marker is implied after the last token.
+    boolean parse(int[] tokens, int length);
+}
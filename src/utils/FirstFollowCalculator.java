@@ -0,0 +1,72 @@
+package utils;
+
+import java.util.*;
+
+// Symbol-level view of the grammar's shared analysis. FIRST sets include ε when the
+// symbol or sequence derives the empty string. Both the LL and LR table builders use it.
+public class FirstFollowCalculator {
+    private final Grammar grammar;
+    private final GrammarAnalysis analysis;
+    private final Symbol EPSILON = new Symbol("ε", true);
+
+    public FirstFollowCalculator(Grammar grammar) {
+        this.grammar = grammar;
+        this.analysis = grammar.getAnalysis();
+    }
+
+    public GrammarAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    public Set<Symbol> getFirst(Symbol symbol) {
+        Set<Symbol> result = new HashSet<>();
+        if (symbol.isTerminal()) {
+            result.add(symbol);
+            return result;
+        }
+        int nonTerminalId = nonTerminalId(symbol);
+        result.addAll(analysis.toTerminalSet(analysis.getFirstSet(nonTerminalId)));
+        if (analysis.isNullable(nonTerminalId)) {
+            result.add(EPSILON);
+        }
+        return result;
+    }
+
+    public Set<Symbol> getFollow(Symbol nonTerminal) {
+        return new HashSet<>(analysis.toTerminalSet(analysis.getFollowSet(nonTerminalId(nonTerminal))));
+    }
+
+    public Set<Symbol> getFirst(List<Symbol> sequence) {
+        long[] first = BitSets.create(grammar.getTerminalCount() + 1);
+        Set<Symbol> result = new HashSet<>();
+        for (Symbol symbol : sequence) {
+            if (symbol.isTerminal()) {
+                result.add(symbol);
+                result.addAll(analysis.toTerminalSet(first));
+                return result;
+            }
+            int nonTerminalId = nonTerminalId(symbol);
+            analysis.addFirstSet(nonTerminalId, first);
+            if (!analysis.isNullable(nonTerminalId)) {
+                result.addAll(analysis.toTerminalSet(first));
+                return result;
+            }
+        }
+        result.addAll(analysis.toTerminalSet(first));
+        result.add(EPSILON);
+        return result;
+    }
+
+    // FOLLOW of a non-terminal as a bitset over terminal ids
+    public long[] getFollowSet(int nonTerminalId) {
+        return analysis.getFollowSet(nonTerminalId);
+    }
+
+    private int nonTerminalId(Symbol symbol) {
+        int nonTerminalId = grammar.getNonTerminalId(symbol);
+        if (nonTerminalId < 0) {
+            throw new IllegalArgumentException("Symbol " + symbol + " is not a non-terminal");
+        }
+        return nonTerminalId;
+    }
+}
\ No newline at end of file
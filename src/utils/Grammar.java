@@ -1,41 +1,196 @@
 package utils;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class Grammar {
-    private final Set<Symbol> terminals;
-    private final Set<Symbol> nonTerminals;
+    public static final String END_MARKER = "$";
+    // Terminal of yacc-style error productions, which stands for the input an LR parser
+    // skips while recovering from a syntax error; no lexer produces it
+    public static final String ERROR_TERMINAL = "error";
+
+    // Interned symbols, indexed by their id. Terminal ids run 0..terminalCount-1 and
+    // the end marker takes id terminalCount; non-terminals have their own id space.
+    private final Symbol[] terminals;
+    private final Symbol[] nonTerminals;
+    private final Map<Symbol, Symbol> internedSymbols;
     private final List<Production> productions;
     private final Symbol startSymbol;
+    private final Symbol endMarker;
+    private final int[][] productionsByLeftSide;
+    // For each non-terminal A, the productions of every non-terminal B with A =>* B...
+    // by leftmost non-terminals only (A included), as a bitset over production indices
+    private final long[][] startsWithClosures;
+    private final GrammarAnalysis analysis;
+    private final List<TokenDefinition> tokenDefinitions;
 
-    public Grammar(Set<Symbol> terminals, Set<Symbol> nonTerminals, 
+    public Grammar(Set<Symbol> terminals, Set<Symbol> nonTerminals,
                   List<Production> productions, Symbol startSymbol) {
-        this.terminals = new HashSet<>(terminals);
-        this.nonTerminals = new HashSet<>(nonTerminals);
-        this.productions = new ArrayList<>(productions);
-        this.startSymbol = startSymbol;
-        
-        validateGrammar();
+        this(terminals, nonTerminals, productions, startSymbol, Collections.emptyList());
+    }
+
+    // A grammar with lexical definitions for some of its terminals (see LexerGenerator)
+    public Grammar(Set<Symbol> terminals, Set<Symbol> nonTerminals,
+                  List<Production> productions, Symbol startSymbol, List<TokenDefinition> tokenDefinitions) {
+        this.internedSymbols = new HashMap<>();
+        this.terminals = new Symbol[terminals.size() + 1];
+        this.nonTerminals = new Symbol[nonTerminals.size()];
+
+        // Ids follow the iteration order of the given sets
+        int id = 0;
+        for (Symbol terminal : terminals) {
+            this.terminals[id] = intern(terminal.getName(), true, id);
+            id++;
+        }
+        this.endMarker = new Symbol(END_MARKER, true, id);
+        this.terminals[id] = endMarker;
+
+        id = 0;
+        for (Symbol nonTerminal : nonTerminals) {
+            this.nonTerminals[id] = intern(nonTerminal.getName(), false, id);
+            id++;
+        }
+
+        this.startSymbol = internedSymbols.getOrDefault(startSymbol, startSymbol);
+        this.productions = new ArrayList<>(productions.size());
+
+        validateGrammar(productions);
+
+        for (Production prod : productions) {
+            List<Symbol> rightSide = new ArrayList<>(prod.getRightSideLength());
+            for (Symbol symbol : prod.getRightSide()) {
+                rightSide.add(internedSymbols.get(symbol));
+            }
+            this.productions.add(new Production(internedSymbols.get(prod.getLeftSide()),
+                                                rightSide, this.productions.size()));
+        }
+
+        this.productionsByLeftSide = indexProductionsByLeftSide();
+        this.startsWithClosures = new StartsWithClosure().compute();
+        this.analysis = new GrammarAnalysis(this);
+        this.tokenDefinitions = Collections.unmodifiableList(new ArrayList<>(tokenDefinitions));
+    }
+
+    private int[][] indexProductionsByLeftSide() {
+        int[] counts = new int[nonTerminals.length];
+        for (Production prod : productions) {
+            counts[prod.getLeftSide().getId()]++;
+        }
+        int[][] result = new int[nonTerminals.length][];
+        for (int n = 0; n < nonTerminals.length; n++) {
+            result[n] = new int[counts[n]];
+            counts[n] = 0;
+        }
+        for (Production prod : productions) {
+            int left = prod.getLeftSide().getId();
+            result[left][counts[left]++] = prod.getIndex();
+        }
+        return result;
     }
 
-    private void validateGrammar() {
+    // Computes the starts-with closures in one pass over the "A has a production starting
+    // with B" graph. Tarjan's algorithm yields strongly connected components with their
+    // successors first, so each component's set is its own productions plus the already
+    // finished sets of its successors, shared by all of its members.
+    private class StartsWithClosure {
+        private final long[][] closures = new long[nonTerminals.length][];
+        private final int[] order = new int[nonTerminals.length];
+        private final int[] lowLink = new int[nonTerminals.length];
+        private final boolean[] onStack = new boolean[nonTerminals.length];
+        private final int[] stack = new int[nonTerminals.length];
+        private int stackSize;
+        private int counter;
+
+        long[][] compute() {
+            for (int n = 0; n < nonTerminals.length; n++) {
+                if (order[n] == 0) {
+                    visit(n);
+                }
+            }
+            return closures;
+        }
+
+        private void visit(int n) {
+            order[n] = lowLink[n] = ++counter;
+            stack[stackSize++] = n;
+            onStack[n] = true;
+
+            for (int prodIndex : productionsByLeftSide[n]) {
+                int successor = leadingNonTerminal(prodIndex);
+                if (successor < 0) {
+                    continue;
+                }
+                if (order[successor] == 0) {
+                    visit(successor);
+                    lowLink[n] = Math.min(lowLink[n], lowLink[successor]);
+                } else if (onStack[successor]) {
+                    lowLink[n] = Math.min(lowLink[n], order[successor]);
+                }
+            }
+
+            if (lowLink[n] != order[n]) {
+                return;
+            }
+
+            // n is the root of a component: pop its members and build the shared set
+            long[] closure = BitSets.create(productions.size());
+            int first = stackSize;
+            do {
+                first--;
+                onStack[stack[first]] = false;
+            } while (stack[first] != n);
+
+            for (int i = first; i < stackSize; i++) {
+                for (int prodIndex : productionsByLeftSide[stack[i]]) {
+                    BitSets.set(closure, prodIndex);
+                    int successor = leadingNonTerminal(prodIndex);
+                    if (successor >= 0 && closures[successor] != null) {
+                        BitSets.or(closure, closures[successor]);
+                    }
+                }
+            }
+            for (int i = first; i < stackSize; i++) {
+                closures[stack[i]] = closure;
+            }
+            stackSize = first;
+        }
+
+        private int leadingNonTerminal(int prodIndex) {
+            Production prod = productions.get(prodIndex);
+            if (prod.getRightSideLength() == 0 || prod.getRightSideSymbol(0).isTerminal()) {
+                return -1;
+            }
+            return prod.getRightSideSymbol(0).getId();
+        }
+    }
+
+    private Symbol intern(String name, boolean isTerminal, int id) {
+        Symbol symbol = new Symbol(name, isTerminal, id);
+        internedSymbols.put(symbol, symbol);
+        return symbol;
+    }
+
+    private void validateGrammar(List<Production> productions) {
         // Check if start symbol is a non-terminal
-        if (!nonTerminals.contains(startSymbol)) {
+        if (startSymbol.isTerminal() || !internedSymbols.containsKey(startSymbol)) {
             throw new IllegalArgumentException("Start symbol must be a non-terminal");
         }
 
         // Check if all symbols in productions are defined
         for (Production prod : productions) {
-            if (!nonTerminals.contains(prod.getLeftSide())) {
+            Symbol leftSide = prod.getLeftSide();
+            if (leftSide.isTerminal() || !internedSymbols.containsKey(leftSide)) {
                 throw new IllegalArgumentException(
                     "Left side of production must be a non-terminal: " + prod.getLeftSide());
             }
 
             for (Symbol symbol : prod.getRightSide()) {
-                if (!terminals.contains(symbol) && !nonTerminals.contains(symbol)) {
+                if (!internedSymbols.containsKey(symbol)) {
                     throw new IllegalArgumentException(
                         "Undefined symbol in production: " + symbol);
                 }
@@ -44,11 +199,19 @@ public class Grammar {
     }
 
     public Set<Symbol> getTerminals() {
-        return new HashSet<>(terminals);
+        Set<Symbol> result = new LinkedHashSet<>();
+        for (int i = 0; i < terminals.length - 1; i++) {
+            result.add(terminals[i]);
+        }
+        return result;
     }
 
     public Set<Symbol> getNonTerminals() {
-        return new HashSet<>(nonTerminals);
+        Set<Symbol> result = new LinkedHashSet<>();
+        for (Symbol nonTerminal : nonTerminals) {
+            result.add(nonTerminal);
+        }
+        return result;
     }
 
     public List<Production> getProductions() {
@@ -57,15 +220,94 @@ public class Grammar {
 
     public List<Production> getProductionsFor(Symbol nonTerminal) {
         List<Production> result = new ArrayList<>();
-        for (Production prod : productions) {
-            if (prod.getLeftSide().equals(nonTerminal)) {
-                result.add(prod);
+        int nonTerminalId = getNonTerminalId(nonTerminal);
+        if (nonTerminalId >= 0) {
+            for (int prodIndex : productionsByLeftSide[nonTerminalId]) {
+                result.add(productions.get(prodIndex));
             }
         }
         return result;
     }
 
+    // Adds the starts-with closure of a non-terminal to a bitset over production indices
+    // (which must have room for getProductionCount() bits). This is the set of
+    // productions whose dot-0 items an LR closure adds for that non-terminal after a dot.
+    public boolean addStartsWithClosure(int nonTerminalId, long[] productionSet) {
+        return BitSets.or(productionSet, startsWithClosures[nonTerminalId]);
+    }
+
+    // Nullable, FIRST and FOLLOW, computed once per grammar
+    public GrammarAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    // The %token and %skip definitions of the grammar file, in file order
+    public List<TokenDefinition> getTokenDefinitions() {
+        return tokenDefinitions;
+    }
+
     public Symbol getStartSymbol() {
         return startSymbol;
     }
+
+    public Symbol getEndMarker() {
+        return endMarker;
+    }
+
+    public int getEndMarkerId() {
+        return endMarker.getId();
+    }
+
+    // Id of the error terminal, or -1 if no production uses one
+    public int getErrorTerminalId() {
+        return getTerminalId(new Symbol(ERROR_TERMINAL, true));
+    }
+
+    // Number of grammar terminals, not counting the end marker
+    public int getTerminalCount() {
+        return terminals.length - 1;
+    }
+
+    public int getNonTerminalCount() {
+        return nonTerminals.length;
+    }
+
+    public int getProductionCount() {
+        return productions.size();
+    }
+
+    public Symbol getTerminal(int id) {
+        return terminals[id];
+    }
+
+    public Symbol getNonTerminal(int id) {
+        return nonTerminals[id];
+    }
+
+    public Production getProduction(int index) {
+        return productions.get(index);
+    }
+
+    // Returns the id of a terminal (or the end marker), or -1 if it is not part of this grammar
+    public int getTerminalId(Symbol symbol) {
+        int id = symbol.getId();
+        if (id >= 0 && id < terminals.length && terminals[id] == symbol) {
+            return id;
+        }
+        if (symbol.isTerminal() && symbol.getName().equals(END_MARKER)) {
+            return endMarker.getId();
+        }
+        Symbol interned = internedSymbols.get(symbol);
+        return interned != null && interned.isTerminal() ? interned.getId() : -1;
+    }
+
+    // Returns the id of a non-terminal, or -1 if it is not part of this grammar
+    public int getNonTerminalId(Symbol symbol) {
+        int id = symbol.getId();
+        if (id >= 0 && id < nonTerminals.length && nonTerminals[id] == symbol) {
+            return id;
+        }
+        Symbol interned = internedSymbols.get(symbol);
+        return interned != null && !interned.isTerminal() ? interned.getId() : -1;
+    }
 }
@@ -0,0 +1,281 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Nullable, FIRST and FOLLOW for a grammar, shared by the LL and LR table builders.
+// FIRST and FOLLOW are bitsets over terminal ids (the end marker included), computed
+// without repeated passes over the grammar:
+//   nullable   a worklist that counts the non-nullable symbols left in each production
+//   FIRST(A)   terminals leading A's productions, plus FIRST(B) for every B in a nullable
+//              prefix, closed over the "A starts with B" relation
+//   FOLLOW(B)  FIRST of what follows B in each production, plus FOLLOW(A) whenever that
+//              rest is nullable, closed over the "B is followed by FOLLOW(A)" relation
+// Both closures are taken once per strongly connected component by Relation.propagate.
+// FIRST of every production suffix is then tabulated once, so table builders look
+// suffixes up instead of walking right sides.
+public class GrammarAnalysis {
+    private final Grammar grammar;
+    private final int terminalColumns;
+    private final boolean[] nullable;
+    private final long[][] firstSets;
+    private final long[][] followSets;
+
+    // Suffix (p, i) of production p's right side has id suffixOffsets[p] + i. Its FIRST
+    // set is the words of suffixSets starting at suffixSetStarts[id]; equal sets are
+    // stored once. The sign bit of suffixSetStarts marks a suffix that derives ε.
+    private final int words;
+    private int[] suffixOffsets;
+    private int[] suffixSetStarts;
+    private long[] suffixSets;
+    private int suffixSetCount;
+
+    public GrammarAnalysis(Grammar grammar) {
+        this.grammar = grammar;
+        this.terminalColumns = grammar.getTerminalCount() + 1;
+        this.nullable = computeNullable();
+        this.firstSets = computeFirstSets();
+        this.words = BitSets.create(terminalColumns).length;
+        computeSuffixSets();
+        this.followSets = computeFollowSets();
+    }
+
+    private boolean[] computeNullable() {
+        int nonTerminalCount = grammar.getNonTerminalCount();
+        int productionCount = grammar.getProductionCount();
+        boolean[] result = new boolean[nonTerminalCount];
+
+        // remaining[p] counts the right side symbols of p not yet known to be nullable;
+        // a production with a terminal can never reach zero
+        int[] remaining = new int[productionCount];
+        Relation occurrences = new Relation(nonTerminalCount);
+        int[] worklist = new int[nonTerminalCount];
+        int worklistSize = 0;
+
+        for (int p = 0; p < productionCount; p++) {
+            Production prod = grammar.getProduction(p);
+            remaining[p] = prod.getRightSideLength();
+            for (int i = 0; i < prod.getRightSideLength(); i++) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                if (symbol.isTerminal()) {
+                    remaining[p] = -1;
+                    break;
+                }
+                occurrences.add(symbol.getId(), p);
+            }
+            int left = prod.getLeftSide().getId();
+            if (remaining[p] == 0 && !result[left]) {
+                result[left] = true;
+                worklist[worklistSize++] = left;
+            }
+        }
+
+        while (worklistSize > 0) {
+            int n = worklist[--worklistSize];
+            for (int e = 0; e < occurrences.getSize(n); e++) {
+                int p = occurrences.getTarget(n, e);
+                if (remaining[p] > 0 && --remaining[p] == 0) {
+                    int left = grammar.getProduction(p).getLeftSide().getId();
+                    if (!result[left]) {
+                        result[left] = true;
+                        worklist[worklistSize++] = left;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private long[][] computeFirstSets() {
+        int nonTerminalCount = grammar.getNonTerminalCount();
+        long[][] sets = new long[nonTerminalCount][];
+        for (int n = 0; n < nonTerminalCount; n++) {
+            sets[n] = BitSets.create(terminalColumns);
+        }
+
+        Relation startsWith = new Relation(nonTerminalCount);
+        for (Production prod : grammar.getProductions()) {
+            int left = prod.getLeftSide().getId();
+            for (int i = 0; i < prod.getRightSideLength(); i++) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                if (symbol.isTerminal()) {
+                    BitSets.set(sets[left], symbol.getId());
+                    break;
+                }
+                startsWith.add(left, symbol.getId());
+                if (!nullable[symbol.getId()]) {
+                    break;
+                }
+            }
+        }
+        startsWith.propagate(sets);
+        return sets;
+    }
+
+    private long[][] computeFollowSets() {
+        int nonTerminalCount = grammar.getNonTerminalCount();
+        long[][] sets = new long[nonTerminalCount][];
+        for (int n = 0; n < nonTerminalCount; n++) {
+            sets[n] = BitSets.create(terminalColumns);
+        }
+        BitSets.set(sets[grammar.getStartSymbol().getId()], grammar.getEndMarkerId());
+
+        Relation followedBy = new Relation(nonTerminalCount);
+        for (Production prod : grammar.getProductions()) {
+            int left = prod.getLeftSide().getId();
+            for (int i = 0; i < prod.getRightSideLength(); i++) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                if (symbol.isTerminal()) {
+                    continue;
+                }
+                if (addFirstOfSuffix(prod.getIndex(), i + 1, sets[symbol.getId()])) {
+                    followedBy.add(symbol.getId(), left);
+                }
+            }
+        }
+        followedBy.propagate(sets);
+        return sets;
+    }
+
+    private void computeSuffixSets() {
+        int productionCount = grammar.getProductionCount();
+        suffixOffsets = new int[productionCount + 1];
+        for (int p = 0; p < productionCount; p++) {
+            suffixOffsets[p + 1] = suffixOffsets[p] + grammar.getProduction(p).getRightSideLength() + 1;
+        }
+        suffixSetStarts = new int[suffixOffsets[productionCount]];
+        suffixSets = new long[words * 16];
+        Map<SetKey, Integer> pool = new HashMap<>();
+
+        // Each suffix extends the next shorter one, so fill right to left
+        long[] set = BitSets.create(terminalColumns);
+        for (int p = 0; p < productionCount; p++) {
+            Production prod = grammar.getProduction(p);
+            Arrays.fill(set, 0L);
+            boolean derivesEpsilon = true;
+            int length = prod.getRightSideLength();
+            suffixSetStarts[suffixOffsets[p] + length] = intern(set, pool) | Integer.MIN_VALUE;
+            for (int i = length - 1; i >= 0; i--) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                if (symbol.isTerminal()) {
+                    Arrays.fill(set, 0L);
+                    BitSets.set(set, symbol.getId());
+                    derivesEpsilon = false;
+                } else {
+                    if (!nullable[symbol.getId()]) {
+                        Arrays.fill(set, 0L);
+                        derivesEpsilon = false;
+                    }
+                    BitSets.or(set, firstSets[symbol.getId()]);
+                }
+                int start = intern(set, pool);
+                suffixSetStarts[suffixOffsets[p] + i] = derivesEpsilon ? start | Integer.MIN_VALUE : start;
+            }
+        }
+    }
+
+    private int intern(long[] set, Map<SetKey, Integer> pool) {
+        Integer existing = pool.get(new SetKey(set, 0, words));
+        if (existing != null) {
+            return existing;
+        }
+        int start = suffixSetCount * words;
+        if (start + words > suffixSets.length) {
+            suffixSets = Arrays.copyOf(suffixSets, Math.max(suffixSets.length * 2, start + words));
+        }
+        System.arraycopy(set, 0, suffixSets, start, words);
+        suffixSetCount++;
+        pool.put(new SetKey(suffixSets, start, words), start);
+        return start;
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public boolean isNullable(int nonTerminalId) {
+        return nullable[nonTerminalId];
+    }
+
+    // FIRST of a non-terminal as a bitset over terminal ids, without ε
+    public long[] getFirstSet(int nonTerminalId) {
+        return firstSets[nonTerminalId].clone();
+    }
+
+    // FOLLOW of a non-terminal as a bitset over terminal ids, the end marker included
+    public long[] getFollowSet(int nonTerminalId) {
+        return followSets[nonTerminalId].clone();
+    }
+
+    public boolean addFirstSet(int nonTerminalId, long[] target) {
+        return BitSets.or(target, firstSets[nonTerminalId]);
+    }
+
+    public boolean addFollowSet(int nonTerminalId, long[] target) {
+        return BitSets.or(target, followSets[nonTerminalId]);
+    }
+
+    // Adds FIRST of a production's right side from a position onwards to target and
+    // reports whether that suffix derives ε
+    public boolean addFirstOfSuffix(int prodIndex, int from, long[] target) {
+        int entry = suffixSetStarts[suffixOffsets[prodIndex] + from];
+        int start = entry & Integer.MAX_VALUE;
+        for (int w = 0; w < words; w++) {
+            target[w] |= suffixSets[start + w];
+        }
+        return entry < 0;
+    }
+
+    // Whether a production's right side from a position onwards derives ε
+    public boolean isNullableSuffix(int prodIndex, int from) {
+        return suffixSetStarts[suffixOffsets[prodIndex] + from] < 0;
+    }
+
+    // Number of distinct FIRST sets among all production suffixes
+    public int getSuffixSetCount() {
+        return suffixSetCount;
+    }
+
+    // The terminals of a bitset over terminal ids, in id order
+    public Set<Symbol> toTerminalSet(long[] set) {
+        Set<Symbol> result = new LinkedHashSet<>();
+        for (int t = BitSets.nextSetBit(set, 0); t >= 0; t = BitSets.nextSetBit(set, t + 1)) {
+            result.add(grammar.getTerminal(t));
+        }
+        return result;
+    }
+
+    // A range of words in a long array, compared by content
+    private static class SetKey {
+        private final long[] words;
+        private final int start;
+        private final int length;
+        private final int hash;
+
+        public SetKey(long[] words, int start, int length) {
+            this.words = words;
+            this.start = start;
+            this.length = length;
+            int h = 1;
+            for (int i = start; i < start + length; i++) {
+                h = 31 * h + Long.hashCode(words[i]);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SetKey)) return false;
+            SetKey other = (SetKey) obj;
+            return Arrays.equals(words, start, start + length, other.words, other.start, other.start + other.length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -8,11 +8,15 @@ import java.util.*;
 public class GrammarReader {
     private static final String PRODUCTION_SEPARATOR = "->";
     private static final String ALTERNATE_SEPARATOR = "|";
+    private static final String TOKEN_DIRECTIVE = "%token";
+    private static final String SKIP_DIRECTIVE = "%skip";
 
     public static Grammar readGrammar(String filePath) throws IOException {
-        Set<Symbol> terminals = new HashSet<>();
-        Set<Symbol> nonTerminals = new HashSet<>();
+        // Insertion order determines the dense symbol ids assigned by Grammar
+        Set<Symbol> terminals = new LinkedHashSet<>();
+        Set<Symbol> nonTerminals = new LinkedHashSet<>();
         List<Production> productions = new ArrayList<>();
+        List<TokenDefinition> tokenDefinitions = new ArrayList<>();
         Symbol startSymbol = null;
 
         try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
@@ -24,6 +28,10 @@ public class GrammarReader {
                 if (line.isEmpty() || line.startsWith("//")) {
                     continue;
                 }
+                if (line.startsWith(TOKEN_DIRECTIVE + " ") || line.startsWith(SKIP_DIRECTIVE + " ")) {
+                    tokenDefinitions.add(readTokenDefinition(line));
+                    continue;
+                }
 
                 String[] parts = line.split(PRODUCTION_SEPARATOR);
                 if (parts.length != 2) {
@@ -82,6 +90,50 @@ public class GrammarReader {
             throw new IllegalArgumentException("No productions found in grammar file");
         }
 
-        return new Grammar(terminals, nonTerminals, productions, startSymbol);
+        return new Grammar(terminals, nonTerminals, productions, startSymbol, tokenDefinitions);
+    }
+
+    // %token name /regex/, %token name "literal", %skip /regex/ or %skip "literal"
+    private static TokenDefinition readTokenDefinition(String line) {
+        boolean skip = line.startsWith(SKIP_DIRECTIVE);
+        String rest = line.substring(skip ? SKIP_DIRECTIVE.length() : TOKEN_DIRECTIVE.length()).trim();
+        String name = null;
+        if (!skip) {
+            int space = rest.indexOf(' ');
+            if (space < 0) {
+                throw new IllegalArgumentException("Invalid token definition: " + line);
+            }
+            name = rest.substring(0, space);
+            rest = rest.substring(space + 1).trim();
+            if (Character.isUpperCase(name.charAt(0))) {
+                throw new IllegalArgumentException("Token names must be terminals: " + line);
+            }
+        }
+
+        if (rest.length() < 2 || (rest.charAt(0) != '/' && rest.charAt(0) != '"') ||
+            rest.charAt(rest.length() - 1) != rest.charAt(0)) {
+            throw new IllegalArgumentException("Expected /regex/ or \"literal\": " + line);
+        }
+        String body = rest.substring(1, rest.length() - 1);
+        if (rest.charAt(0) == '/') {
+            // The regex keeps its own escapes, except that \/ stands for a slash
+            return new TokenDefinition(name, body.replace("\\/", "/"), false);
+        }
+
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\' && i + 1 < body.length()) {
+                c = body.charAt(++i);
+                switch (c) {
+                    case 'n': c = '\n'; break;
+                    case 't': c = '\t'; break;
+                    case 'r': c = '\r'; break;
+                    default: break;
+                }
+            }
+            literal.append(c);
+        }
+        return new TokenDefinition(name, literal.toString(), true);
     }
 }
\ No newline at end of file
@@ -18,12 +18,12 @@ public class GrammarTest {
             
             System.out.println("\nNon-terminals:");
             for (Symbol nonTerminal : grammar.getNonTerminals()) {
-                System.out.println("- " + nonTerminal.getName());
+                System.out.println("- " + nonTerminal.getName() + " (id " + nonTerminal.getId() + ")");
             }
             
             System.out.println("\nTerminals:");
             for (Symbol terminal : grammar.getTerminals()) {
-                System.out.println("- " + terminal.getName());
+                System.out.println("- " + terminal.getName() + " (id " + terminal.getId() + ")");
             }
             
             System.out.println("\nProductions:");
@@ -66,6 +66,18 @@ public class GrammarTest {
         assert hasE : "Missing E non-terminal";
         assert hasId : "Missing id terminal";
         
+        // Ids must be dense and resolve back to the same interned symbols
+        for (Symbol s : grammar.getTerminals()) {
+            assert grammar.getTerminal(grammar.getTerminalId(s)) == s : "Bad terminal id for " + s;
+        }
+        for (Symbol s : grammar.getNonTerminals()) {
+            assert grammar.getNonTerminal(grammar.getNonTerminalId(s)) == s : "Bad non-terminal id for " + s;
+        }
+        for (int i = 0; i < grammar.getProductionCount(); i++) {
+            assert grammar.getProduction(i).getIndex() == i : "Bad production index " + i;
+        }
+        assert grammar.getEndMarkerId() == grammar.getTerminalCount() : "End marker must follow the terminals";
+        
         System.out.println("\nValidation completed successfully!");
     }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Helpers shared by the LL and LR source generators
+public final class JavaSource {
+    // Chars per string constant; at most 3 bytes each in the class file, which allows 65535
+    private static final int CHUNK_CHARS = 16000;
+
+    private JavaSource() {
+    }
+
+    // A Java identifier derived from a symbol name, made unique against used
+    public static String identifier(String name, boolean upperCase, Set<String> used) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c) && c < 128) {
+                sb.append(upperCase ? Character.toUpperCase(c) : c);
+            } else if (c == '\'') {
+                sb.append(upperCase ? "_PRIME" : "Prime");
+            } else if (punctuationName(c) != null) {
+                String word = punctuationName(c);
+                if (sb.length() > 0) {
+                    sb.append('_');
+                }
+                sb.append(upperCase ? word : word.charAt(0) + word.substring(1).toLowerCase(Locale.ROOT));
+            } else {
+                sb.append('_').append(Integer.toHexString(c).toUpperCase(Locale.ROOT));
+            }
+        }
+        if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        String base = sb.toString();
+        String result = base;
+        for (int n = 2; !used.add(result); n++) {
+            result = base + "_" + n;
+        }
+        return result;
+    }
+
+    private static String punctuationName(char c) {
+        switch (c) {
+            case '(': return "LPAREN";
+            case ')': return "RPAREN";
+            case '[': return "LBRACKET";
+            case ']': return "RBRACKET";
+            case '{': return "LBRACE";
+            case '}': return "RBRACE";
+            case '<': return "LT";
+            case '>': return "GT";
+            case '=': return "EQ";
+            case '+': return "PLUS";
+            case '-': return "MINUS";
+            case '*': return "STAR";
+            case '/': return "SLASH";
+            case '%': return "PERCENT";
+            case '!': return "BANG";
+            case '&': return "AMP";
+            case '|': return "BAR";
+            case '^': return "CARET";
+            case '~': return "TILDE";
+            case '?': return "QUESTION";
+            case ':': return "COLON";
+            case ';': return "SEMI";
+            case ',': return "COMMA";
+            case '.': return "DOT";
+            case '@': return "AT";
+            case '#': return "HASH";
+            default: return null;
+        }
+    }
+
+    public static String stringLiteral(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        appendEscaped(sb, value);
+        return sb.append('"').toString();
+    }
+
+    // Declares "static final int[] name", stored as string constants two chars per int.
+    // An array initializer would cost several bytes of <clinit> bytecode per element and
+    // overflow the 64 KB method limit for big tables. The generated class must also
+    // contain the output of appendDecoder().
+    public static void appendIntArray(StringBuilder sb, String indent, String name, int[] values) {
+        StringBuilder chars = new StringBuilder(values.length * 2);
+        for (int value : values) {
+            chars.append((char) (value >>> 16)).append((char) value);
+        }
+        sb.append(indent).append("private static final int[] ").append(name).append(" = decode(")
+          .append(values.length).append(", new String[] {\n");
+        for (int start = 0; start < chars.length(); start += CHUNK_CHARS) {
+            sb.append(indent).append("    \"");
+            appendEscaped(sb, chars.substring(start, Math.min(chars.length(), start + CHUNK_CHARS)));
+            sb.append("\",\n");
+        }
+        sb.append(indent).append("});\n");
+    }
+
+    public static void appendDecoder(StringBuilder sb, String indent) {
+        sb.append(indent).append("private static int[] decode(int length, String[] chunks) {\n")
+          .append(indent).append("    int[] values = new int[length];\n")
+          .append(indent).append("    int index = 0;\n")
+          .append(indent).append("    for (String chunk : chunks) {\n")
+          .append(indent).append("        for (int i = 0; i < chunk.length(); i += 2) {\n")
+          .append(indent).append("            values[index++] = (chunk.charAt(i) << 16) | chunk.charAt(i + 1);\n")
+          .append(indent).append("        }\n")
+          .append(indent).append("    }\n")
+          .append(indent).append("    return values;\n")
+          .append(indent).append("}\n");
+    }
+
+    // Text for a line comment, kept to ASCII so generated files compile under any
+    // source encoding. Unicode escapes are translated even inside comments, so a
+    // backslash is escaped too: a backslash, u and 000a would otherwise end the comment.
+    public static String comment(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c < 0x7F && c != '\\') {
+                sb.append(c);
+            } else {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    // Unicode escapes are translated before Java source is tokenized, so line breaks,
+    // quotes and backslashes need the ordinary escapes instead
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                default:
+                    if (c >= 0x20 && c < 0x7F) {
+                        sb.append(c);
+                    } else {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+            }
+        }
+    }
+
+    // Terminal id constants (the end marker as EOF), the terminal names and a
+    // terminalId(String) lookup, so generated parsers need nothing from this library.
+    // Returns the constant names by terminal id.
+    public static String[] appendTerminals(StringBuilder sb, Grammar grammar) {
+        String[] constants = new String[grammar.getTerminalCount() + 1];
+        Set<String> used = new HashSet<>();
+        used.add("EOF");
+        used.add("TERMINAL_NAMES");
+        for (int t = 0; t < grammar.getTerminalCount(); t++) {
+            String name = grammar.getTerminal(t).getName();
+            constants[t] = identifier(name, true, used);
+            sb.append("    public static final int ").append(constants[t]).append(" = ").append(t)
+              .append("; // ").append(stringLiteral(name)).append('\n');
+        }
+        constants[grammar.getEndMarkerId()] = "EOF";
+        sb.append("    public static final int EOF = ").append(grammar.getEndMarkerId()).append(";\n\n");
+
+        sb.append("    private static final String[] TERMINAL_NAMES = {");
+        for (int t = 0; t < grammar.getTerminalCount(); t++) {
+            sb.append(t % 8 == 0 ? "\n        " : " ").append(stringLiteral(grammar.getTerminal(t).getName())).append(',');
+        }
+        sb.append("\n    };\n\n");
+
+        sb.append("    // Id of the terminal with the given name, or -1 if there is none\n")
+          .append("    public static int terminalId(String name) {\n")
+          .append("        for (int i = 0; i < TERMINAL_NAMES.length; i++) {\n")
+          .append("            if (TERMINAL_NAMES[i].equals(name)) {\n")
+          .append("                return i;\n")
+          .append("            }\n")
+          .append("        }\n")
+          .append("        return -1;\n")
+          .append("    }\n\n");
+        return constants;
+    }
+
+    // Writes a generated class below a source root, in its package's directory
+    public static Path write(Path sourceRoot, String packageName, String className, String source) throws IOException {
+        Path directory = packageName.isEmpty() ? sourceRoot : sourceRoot.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(directory);
+        Path file = directory.resolve(className + ".java");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    public static void appendPackage(StringBuilder sb, String packageName) {
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A table-driven DFA lexer built by LexerGenerator. Characters map to classes of
+// characters that no definition tells apart, and the transition table is indexed
+// by state and class. Tokens are the longest match at each position; text matched
+// by a skip definition is dropped. Immutable, so one lexer can be shared by threads.
+public class Lexer {
+    public static final int NO_TOKEN = -1;
+    public static final int SKIP = -2;
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final Grammar grammar;
+    private final int classCount;
+    private final int[] asciiClasses;
+    private final int[] rangeStarts;
+    private final int[] rangeClasses;
+    private final int[] transitions;
+    private final int[] accepts;
+
+    // rangeStarts/rangeClasses: character c belongs to rangeClasses[i] for the last i with
+    // rangeStarts[i] <= c. transitions[state * classCount + class] is the next state or -1.
+    // accepts[state] is the terminal id a match ending in the state yields, SKIP or NO_TOKEN.
+    Lexer(Grammar grammar, int classCount, int[] rangeStarts, int[] rangeClasses, int[] transitions, int[] accepts) {
+        this.grammar = grammar;
+        this.classCount = classCount;
+        this.rangeStarts = rangeStarts;
+        this.rangeClasses = rangeClasses;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.asciiClasses = new int[128];
+        for (int c = 0; c < 128; c++) {
+            asciiClasses[c] = lookUpClass(c);
+        }
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public int getStateCount() {
+        return accepts.length;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    // Terminal ids of the tokens in the input, ready for LLParser/LRParser.parse(int[], int).
+    // Throws IllegalArgumentException at the first character that starts no token.
+    public int[] tokenize(CharSequence input) {
+        int[] tokens = new int[Math.max(16, input.length() / 4)];
+        int count = 0;
+        int length = input.length();
+        int position = 0;
+        while (position < length) {
+            // Longest match from position
+            int state = 0;
+            int token = NO_TOKEN;
+            int end = -1;
+            for (int i = position; i < length; i++) {
+                char c = input.charAt(i);
+                state = transitions[state * classCount + (c < 128 ? asciiClasses[c] : lookUpClass(c))];
+                if (state < 0) {
+                    break;
+                }
+                if (accepts[state] != NO_TOKEN) {
+                    token = accepts[state];
+                    end = i + 1;
+                }
+            }
+            if (end < 0) {
+                throw new IllegalArgumentException("Unexpected character '" + input.charAt(position) +
+                                                   "' at offset " + position);
+            }
+            if (token != SKIP) {
+                if (count == tokens.length) {
+                    tokens = Arrays.copyOf(tokens, count * 2);
+                }
+                tokens[count++] = token;
+            }
+            position = end;
+        }
+        return Arrays.copyOf(tokens, count);
+    }
+
+    // Longest match at position, with nothing skipped: returns the terminal id, SKIP, or
+    // NO_TOKEN if no token starts there. ends[0] receives the end of the match, and
+    // ends[1] the end of the text the lexer read to decide it; only edits before that
+    // point can change the match.
+    public int match(CharSequence input, int position, int[] ends) {
+        int length = input.length();
+        int state = 0;
+        int token = NO_TOKEN;
+        int end = -1;
+        int i = position;
+        while (i < length) {
+            char c = input.charAt(i++);
+            state = transitions[state * classCount + (c < 128 ? asciiClasses[c] : lookUpClass(c))];
+            if (state < 0) {
+                break;
+            }
+            if (accepts[state] != NO_TOKEN) {
+                token = accepts[state];
+                end = i;
+            }
+        }
+        ends[0] = end;
+        ends[1] = i;
+        return token;
+    }
+
+    // Token sources that lex text as the parser pulls tokens, through a fixed-size buffer
+    // that only grows for a token longer than it. The source must not be shared between
+    // threads; closing the underlying input is left to the caller.
+    public TokenSource tokens(Reader reader) {
+        return new ReaderTokenSource(reader, BUFFER_SIZE);
+    }
+
+    public TokenSource tokens(InputStream input, Charset charset) {
+        return tokens(new InputStreamReader(input, charset));
+    }
+
+    public TokenSource tokens(ReadableByteChannel channel, Charset charset) {
+        return tokens(Channels.newReader(channel, charset));
+    }
+
+    private final class ReaderTokenSource implements TokenSource {
+        private final Reader reader;
+        private char[] buffer;
+        private int start;      // Start of the next token in the buffer
+        private int limit;      // End of the characters read so far
+        private long consumed;  // Input offset of buffer[0]
+        private boolean exhausted;
+        private long tokenOffset = -1;
+        private int tokenLength;
+
+        ReaderTokenSource(Reader reader, int bufferSize) {
+            this.reader = reader;
+            this.buffer = new char[bufferSize];
+        }
+
+        @Override
+        public int nextToken() throws IOException {
+            while (true) {
+                if (start == limit && (exhausted || fill() == 0)) {
+                    tokenOffset = consumed + start;
+                    tokenLength = 0;
+                    return END_OF_INPUT;
+                }
+
+                // Longest match from start, refilling as the match runs into the end of
+                // the buffer. fill() moves the token to the front, so positions are
+                // kept relative to start.
+                int state = 0;
+                int token = NO_TOKEN;
+                int matched = -1;
+                int i = 0;
+                while (true) {
+                    if (start + i == limit && (exhausted || fill() == 0)) {
+                        break;
+                    }
+                    char c = buffer[start + i];
+                    state = transitions[state * classCount + (c < 128 ? asciiClasses[c] : lookUpClass(c))];
+                    if (state < 0) {
+                        break;
+                    }
+                    i++;
+                    if (accepts[state] != NO_TOKEN) {
+                        token = accepts[state];
+                        matched = i;
+                    }
+                }
+                if (matched < 0) {
+                    throw new IllegalArgumentException("Unexpected character '" + buffer[start] +
+                                                       "' at offset " + (consumed + start));
+                }
+                tokenOffset = consumed + start;
+                tokenLength = matched;
+                start += matched;
+                if (token != SKIP) {
+                    return token;
+                }
+            }
+        }
+
+        // Moves the unconsumed characters to the front of the buffer, doubling it if they
+        // fill it, and reads more. Returns the number of characters read.
+        private int fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                consumed += start;
+                limit -= start;
+                start = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                exhausted = true;
+                return 0;
+            }
+            limit += read;
+            return read;
+        }
+
+        @Override
+        public long getTokenOffset() {
+            return tokenOffset;
+        }
+
+        @Override
+        public int getTokenLength() {
+            return tokenLength;
+        }
+    }
+
+    // Token source over the UTF-8 bytes between the position and limit of a buffer.
+    // Tokens are lexed from the bytes in place, with offsets and lengths in bytes
+    // relative to the start of the buffer; ASCII needs no decoding at all.
+    public TokenSource tokens(ByteBuffer bytes) {
+        return new ByteTokenSource(null, 0, bytes, 0);
+    }
+
+    // Token source over a UTF-8 file, memory-mapped in windows of up to 1GB so that
+    // files of any size can be lexed; offsets are file offsets
+    public TokenSource tokens(Path file) throws IOException {
+        return tokens(file, MAP_WINDOW);
+    }
+
+    // The same with windows of at most windowSize bytes. A token must fit in a window
+    // with 4 bytes to spare, since a window is only moved to the start of the token
+    // being matched when the match comes within a character of its end.
+    public TokenSource tokens(Path file, long windowSize) throws IOException {
+        if (windowSize < 16 || windowSize > MAP_WINDOW) {
+            throw new IllegalArgumentException("Window size " + windowSize + " not between 16 and " + MAP_WINDOW);
+        }
+        return new ByteTokenSource(file, Files.size(file), ByteBuffer.allocate(0), windowSize);
+    }
+
+    private final class ByteTokenSource implements TokenSource {
+        private final Path file;      // null when lexing a single buffer
+        private final long fileSize;
+        private final long window;    // Largest mapping of the file
+        private ByteBuffer bytes;
+        private long base;            // Input offset of bytes index 0
+        private int start;            // Start of the next token
+        private int limit;
+        private long tokenOffset = -1;
+        private int tokenLength;
+
+        ByteTokenSource(Path file, long fileSize, ByteBuffer bytes, long window) {
+            this.file = file;
+            this.fileSize = fileSize;
+            this.window = window;
+            this.bytes = bytes;
+            this.start = bytes.position();
+            this.limit = bytes.limit();
+        }
+
+        @Override
+        public int nextToken() throws IOException {
+            while (true) {
+                if (start == limit && !remap()) {
+                    tokenOffset = base + start;
+                    tokenLength = 0;
+                    return END_OF_INPUT;
+                }
+
+                // Longest match from start. Within 4 bytes of the window's end remap() may
+                // move the window to begin at start, so positions are kept relative to it.
+                ByteBuffer bytes = this.bytes;
+                int[] transitions = Lexer.this.transitions;
+                int[] asciiClasses = Lexer.this.asciiClasses;
+                int[] accepts = Lexer.this.accepts;
+                int classCount = Lexer.this.classCount;
+                int remapLimit = file != null ? limit - 4 : limit;
+                int state = 0;
+                int token = NO_TOKEN;
+                int matched = -1;
+                int i = 0;
+                while (true) {
+                    int index = start + i;
+                    if (index >= remapLimit) {
+                        if (file != null && remap()) {
+                            bytes = this.bytes;
+                            remapLimit = limit - 4;
+                            continue;
+                        }
+                        if (index == limit) {
+                            break;
+                        }
+                    }
+                    int b = bytes.get(index);
+                    if (b >= 0) {
+                        state = transitions[state * classCount + asciiClasses[b]];
+                        i++;
+                    } else {
+                        // A multi-byte sequence: one character, or a surrogate pair for
+                        // code points beyond the BMP. Malformed bytes read as U+FFFD.
+                        int length = b >= (byte) 0xF8 ? 1 : b >= (byte) 0xF0 ? 4 : b >= (byte) 0xE0 ? 3
+                                   : b >= (byte) 0xC0 ? 2 : 1;
+                        int codePoint = length == 4 ? b & 0x07 : length == 3 ? b & 0x0F : b & 0x1F;
+                        if (length == 1 || index + length > limit) {
+                            length = 1;
+                            codePoint = 0xFFFD;
+                        }
+                        for (int k = 1; k < length; k++) {
+                            int next = bytes.get(index + k);
+                            if ((next & 0xC0) != 0x80) {
+                                length = 1;
+                                codePoint = 0xFFFD;
+                                break;
+                            }
+                            codePoint = codePoint << 6 | (next & 0x3F);
+                        }
+                        if (codePoint > Character.MAX_CODE_POINT) {
+                            codePoint = 0xFFFD;
+                        } else if (codePoint >= 0x10000) {
+                            state = transitions[state * classCount + lookUpClass(Character.highSurrogate(codePoint))];
+                            if (state < 0) {
+                                break;
+                            }
+                            codePoint = Character.lowSurrogate(codePoint);
+                        }
+                        state = transitions[state * classCount + lookUpClass(codePoint)];
+                        i += length;
+                    }
+                    if (state < 0) {
+                        break;
+                    }
+                    if (accepts[state] != NO_TOKEN) {
+                        token = accepts[state];
+                        matched = i;
+                    }
+                }
+                if (matched < 0) {
+                    throw new IllegalArgumentException("Unexpected byte 0x" + Integer.toHexString(bytes.get(start) & 0xFF) +
+                                                       " at offset " + (base + start));
+                }
+                tokenOffset = base + start;
+                tokenLength = matched;
+                start += matched;
+                if (token != SKIP) {
+                    return token;
+                }
+            }
+        }
+
+        // Maps the next window of the file, starting at the current token. Returns false
+        // at the end of the file or of a plain buffer.
+        private boolean remap() throws IOException {
+            if (file == null || base + limit >= fileSize) {
+                return false;
+            }
+            if (start == 0 && limit == window) {
+                throw new IllegalArgumentException("Token longer than " + window + " bytes at offset " + base);
+            }
+            long offset = base + start;
+            long size = Math.min(fileSize - offset, window);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            }
+            base = offset;
+            start = 0;
+            limit = (int) size;
+            return true;
+        }
+
+        @Override
+        public long getTokenOffset() {
+            return tokenOffset;
+        }
+
+        @Override
+        public int getTokenLength() {
+            return tokenLength;
+        }
+    }
+
+    private int lookUpClass(int c) {
+        int index = Arrays.binarySearch(rangeStarts, c);
+        return rangeClasses[index >= 0 ? index : -index - 2];
+    }
+}
@@ -0,0 +1,838 @@
+package utils;
+
+import java.util.*;
+
+// Builds a Lexer from the token definitions of a grammar:
+//   1. each definition is parsed into a small regex tree (literals are sequences of
+//      single characters); terminals without a definition match their own name, except
+//      the error terminal, which is never lexed, and whitespace is skipped unless the
+//      grammar declares its own %skip
+//   2. characters are split into classes that no definition tells apart, so tables
+//      are indexed by class rather than by character
+//   3. Thompson's construction turns the trees into one NFA, the subset construction
+//      into a DFA, and Hopcroft's partition refinement minimizes it
+// The longest match wins. Among matches of equal length literals win over regexes,
+// so keywords take precedence over identifiers, and otherwise the earlier definition.
+public class LexerGenerator {
+    private static final int CHAR_LIMIT = 0x10000;
+    private static final TokenDefinition DEFAULT_SKIP = new TokenDefinition(null, "[ \\t\\r\\n\\f]+", false);
+
+    // Regex tree node kinds
+    private static final int SET = 0;
+    private static final int CONCAT = 1;
+    private static final int ALTERNATIVE = 2;
+    private static final int REPEAT = 3;
+    private static final int EMPTY = 4;
+
+    private final Grammar grammar;
+    private final List<TokenDefinition> definitions = new ArrayList<>();
+    private final List<Node> trees = new ArrayList<>();
+    private final List<Node> sets = new ArrayList<>();
+
+    // Character classes: class of the characters from rangeStarts[i] up to the next start
+    private int classCount;
+    private int[] rangeStarts;
+    private int[] rangeClasses;
+
+    // Thompson NFA: a state has either a class set and a next state, or up to two ε-edges
+    private long[][] nfaLabels = new long[64][];
+    private int[] nfaNext = new int[64];
+    private int[] nfaEpsilon1 = new int[64];
+    private int[] nfaEpsilon2 = new int[64];
+    private int[] nfaAccepts = new int[64];
+    private int nfaStateCount;
+
+    private LexerGenerator(Grammar grammar) {
+        this.grammar = grammar;
+    }
+
+    public static Lexer generate(Grammar grammar) {
+        return new LexerGenerator(grammar).build();
+    }
+
+    private Lexer build() {
+        collectDefinitions();
+        for (TokenDefinition definition : definitions) {
+            trees.add(definition.isLiteral() ? literal(definition.getPattern())
+                                             : new RegexParser(definition.getPattern()).parse());
+        }
+        computeClasses();
+
+        int[] starts = new int[definitions.size()];
+        for (int d = 0; d < definitions.size(); d++) {
+            int[] fragment = buildNfa(trees.get(d));
+            nfaAccepts[fragment[1]] = d;
+            starts[d] = fragment[0];
+        }
+
+        Dfa dfa = buildDfa(starts);
+        if (dfa.accepts[0] >= 0) {
+            throw new IllegalArgumentException("Token definition matches the empty string: " +
+                                               definitions.get(dfa.accepts[0]));
+        }
+        return minimize(dfa);
+    }
+
+    // Explicit definitions, then literals for undefined terminals, ordered by priority
+    private void collectDefinitions() {
+        Set<String> defined = new HashSet<>();
+        List<TokenDefinition> literals = new ArrayList<>();
+        List<TokenDefinition> patterns = new ArrayList<>();
+        boolean hasSkip = false;
+        for (TokenDefinition definition : grammar.getTokenDefinitions()) {
+            if (definition.isSkip()) {
+                hasSkip = true;
+            } else {
+                int terminal = grammar.getTerminalId(new Symbol(definition.getTerminalName(), true));
+                if (terminal < 0 || terminal == grammar.getEndMarkerId() || terminal == grammar.getErrorTerminalId()) {
+                    throw new IllegalArgumentException("Token definition for a terminal the grammar does not use: " +
+                                                       definition);
+                }
+                if (!defined.add(definition.getTerminalName())) {
+                    throw new IllegalArgumentException("Terminal defined twice: " + definition);
+                }
+            }
+            if (definition.getPattern().isEmpty()) {
+                throw new IllegalArgumentException("Token definition matches the empty string: " + definition);
+            }
+            (definition.isLiteral() ? literals : patterns).add(definition);
+        }
+        for (int t = 0; t < grammar.getTerminalCount(); t++) {
+            String name = grammar.getTerminal(t).getName();
+            if (!defined.contains(name) && t != grammar.getErrorTerminalId()) {
+                literals.add(new TokenDefinition(name, name, true));
+            }
+        }
+        if (!hasSkip) {
+            patterns.add(DEFAULT_SKIP);
+        }
+        definitions.addAll(literals);
+        definitions.addAll(patterns);
+    }
+
+    private int tokenOf(int definitionIndex) {
+        TokenDefinition definition = definitions.get(definitionIndex);
+        return definition.isSkip() ? Lexer.SKIP
+                                   : grammar.getTerminalId(new Symbol(definition.getTerminalName(), true));
+    }
+
+    // A regex tree node: a character set (sorted, disjoint inclusive ranges), the
+    // concatenation or alternative of two nodes, a repetition or the empty string
+    private static final class Node {
+        final int kind;
+        final Node left;
+        final Node right;
+        final int[] ranges;
+        final int min;
+        final int max; // -1 for unbounded
+        long[] classes;
+
+        Node(int kind, Node left, Node right, int[] ranges, int min, int max) {
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+            this.ranges = ranges;
+            this.min = min;
+            this.max = max;
+        }
+
+        static Node set(int[] ranges) {
+            return new Node(SET, null, null, ranges, 0, 0);
+        }
+
+        static Node concat(Node left, Node right) {
+            if (left.kind == EMPTY) {
+                return right;
+            }
+            return right.kind == EMPTY ? left : new Node(CONCAT, left, right, null, 0, 0);
+        }
+    }
+
+    private Node set(int[] ranges) {
+        Node node = Node.set(ranges);
+        sets.add(node);
+        return node;
+    }
+
+    private Node literal(String text) {
+        Node node = new Node(EMPTY, null, null, null, 0, 0);
+        for (int i = 0; i < text.length(); i++) {
+            node = Node.concat(node, set(new int[] { text.charAt(i), text.charAt(i) }));
+        }
+        return node;
+    }
+
+    // Recursive descent over the regex syntax:
+    //   alternative := sequence ('|' sequence)*
+    //   sequence    := (atom ('*' | '+' | '?' | '{m}' | '{m,}' | '{m,n}')*)*
+    //   atom        := '(' alternative ')' | '[' '^'? items ']' | '.' | escape | character
+    // Escapes: \d \w \s and their negations \D \W \S, \n \t \r \f, \\uXXXX, and \ before
+    // any other character for that character itself.
+    private final class RegexParser {
+        private final String pattern;
+        private int position;
+
+        RegexParser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        Node parse() {
+            Node node = alternative();
+            if (position < pattern.length()) {
+                throw error("Unbalanced ')'");
+            }
+            return node;
+        }
+
+        private Node alternative() {
+            Node node = sequence();
+            while (position < pattern.length() && pattern.charAt(position) == '|') {
+                position++;
+                node = new Node(ALTERNATIVE, node, sequence(), null, 0, 0);
+            }
+            return node;
+        }
+
+        private Node sequence() {
+            Node node = new Node(EMPTY, null, null, null, 0, 0);
+            while (position < pattern.length() && pattern.charAt(position) != '|' && pattern.charAt(position) != ')') {
+                Node atom = atom();
+                while (position < pattern.length()) {
+                    char c = pattern.charAt(position);
+                    if (c == '*') {
+                        atom = new Node(REPEAT, atom, null, null, 0, -1);
+                    } else if (c == '+') {
+                        atom = new Node(REPEAT, atom, null, null, 1, -1);
+                    } else if (c == '?') {
+                        atom = new Node(REPEAT, atom, null, null, 0, 1);
+                    } else if (c == '{') {
+                        atom = bounds(atom);
+                        continue;
+                    } else {
+                        break;
+                    }
+                    position++;
+                }
+                node = Node.concat(node, atom);
+            }
+            return node;
+        }
+
+        private Node bounds(Node atom) {
+            int close = pattern.indexOf('}', position);
+            if (close < 0) {
+                throw error("Unclosed '{'");
+            }
+            String[] parts = pattern.substring(position + 1, close).split(",", -1);
+            try {
+                int min = Integer.parseInt(parts[0].trim());
+                int max = parts.length == 1 ? min : parts[1].trim().isEmpty() ? -1 : Integer.parseInt(parts[1].trim());
+                if (parts.length > 2 || min < 0 || (max >= 0 && max < min)) {
+                    throw error("Invalid repetition bounds");
+                }
+                position = close + 1;
+                return new Node(REPEAT, atom, null, null, min, max);
+            } catch (NumberFormatException e) {
+                throw error("Invalid repetition bounds");
+            }
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(position++);
+            switch (c) {
+                case '(': {
+                    Node node = alternative();
+                    if (position >= pattern.length() || pattern.charAt(position) != ')') {
+                        throw error("Unclosed '('");
+                    }
+                    position++;
+                    return node;
+                }
+                case '[':
+                    return set(characterClass());
+                case '.':
+                    return set(complement(new int[] { '\n', '\n' }));
+                case '\\':
+                    return set(escape());
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw error("Nothing to repeat");
+                default:
+                    return set(new int[] { c, c });
+            }
+        }
+
+        private int[] characterClass() {
+            boolean negated = position < pattern.length() && pattern.charAt(position) == '^';
+            if (negated) {
+                position++;
+            }
+            List<int[]> ranges = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (position >= pattern.length()) {
+                    throw error("Unclosed '['");
+                }
+                char c = pattern.charAt(position++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                int[] low = c == '\\' ? escape() : new int[] { c, c };
+                if (low.length == 2 && low[0] == low[1] && position + 1 < pattern.length() &&
+                    pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']') {
+                    position++;
+                    char d = pattern.charAt(position++);
+                    int[] high = d == '\\' ? escape() : new int[] { d, d };
+                    if (high.length != 2 || high[0] != high[1] || high[0] < low[0]) {
+                        throw error("Invalid range");
+                    }
+                    ranges.add(new int[] { low[0], high[0] });
+                } else {
+                    ranges.add(low);
+                }
+            }
+            int[] result = union(ranges);
+            return negated ? complement(result) : result;
+        }
+
+        // The ranges of an escape, with position just past the backslash
+        private int[] escape() {
+            if (position >= pattern.length()) {
+                throw error("Trailing '\\'");
+            }
+            char c = pattern.charAt(position++);
+            switch (c) {
+                case 'd': return new int[] { '0', '9' };
+                case 'D': return complement(new int[] { '0', '9' });
+                case 'w': return WORD;
+                case 'W': return complement(WORD);
+                case 's': return SPACE;
+                case 'S': return complement(SPACE);
+                case 'n': return new int[] { '\n', '\n' };
+                case 't': return new int[] { '\t', '\t' };
+                case 'r': return new int[] { '\r', '\r' };
+                case 'f': return new int[] { '\f', '\f' };
+                case 'u':
+                    if (position + 4 > pattern.length()) {
+                        throw error("Invalid \\u escape");
+                    }
+                    try {
+                        int value = Integer.parseInt(pattern.substring(position, position + 4), 16);
+                        position += 4;
+                        return new int[] { value, value };
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid \\u escape");
+                    }
+                default:
+                    return new int[] { c, c };
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + position + " in /" + pattern + "/");
+        }
+    }
+
+    private static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+    private static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+
+    private static int[] union(List<int[]> parts) {
+        List<int[]> pairs = new ArrayList<>();
+        for (int[] part : parts) {
+            for (int i = 0; i < part.length; i += 2) {
+                pairs.add(new int[] { part[i], part[i + 1] });
+            }
+        }
+        pairs.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] result = new int[2 * pairs.size()];
+        int count = 0;
+        for (int[] pair : pairs) {
+            if (count > 0 && pair[0] <= result[count - 1] + 1) {
+                result[count - 1] = Math.max(result[count - 1], pair[1]);
+            } else {
+                result[count++] = pair[0];
+                result[count++] = pair[1];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] complement(int[] ranges) {
+        int[] result = new int[ranges.length + 2];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[count++] = next;
+                result[count++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next < CHAR_LIMIT) {
+            result[count++] = next;
+            result[count++] = CHAR_LIMIT - 1;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Cuts the character range at every set boundary; intervals contained in exactly the
+    // same sets form one class. Each set node then gets its classes as a bitset.
+    private void computeClasses() {
+        TreeSet<Integer> cuts = new TreeSet<>(Arrays.asList(0, CHAR_LIMIT));
+        Map<String, Integer> distinctSets = new HashMap<>();
+        int[] setIds = new int[sets.size()];
+        for (int i = 0; i < sets.size(); i++) {
+            int[] ranges = sets.get(i).ranges;
+            setIds[i] = distinctSets.computeIfAbsent(Arrays.toString(ranges), key -> distinctSets.size());
+            for (int r = 0; r < ranges.length; r += 2) {
+                cuts.add(ranges[r]);
+                cuts.add(ranges[r + 1] + 1);
+            }
+        }
+        Integer[] bounds = cuts.toArray(new Integer[0]);
+        int intervalCount = bounds.length - 1;
+
+        // Membership of each interval in the distinct sets, as the class signature
+        List<BitSet> signatures = new ArrayList<>();
+        for (int i = 0; i < intervalCount; i++) {
+            signatures.add(new BitSet());
+        }
+        boolean[] seen = new boolean[distinctSets.size()];
+        for (int i = 0; i < sets.size(); i++) {
+            if (seen[setIds[i]]) {
+                continue;
+            }
+            seen[setIds[i]] = true;
+            int[] ranges = sets.get(i).ranges;
+            for (int r = 0; r < ranges.length; r += 2) {
+                int from = Arrays.binarySearch(bounds, ranges[r]);
+                int to = Arrays.binarySearch(bounds, ranges[r + 1] + 1);
+                for (int k = from; k < to; k++) {
+                    signatures.get(k).set(setIds[i]);
+                }
+            }
+        }
+
+        Map<BitSet, Integer> classIds = new HashMap<>();
+        int[] intervalClasses = new int[intervalCount];
+        for (int i = 0; i < intervalCount; i++) {
+            intervalClasses[i] = classIds.computeIfAbsent(signatures.get(i), key -> classIds.size());
+        }
+        classCount = classIds.size();
+
+        // Adjacent intervals of one class share a range entry
+        int[] starts = new int[intervalCount];
+        int[] classes = new int[intervalCount];
+        int count = 0;
+        for (int i = 0; i < intervalCount; i++) {
+            if (count == 0 || classes[count - 1] != intervalClasses[i]) {
+                starts[count] = bounds[i];
+                classes[count++] = intervalClasses[i];
+            }
+        }
+        rangeStarts = Arrays.copyOf(starts, count);
+        rangeClasses = Arrays.copyOf(classes, count);
+
+        for (Node node : sets) {
+            node.classes = BitSets.create(classCount);
+            for (int r = 0; r < node.ranges.length; r += 2) {
+                int from = Arrays.binarySearch(bounds, node.ranges[r]);
+                int to = Arrays.binarySearch(bounds, node.ranges[r + 1] + 1);
+                for (int k = from; k < to; k++) {
+                    BitSets.set(node.classes, intervalClasses[k]);
+                }
+            }
+        }
+    }
+
+    private int newNfaState() {
+        if (nfaStateCount == nfaNext.length) {
+            int capacity = nfaStateCount * 2;
+            nfaLabels = Arrays.copyOf(nfaLabels, capacity);
+            nfaNext = Arrays.copyOf(nfaNext, capacity);
+            nfaEpsilon1 = Arrays.copyOf(nfaEpsilon1, capacity);
+            nfaEpsilon2 = Arrays.copyOf(nfaEpsilon2, capacity);
+            nfaAccepts = Arrays.copyOf(nfaAccepts, capacity);
+        }
+        int state = nfaStateCount++;
+        nfaNext[state] = -1;
+        nfaEpsilon1[state] = -1;
+        nfaEpsilon2[state] = -1;
+        nfaAccepts[state] = -1;
+        return state;
+    }
+
+    private void addEpsilon(int from, int to) {
+        if (nfaEpsilon1[from] < 0) {
+            nfaEpsilon1[from] = to;
+        } else {
+            nfaEpsilon2[from] = to;
+        }
+    }
+
+    // Thompson's construction; returns {start, end}, where end has no edges yet
+    private int[] buildNfa(Node node) {
+        switch (node.kind) {
+            case SET: {
+                int start = newNfaState();
+                int end = newNfaState();
+                nfaLabels[start] = node.classes;
+                nfaNext[start] = end;
+                return new int[] { start, end };
+            }
+            case CONCAT: {
+                int[] left = buildNfa(node.left);
+                int[] right = buildNfa(node.right);
+                addEpsilon(left[1], right[0]);
+                return new int[] { left[0], right[1] };
+            }
+            case ALTERNATIVE: {
+                int start = newNfaState();
+                int[] left = buildNfa(node.left);
+                int[] right = buildNfa(node.right);
+                int end = newNfaState();
+                addEpsilon(start, left[0]);
+                addEpsilon(start, right[0]);
+                addEpsilon(left[1], end);
+                addEpsilon(right[1], end);
+                return new int[] { start, end };
+            }
+            case REPEAT: {
+                // The required copies, then either a loop or the optional copies
+                int start = newNfaState();
+                int end = start;
+                for (int i = 0; i < node.min; i++) {
+                    int[] copy = buildNfa(node.left);
+                    addEpsilon(end, copy[0]);
+                    end = copy[1];
+                }
+                if (node.max < 0) {
+                    int[] loop = buildNfa(node.left);
+                    int exit = newNfaState();
+                    addEpsilon(end, loop[0]);
+                    addEpsilon(end, exit);
+                    addEpsilon(loop[1], loop[0]);
+                    addEpsilon(loop[1], exit);
+                    end = exit;
+                } else {
+                    for (int i = node.min; i < node.max; i++) {
+                        int[] copy = buildNfa(node.left);
+                        int exit = newNfaState();
+                        addEpsilon(end, copy[0]);
+                        addEpsilon(end, exit);
+                        addEpsilon(copy[1], exit);
+                        end = exit;
+                    }
+                }
+                return new int[] { start, end };
+            }
+            default: {
+                int state = newNfaState();
+                return new int[] { state, state };
+            }
+        }
+    }
+
+    // DFA states are ε-closed sets of NFA states. accepts holds the definition index with
+    // the highest priority among a state's accepting NFA states, or -1.
+    private static final class Dfa {
+        int stateCount;
+        int[] transitions;
+        int[] accepts;
+    }
+
+    private Dfa buildDfa(int[] starts) {
+        int[] stamps = new int[nfaStateCount];
+        int[] stack = new int[nfaStateCount];
+        int[] stamp = { 0 };
+
+        Map<StateSet, Integer> ids = new HashMap<>();
+        List<int[]> states = new ArrayList<>();
+        int[] transitions = new int[16 * classCount];
+        int[] accepts = new int[16];
+
+        int[] initial = closure(starts, starts.length, stamps, stack, stamp);
+        ids.put(new StateSet(initial), 0);
+        states.add(initial);
+
+        int[][] buckets = new int[classCount][];
+        int[] bucketSizes = new int[classCount];
+        for (int d = 0; d < states.size(); d++) {
+            int[] members = states.get(d);
+            if ((d + 1) * classCount > transitions.length) {
+                transitions = Arrays.copyOf(transitions, transitions.length * 2);
+                accepts = Arrays.copyOf(accepts, accepts.length * 2);
+            }
+
+            int accept = -1;
+            Arrays.fill(bucketSizes, 0);
+            for (int s : members) {
+                if (nfaAccepts[s] >= 0 && (accept < 0 || nfaAccepts[s] < accept)) {
+                    accept = nfaAccepts[s];
+                }
+                long[] label = nfaLabels[s];
+                if (label == null) {
+                    continue;
+                }
+                for (int c = BitSets.nextSetBit(label, 0); c >= 0; c = BitSets.nextSetBit(label, c + 1)) {
+                    if (buckets[c] == null) {
+                        buckets[c] = new int[8];
+                    } else if (bucketSizes[c] == buckets[c].length) {
+                        buckets[c] = Arrays.copyOf(buckets[c], bucketSizes[c] * 2);
+                    }
+                    buckets[c][bucketSizes[c]++] = nfaNext[s];
+                }
+            }
+            accepts[d] = accept;
+
+            for (int c = 0; c < classCount; c++) {
+                if (bucketSizes[c] == 0) {
+                    transitions[d * classCount + c] = -1;
+                    continue;
+                }
+                int[] target = closure(buckets[c], bucketSizes[c], stamps, stack, stamp);
+                StateSet key = new StateSet(target);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = states.size();
+                    ids.put(key, id);
+                    states.add(target);
+                }
+                transitions[d * classCount + c] = id;
+            }
+        }
+
+        Dfa dfa = new Dfa();
+        dfa.stateCount = states.size();
+        dfa.transitions = transitions;
+        dfa.accepts = accepts;
+        return dfa;
+    }
+
+    // The sorted ε-closure of some NFA states
+    private int[] closure(int[] seeds, int seedCount, int[] stamps, int[] stack, int[] stamp) {
+        int current = ++stamp[0];
+        int stackSize = 0;
+        int[] result = new int[16];
+        int count = 0;
+        for (int i = 0; i < seedCount; i++) {
+            if (stamps[seeds[i]] != current) {
+                stamps[seeds[i]] = current;
+                stack[stackSize++] = seeds[i];
+            }
+        }
+        while (stackSize > 0) {
+            int s = stack[--stackSize];
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count * 2);
+            }
+            result[count++] = s;
+            int[] edges = { nfaEpsilon1[s], nfaEpsilon2[s] };
+            for (int t : edges) {
+                if (t >= 0 && stamps[t] != current) {
+                    stamps[t] = current;
+                    stack[stackSize++] = t;
+                }
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // Hopcroft's algorithm over the DFA completed with a dead state. Blocks are ranges of
+    // one array of states; the states of a block marked by a splitter are moved to the
+    // front of its range, so a split only adjusts range bounds. The smaller half becomes
+    // the new block and is queued with every class.
+    private Lexer minimize(Dfa dfa) {
+        int n = dfa.stateCount + 1;
+        int dead = dfa.stateCount;
+
+        // Predecessors by class and target, in compressed rows
+        int[] predecessorStarts = new int[classCount * n + 1];
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < classCount; c++) {
+                predecessorStarts[c * n + target(dfa, s, c, dead) + 1]++;
+            }
+        }
+        for (int i = 0; i < classCount * n; i++) {
+            predecessorStarts[i + 1] += predecessorStarts[i];
+        }
+        int[] predecessors = new int[classCount * n];
+        int[] fill = Arrays.copyOf(predecessorStarts, classCount * n);
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < classCount; c++) {
+                predecessors[fill[c * n + target(dfa, s, c, dead)]++] = s;
+            }
+        }
+
+        // Initial partition by accepted definition
+        int[] elements = new int[n];
+        int[] locations = new int[n];
+        int[] blockOf = new int[n];
+        int[] blockStarts = new int[n];
+        int[] blockEnds = new int[n];
+        int[] markedCounts = new int[n];
+        int blockCount = 0;
+        Map<Integer, Integer> initialBlocks = new LinkedHashMap<>();
+        for (int s = 0; s < n; s++) {
+            int accept = s == dead ? -1 : dfa.accepts[s];
+            Integer block = initialBlocks.get(accept);
+            if (block == null) {
+                block = blockCount++;
+                initialBlocks.put(accept, block);
+            }
+            blockOf[s] = block;
+            blockEnds[block]++;
+        }
+        for (int b = 1; b < blockCount; b++) {
+            blockEnds[b] += blockEnds[b - 1];
+        }
+        for (int b = 0; b < blockCount; b++) {
+            blockStarts[b] = b == 0 ? 0 : blockEnds[b - 1];
+        }
+        int[] fillBlocks = Arrays.copyOf(blockStarts, blockCount);
+        for (int s = 0; s < n; s++) {
+            int position = fillBlocks[blockOf[s]]++;
+            elements[position] = s;
+            locations[s] = position;
+        }
+
+        int[] worklist = new int[16];
+        int worklistSize = 0;
+        for (int b = 0; b < blockCount; b++) {
+            for (int c = 0; c < classCount; c++) {
+                if (worklistSize + 2 > worklist.length) {
+                    worklist = Arrays.copyOf(worklist, worklist.length * 2);
+                }
+                worklist[worklistSize++] = b;
+                worklist[worklistSize++] = c;
+            }
+        }
+
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while (worklistSize > 0) {
+            int c = worklist[--worklistSize];
+            int b = worklist[--worklistSize];
+            int splitterSize = blockEnds[b] - blockStarts[b];
+            System.arraycopy(elements, blockStarts[b], splitter, 0, splitterSize);
+
+            int touchedCount = 0;
+            for (int i = 0; i < splitterSize; i++) {
+                int t = splitter[i];
+                for (int p = predecessorStarts[c * n + t]; p < predecessorStarts[c * n + t + 1]; p++) {
+                    int s = predecessors[p];
+                    int block = blockOf[s];
+                    int markEnd = blockStarts[block] + markedCounts[block];
+                    if (locations[s] < markEnd) {
+                        continue; // Already marked
+                    }
+                    if (markedCounts[block] == 0) {
+                        touched[touchedCount++] = block;
+                    }
+                    int other = elements[markEnd];
+                    elements[markEnd] = s;
+                    elements[locations[s]] = other;
+                    locations[other] = locations[s];
+                    locations[s] = markEnd;
+                    markedCounts[block]++;
+                }
+            }
+
+            for (int i = 0; i < touchedCount; i++) {
+                int block = touched[i];
+                int marked = markedCounts[block];
+                markedCounts[block] = 0;
+                int size = blockEnds[block] - blockStarts[block];
+                if (marked == size) {
+                    continue;
+                }
+                int newBlock = blockCount++;
+                if (marked <= size - marked) {
+                    blockStarts[newBlock] = blockStarts[block];
+                    blockEnds[newBlock] = blockStarts[block] + marked;
+                    blockStarts[block] += marked;
+                } else {
+                    blockStarts[newBlock] = blockStarts[block] + marked;
+                    blockEnds[newBlock] = blockEnds[block];
+                    blockEnds[block] = blockStarts[block] + marked;
+                }
+                for (int k = blockStarts[newBlock]; k < blockEnds[newBlock]; k++) {
+                    blockOf[elements[k]] = newBlock;
+                }
+                for (int d = 0; d < classCount; d++) {
+                    if (worklistSize + 2 > worklist.length) {
+                        worklist = Arrays.copyOf(worklist, worklist.length * 2);
+                    }
+                    worklist[worklistSize++] = newBlock;
+                    worklist[worklistSize++] = d;
+                }
+            }
+        }
+
+        // Number blocks in breadth-first order from the start state; the dead state's
+        // block becomes the missing transition -1
+        int[] newIds = new int[blockCount];
+        Arrays.fill(newIds, -1);
+        int[] order = new int[blockCount];
+        int stateCount = 0;
+        newIds[blockOf[0]] = stateCount;
+        order[stateCount++] = blockOf[0];
+        for (int i = 0; i < stateCount; i++) {
+            int representative = elements[blockStarts[order[i]]];
+            for (int c = 0; c < classCount; c++) {
+                int next = blockOf[target(dfa, representative, c, dead)];
+                if (next != blockOf[dead] && newIds[next] < 0) {
+                    newIds[next] = stateCount;
+                    order[stateCount++] = next;
+                }
+            }
+        }
+
+        int[] transitions = new int[stateCount * classCount];
+        int[] accepts = new int[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            int representative = elements[blockStarts[order[i]]];
+            for (int c = 0; c < classCount; c++) {
+                int next = blockOf[target(dfa, representative, c, dead)];
+                transitions[i * classCount + c] = next == blockOf[dead] ? -1 : newIds[next];
+            }
+            int accept = dfa.accepts[representative];
+            accepts[i] = accept < 0 ? Lexer.NO_TOKEN : tokenOf(accept);
+        }
+        return new Lexer(grammar, classCount, rangeStarts, rangeClasses, transitions, accepts);
+    }
+
+    private int target(Dfa dfa, int state, int c, int dead) {
+        if (state == dead) {
+            return dead;
+        }
+        int next = dfa.transitions[state * classCount + c];
+        return next < 0 ? dead : next;
+    }
+
+    // A sorted set of NFA states, compared by content
+    private static class StateSet {
+        private final int[] states;
+        private final int hash;
+
+        public StateSet(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StateSet && Arrays.equals(states, ((StateSet) obj).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
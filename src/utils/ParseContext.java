@@ -0,0 +1,31 @@
+package utils;
+
+import java.util.Arrays;
+
+// The mutable state of a parse: its stack. Parsers keep none of their own, so one
+// parser can serve any number of threads, each passing its own context. A context is
+// cheap to create and can be reused for consecutive parses on one thread, so its
+// stack only grows once; it must not be used by two parses at the same time.
+public final class ParseContext {
+    private static final int DEFAULT_STACK_SIZE = 64;
+
+    private int[] stack;
+
+    public ParseContext() {
+        this(DEFAULT_STACK_SIZE);
+    }
+
+    public ParseContext(int initialStackSize) {
+        this.stack = new int[Math.max(initialStackSize, 1)];
+    }
+
+    public int[] getStack() {
+        return stack;
+    }
+
+    // Replaces the stack with one at least required entries long, keeping the contents
+    public int[] growStack(int required) {
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, required));
+        return stack;
+    }
+}
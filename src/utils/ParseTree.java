@@ -0,0 +1,284 @@
+package utils;
+
+import java.util.Arrays;
+
+// A parse tree stored as parallel int arrays rather than one object per node. Node n
+// has a symbol code (terminal id, or ~id for a non-terminal), the production that
+// expanded it (NONE for tokens), its first child and next sibling, and the span of
+// tokens it covers as [tokenStart, tokenEnd) indices. The input offset of each token is
+// kept once per token. clear() keeps the arrays, so an arena reused across parses stops
+// allocating once it has grown to the largest tree.
+//
+// Parsers fill the arena through one of two protocols: bottom-up (shift, reduce) for LR,
+// where finished subtrees wait on a stack until their parent is reduced, and top-down
+// (enter, token, exit) for LL, where children are appended to the innermost open node.
+public final class ParseTree {
+    public static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] symbolCodes = new int[INITIAL_CAPACITY];
+    private int[] productions = new int[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int[] tokenStarts = new int[INITIAL_CAPACITY];
+    private int[] tokenEnds = new int[INITIAL_CAPACITY];
+    private int nodeCount;
+    private long[] tokenOffsets = new long[INITIAL_CAPACITY];
+    private int tokenCount;
+    private int root = NONE;
+
+    // Bottom-up: roots of finished subtrees without a parent yet. Top-down: the open
+    // nodes, with the last child appended to each in lastChildren.
+    private int[] pending = new int[INITIAL_CAPACITY];
+    private int[] lastChildren = new int[INITIAL_CAPACITY];
+    private int pendingCount;
+
+    public void clear() {
+        nodeCount = 0;
+        tokenCount = 0;
+        pendingCount = 0;
+        root = NONE;
+    }
+
+    // The root once a parse has succeeded; after a failed parse, whatever was built so far
+    public int getRoot() {
+        return root;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public boolean isToken(int node) {
+        return symbolCodes[node] >= 0;
+    }
+
+    public int getSymbolCode(int node) {
+        return symbolCodes[node];
+    }
+
+    public int getProduction(int node) {
+        return productions[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public int getTokenStart(int node) {
+        return tokenStarts[node];
+    }
+
+    public int getTokenEnd(int node) {
+        return tokenEnds[node];
+    }
+
+    // Position in the input of the token with the given index, as the parser saw it:
+    // the index in a token array, or the offset reported by a TokenSource
+    public long getTokenOffset(int tokenIndex) {
+        return tokenOffsets[tokenIndex];
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Bottom-up: a token becomes a finished subtree
+    public void shift(int terminalId, long offset) {
+        pushPending(newToken(terminalId, offset));
+    }
+
+    // Bottom-up: the last childCount finished subtrees become the children of a new node
+    public void reduce(int nonTerminalId, int productionIndex, int childCount) {
+        int node = newNode(~nonTerminalId, productionIndex);
+        int first = pendingCount - childCount;
+        if (childCount == 0) {
+            tokenStarts[node] = tokenCount;
+            tokenEnds[node] = tokenCount;
+        } else {
+            for (int i = first; i < pendingCount - 1; i++) {
+                nextSiblings[pending[i]] = pending[i + 1];
+            }
+            firstChildren[node] = pending[first];
+            tokenStarts[node] = tokenStarts[pending[first]];
+            tokenEnds[node] = tokenEnds[pending[pendingCount - 1]];
+        }
+        pendingCount = first;
+        pushPending(node);
+        root = node;
+    }
+
+    // Top-down: a new node, appended to the innermost open node, becomes the innermost
+    public void enter(int nonTerminalId, int productionIndex) {
+        int node = newNode(~nonTerminalId, productionIndex);
+        tokenStarts[node] = tokenCount;
+        appendChild(node);
+        pushPending(node);
+    }
+
+    // Top-down: a token is appended to the innermost open node
+    public void token(int terminalId, long offset) {
+        appendChild(newToken(terminalId, offset));
+    }
+
+    // Top-down: closes the innermost open node
+    public void exit() {
+        tokenEnds[pending[--pendingCount]] = tokenCount;
+    }
+
+    private void appendChild(int node) {
+        if (pendingCount == 0) {
+            root = node;
+            return;
+        }
+        int parent = pending[pendingCount - 1];
+        int last = lastChildren[pendingCount - 1];
+        if (last == NONE) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[last] = node;
+        }
+        lastChildren[pendingCount - 1] = node;
+    }
+
+    private void pushPending(int node) {
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+            lastChildren = Arrays.copyOf(lastChildren, pendingCount * 2);
+        }
+        lastChildren[pendingCount] = NONE;
+        pending[pendingCount++] = node;
+    }
+
+    private int newToken(int terminalId, long offset) {
+        if (tokenCount == tokenOffsets.length) {
+            tokenOffsets = Arrays.copyOf(tokenOffsets, tokenCount * 2);
+        }
+        tokenOffsets[tokenCount] = offset;
+        int node = newNode(terminalId, NONE);
+        tokenStarts[node] = tokenCount;
+        tokenEnds[node] = ++tokenCount;
+        return node;
+    }
+
+    private int newNode(int symbolCode, int productionIndex) {
+        if (nodeCount == symbolCodes.length) {
+            int capacity = nodeCount * 2;
+            symbolCodes = Arrays.copyOf(symbolCodes, capacity);
+            productions = Arrays.copyOf(productions, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+            tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+        }
+        int node = nodeCount++;
+        symbolCodes[node] = symbolCode;
+        productions[node] = productionIndex;
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        return node;
+    }
+
+    // Indented outline of the tree, one node per line
+    public String format(Grammar grammar) {
+        StringBuilder sb = new StringBuilder();
+        if (root != NONE) {
+            Cursor cursor = cursor();
+            int depth = 0;
+            while (true) {
+                for (int i = 0; i < depth; i++) {
+                    sb.append("  ");
+                }
+                int code = cursor.getSymbolCode();
+                sb.append(code >= 0 ? grammar.getTerminal(code) : grammar.getNonTerminal(~code)).append('\n');
+                if (cursor.gotoFirstChild()) {
+                    depth++;
+                    continue;
+                }
+                while (!cursor.gotoNextSibling()) {
+                    if (!cursor.gotoParent()) {
+                        return sb.toString();
+                    }
+                    depth--;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // A position in the tree that moves between nodes; it keeps the path from the root
+    // so that it can move back up without parent links in the arena
+    public final class Cursor {
+        private int[] path = new int[16];
+        private int depth;
+
+        private Cursor() {
+            path[0] = root;
+        }
+
+        public int getNode() {
+            return path[depth];
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public boolean isToken() {
+            return ParseTree.this.isToken(path[depth]);
+        }
+
+        public int getSymbolCode() {
+            return symbolCodes[path[depth]];
+        }
+
+        public int getProduction() {
+            return productions[path[depth]];
+        }
+
+        public int getTokenStart() {
+            return tokenStarts[path[depth]];
+        }
+
+        public int getTokenEnd() {
+            return tokenEnds[path[depth]];
+        }
+
+        public boolean gotoFirstChild() {
+            int child = firstChildren[path[depth]];
+            if (child == NONE) {
+                return false;
+            }
+            if (++depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth] = child;
+            return true;
+        }
+
+        public boolean gotoNextSibling() {
+            int sibling = nextSiblings[path[depth]];
+            if (depth == 0 || sibling == NONE) {
+                return false;
+            }
+            path[depth] = sibling;
+            return true;
+        }
+
+        public boolean gotoParent() {
+            if (depth == 0) {
+                return false;
+            }
+            depth--;
+            return true;
+        }
+    }
+}
@@ -6,10 +6,17 @@ import java.util.List;
 public class Production {
     private final Symbol leftSide;
     private final List<Symbol> rightSide;
+    private final int index;
 
     public Production(Symbol leftSide, List<Symbol> rightSide) {
+        this(leftSide, rightSide, -1);
+    }
+
+    // Interned productions are created by Grammar, which assigns the dense index
+    Production(Symbol leftSide, List<Symbol> rightSide, int index) {
         this.leftSide = leftSide;
         this.rightSide = new ArrayList<>(rightSide);
+        this.index = index;
     }
 
     public Symbol getLeftSide() {
@@ -20,6 +27,19 @@ public class Production {
         return new ArrayList<>(rightSide);
     }
 
+    public int getRightSideLength() {
+        return rightSide.size();
+    }
+
+    public Symbol getRightSideSymbol(int position) {
+        return rightSide.get(position);
+    }
+
+    // Position of this production in Grammar.getProductions(), or -1 if not interned
+    public int getIndex() {
+        return index;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,91 @@
+package utils;
+
+import java.util.Arrays;
+
+// A relation over dense ids, stored as adjacency lists
+public class Relation {
+    private final int[][] edges;
+    private final int[] sizes;
+
+    public Relation(int count) {
+        this.edges = new int[count][];
+        this.sizes = new int[count];
+    }
+
+    public void add(int from, int to) {
+        if (edges[from] == null) {
+            edges[from] = new int[2];
+        } else if (sizes[from] == edges[from].length) {
+            edges[from] = Arrays.copyOf(edges[from], sizes[from] * 2);
+        }
+        edges[from][sizes[from]++] = to;
+    }
+
+    public int getSize(int from) {
+        return sizes[from];
+    }
+
+    public int getTarget(int from, int index) {
+        return edges[from][index];
+    }
+
+    // The digraph algorithm: F(x) = F'(x) ∪ ⋃{F(y) | x R y}, evaluated over strongly
+    // connected components so that every set is unioned once. sets holds F' on entry
+    // and F on return. Iterative, since relation chains can be as long as the number
+    // of ids.
+    public void propagate(long[][] sets) {
+        int count = sets.length;
+        int[] depth = new int[count];
+        int[] pushedAt = new int[count];
+        int[] stack = new int[count];
+        int stackSize = 0;
+        int[] callStack = new int[count];
+        int[] edgeCursor = new int[count];
+
+        for (int root = 0; root < count; root++) {
+            if (depth[root] != 0) {
+                continue;
+            }
+            int callSize = 0;
+            callStack[callSize++] = root;
+            stack[stackSize++] = root;
+            depth[root] = pushedAt[root] = stackSize;
+            edgeCursor[root] = 0;
+
+            while (callSize > 0) {
+                int x = callStack[callSize - 1];
+                if (edgeCursor[x] < sizes[x]) {
+                    int y = edges[x][edgeCursor[x]++];
+                    if (depth[y] == 0) {
+                        stack[stackSize++] = y;
+                        depth[y] = pushedAt[y] = stackSize;
+                        edgeCursor[y] = 0;
+                        callStack[callSize++] = y;
+                    } else {
+                        depth[x] = Math.min(depth[x], depth[y]);
+                        BitSets.or(sets[x], sets[y]);
+                    }
+                    continue;
+                }
+
+                // All successors of x are done
+                callSize--;
+                if (depth[x] == pushedAt[x]) {
+                    int top;
+                    do {
+                        top = stack[--stackSize];
+                        depth[top] = Integer.MAX_VALUE;
+                        if (top != x) {
+                            System.arraycopy(sets[x], 0, sets[top], 0, sets[x].length);
+                        }
+                    } while (top != x);
+                }
+                if (callSize > 0) {
+                    int parent = callStack[callSize - 1];
+                    depth[parent] = Math.min(depth[parent], depth[x]);
+                    BitSets.or(sets[parent], sets[x]);
+                }
+            }
+        }
+    }
+}
@@ -4,12 +4,19 @@ package utils;
 public class Symbol {
     private final String name;
     private final boolean isTerminal;
+    private final int id;
     public static final String EPSILON = "ε";
     public static final String ARROW = "→";
 
     public Symbol(String name, boolean isTerminal) {
+        this(name, isTerminal, -1);
+    }
+
+    // Interned symbols are created by Grammar, which assigns the dense id
+    Symbol(String name, boolean isTerminal, int id) {
         this.name = name;
         this.isTerminal = isTerminal;
+        this.id = id;
     }
 
     public String getName() {
@@ -20,6 +27,12 @@ public class Symbol {
         return isTerminal;
     }
 
+    // Dense id within the terminal or non-terminal id space of the owning grammar,
+    // or -1 for symbols that were not interned by a Grammar
+    public int getId() {
+        return id;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
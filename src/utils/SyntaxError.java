@@ -0,0 +1,123 @@
+package utils;
+
+import java.util.List;
+
+// A syntax error found by a recovering parse, and the repair that let the parse go on.
+// The offset is that of the token the error was found at, as the parser saw it: the
+// index in a token array, or the offset reported by a TokenSource.
+public final class SyntaxError {
+    public enum Repair {
+        // Tokens from the error on were skipped
+        DELETED,
+        // A missing terminal was assumed before the token (LL)
+        INSERTED,
+        // Tokens were skipped up to one that can follow a non-terminal, which was then
+        // taken as complete
+        SYNCHRONIZED,
+        // Tokens were skipped as the error terminal of an error production (LR)
+        ERROR_PRODUCTION,
+        // The input ended with nothing left to recover to
+        ABANDONED
+    }
+
+    private final long offset;
+    private final int foundTerminal;
+    private final int[] expectedTerminals;
+    private final Repair repair;
+    private final int symbolCode;
+    private final int skippedCount;
+
+    // symbolCode is the inserted terminal, or ~id of the synchronized non-terminal
+    public SyntaxError(long offset, int foundTerminal, int[] expectedTerminals, Repair repair,
+                       int symbolCode, int skippedCount) {
+        this.offset = offset;
+        this.foundTerminal = foundTerminal;
+        this.expectedTerminals = expectedTerminals;
+        this.repair = repair;
+        this.symbolCode = symbolCode;
+        this.skippedCount = skippedCount;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    // Terminal id of the offending token, the end marker at the end of the input
+    public int getFoundTerminal() {
+        return foundTerminal;
+    }
+
+    // Terminal ids the parser could have gone on with, in ascending order
+    public int[] getExpectedTerminals() {
+        return expectedTerminals.clone();
+    }
+
+    public Repair getRepair() {
+        return repair;
+    }
+
+    public int getSymbolCode() {
+        return symbolCode;
+    }
+
+    // Number of tokens skipped, the offending one included
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    // Adds this error to a list, or, when it continues the last error there because the
+    // parse has not got past that error's token since, replaces that one: the combined
+    // error is at the first error's token, with this error's repair and both skips
+    public void addTo(List<SyntaxError> errors, boolean continuesLast) {
+        if (!continuesLast) {
+            errors.add(this);
+            return;
+        }
+        SyntaxError last = errors.get(errors.size() - 1);
+        errors.set(errors.size() - 1, new SyntaxError(last.offset, last.foundTerminal, last.expectedTerminals,
+                                                      repair, symbolCode, last.skippedCount + skippedCount));
+    }
+
+    public String format(Grammar grammar) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(offset).append(": unexpected ").append(grammar.getTerminal(foundTerminal).getName());
+        if (expectedTerminals.length > 0) {
+            sb.append(", expected ");
+            for (int i = 0; i < expectedTerminals.length; i++) {
+                if (i > 0) {
+                    sb.append(i == expectedTerminals.length - 1 ? " or " : ", ");
+                }
+                sb.append(grammar.getTerminal(expectedTerminals[i]).getName());
+            }
+        }
+        sb.append(" (");
+        if (skippedCount > 0) {
+            sb.append("skipped ").append(skippedCount).append(skippedCount == 1 ? " token" : " tokens");
+            if (repair != Repair.DELETED) {
+                sb.append(", ");
+            }
+        }
+        switch (repair) {
+            case INSERTED:
+                sb.append("inserted ").append(grammar.getTerminal(symbolCode).getName());
+                break;
+            case SYNCHRONIZED:
+                sb.append("completed ").append(grammar.getNonTerminal(~symbolCode).getName());
+                break;
+            case ERROR_PRODUCTION:
+                sb.append("resumed after ").append(Grammar.ERROR_TERMINAL);
+                break;
+            case ABANDONED:
+                sb.append("gave up");
+                break;
+            default:
+                break;
+        }
+        return sb.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return offset + ": " + repair + " at terminal " + foundTerminal;
+    }
+}
@@ -0,0 +1,96 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Directory of table files keyed by a SHA-256 of the normalized grammar and the
+// construction mode. Entries are written to a temporary file and renamed into place,
+// so concurrent processes sharing the directory only ever see complete files; when
+// two of them build the same entry, the last rename wins with identical content.
+// The cache is best effort: a failed write leaves it unchanged.
+public class TableCache {
+    // System property overriding the directory of the default cache
+    public static final String DIRECTORY_PROPERTY = "syntaxforge.cache.dir";
+
+    private static TableCache defaultCache;
+
+    private final Path directory;
+
+    public TableCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // The cache in the directory named by the syntaxforge.cache.dir property, or in
+    // .cache/syntaxforge under the user's home directory
+    public static synchronized TableCache getDefault() {
+        if (defaultCache == null) {
+            String configured = System.getProperty(DIRECTORY_PROPERTY);
+            Path directory = configured != null
+                    ? Paths.get(configured)
+                    : Paths.get(System.getProperty("user.home"), ".cache", "syntaxforge");
+            defaultCache = new TableCache(directory);
+        }
+        return defaultCache;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Location of the entry for a grammar and mode, whether or not it exists
+    public Path getPath(Grammar grammar, String mode) {
+        return directory.resolve(key(grammar, mode) + ".tbl");
+    }
+
+    public static String key(Grammar grammar, String mode) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(mode.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(ByteBuffer.allocate(4).putInt(TableFile.VERSION).array());
+        digest.update(TableFile.encodeGrammar(grammar));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Writes an entry atomically. Returns false if it could not be written.
+    public boolean store(Path path, TableWriter writer) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            writer.write(temporary);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // Nothing else to clean up
+                }
+            }
+            return false;
+        }
+    }
+
+    public interface TableWriter {
+        void write(Path path) throws IOException;
+    }
+}
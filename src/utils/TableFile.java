@@ -0,0 +1,243 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+// Binary file holding a compiled grammar and its parsing tables. All values are
+// little-endian ints, so table sections can be read in place from a mapped file:
+//
+//   magic, version, kind, grammar checksum, grammar length (bytes)
+//   grammar: terminal count, non-terminal count, production count, start id,
+//            names (byte length + UTF-8, padded to 4 bytes),
+//            productions (left side id, length, symbols as id or ~id)
+//   section count, then per section: length (ints), values
+//
+// The checksum is a CRC32C of the grammar block, so a file can be checked against
+// the grammar it is meant for without rebuilding anything.
+public class TableFile {
+    public static final int MAGIC = 0x54504653; // "SFPT"
+    public static final int VERSION = 1;
+    public static final int LL_TABLE = 0;
+
+    private static final int HEADER_INTS = 5;
+
+    private final int kind;
+    private final int checksum;
+    private final Grammar grammar;
+    private final IntBuffer[] sections;
+
+    private TableFile(int kind, int checksum, Grammar grammar, IntBuffer[] sections) {
+        this.kind = kind;
+        this.checksum = checksum;
+        this.grammar = grammar;
+        this.sections = sections;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    // The grammar stored in the file; symbol and production ids match the tables
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public int getSectionCount() {
+        return sections.length;
+    }
+
+    // A read-only view of a section, backed by the mapped file
+    public IntBuffer getSection(int index) {
+        return sections[index];
+    }
+
+    public static int checksum(Grammar grammar) {
+        ByteBuffer block = encodeGrammar(grammar);
+        CRC32C crc = new CRC32C();
+        crc.update(block);
+        return (int) crc.getValue();
+    }
+
+    public static void write(Path path, int kind, Grammar grammar, IntBuffer... sections) throws IOException {
+        ByteBuffer grammarBlock = encodeGrammar(grammar);
+        CRC32C crc = new CRC32C();
+        crc.update(grammarBlock.duplicate());
+
+        long size = 4L * HEADER_INTS + grammarBlock.remaining() + 4;
+        for (IntBuffer section : sections) {
+            size += 4L + 4L * section.remaining();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tables too large for a table file: " + size + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt((int) crc.getValue());
+        buffer.putInt(grammarBlock.remaining());
+        buffer.put(grammarBlock);
+        buffer.putInt(sections.length);
+        for (IntBuffer section : sections) {
+            buffer.putInt(section.remaining());
+            buffer.asIntBuffer().put(section.duplicate());
+            buffer.position(buffer.position() + 4 * section.remaining());
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Maps a table file. Sections are views of the mapping and are not copied.
+    public static TableFile read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a table file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported table file version " + version + ": " + path);
+            }
+            int kind = buffer.getInt();
+            int checksum = buffer.getInt();
+            int grammarLength = buffer.getInt();
+
+            ByteBuffer grammarBlock = slice(buffer, grammarLength);
+            CRC32C crc = new CRC32C();
+            crc.update(grammarBlock.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt table file, grammar checksum mismatch: " + path);
+            }
+            Grammar grammar = decodeGrammar(grammarBlock.order(ByteOrder.LITTLE_ENDIAN));
+
+            IntBuffer[] sections = new IntBuffer[buffer.getInt()];
+            for (int i = 0; i < sections.length; i++) {
+                int length = buffer.getInt();
+                sections[i] = slice(buffer, 4 * length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return new TableFile(kind, checksum, grammar, sections);
+        } catch (RuntimeException e) {
+            // Truncated files and out-of-range ids surface as buffer or array errors
+            throw new IOException("Malformed table file: " + path, e);
+        }
+    }
+
+    // Reads a table file and checks that it was built for the given grammar and kind
+    public static TableFile read(Path path, Grammar expected, int expectedKind) throws IOException {
+        TableFile file = read(path);
+        if (file.getChecksum() != checksum(expected)) {
+            throw new IOException("Stale table file, built for a different grammar: " + path);
+        }
+        if (file.getKind() != expectedKind) {
+            throw new IOException("Table file holds kind " + file.getKind() + ", expected " +
+                                  expectedKind + ": " + path);
+        }
+        return file;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + length);
+        buffer.position(buffer.position() + length);
+        return view.slice();
+    }
+
+    // The grammar block: a normalized form of the grammar that ignores layout and
+    // comments in the grammar text but keeps symbol order, which fixes the ids
+    static ByteBuffer encodeGrammar(Grammar grammar) {
+        List<byte[]> names = new ArrayList<>();
+        for (int t = 0; t < grammar.getTerminalCount(); t++) {
+            names.add(grammar.getTerminal(t).getName().getBytes(StandardCharsets.UTF_8));
+        }
+        for (int n = 0; n < grammar.getNonTerminalCount(); n++) {
+            names.add(grammar.getNonTerminal(n).getName().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int size = 16;
+        for (byte[] name : names) {
+            size += 4 + padded(name.length);
+        }
+        for (Production prod : grammar.getProductions()) {
+            size += 8 + 4 * prod.getRightSideLength();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(grammar.getTerminalCount()).putInt(grammar.getNonTerminalCount());
+        buffer.putInt(grammar.getProductionCount()).putInt(grammar.getStartSymbol().getId());
+        for (byte[] name : names) {
+            buffer.putInt(name.length).put(name);
+            buffer.position(buffer.position() + padded(name.length) - name.length);
+        }
+        for (Production prod : grammar.getProductions()) {
+            buffer.putInt(prod.getLeftSide().getId()).putInt(prod.getRightSideLength());
+            for (int i = 0; i < prod.getRightSideLength(); i++) {
+                Symbol symbol = prod.getRightSideSymbol(i);
+                buffer.putInt(symbol.isTerminal() ? symbol.getId() : ~symbol.getId());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Grammar decodeGrammar(ByteBuffer buffer) {
+        int terminalCount = buffer.getInt();
+        int nonTerminalCount = buffer.getInt();
+        int productionCount = buffer.getInt();
+        int startId = buffer.getInt();
+
+        // Sets keep id order, so the rebuilt grammar assigns the same ids
+        List<Symbol> terminalList = new ArrayList<>(terminalCount);
+        List<Symbol> nonTerminalList = new ArrayList<>(nonTerminalCount);
+        for (int i = 0; i < terminalCount + nonTerminalCount; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            buffer.position(buffer.position() + padded(name.length) - name.length);
+            Symbol symbol = new Symbol(new String(name, StandardCharsets.UTF_8), i < terminalCount);
+            (i < terminalCount ? terminalList : nonTerminalList).add(symbol);
+        }
+
+        List<Production> productions = new ArrayList<>(productionCount);
+        for (int p = 0; p < productionCount; p++) {
+            Symbol leftSide = nonTerminalList.get(buffer.getInt());
+            int length = buffer.getInt();
+            List<Symbol> rightSide = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                int code = buffer.getInt();
+                rightSide.add(code >= 0 ? terminalList.get(code) : nonTerminalList.get(~code));
+            }
+            productions.add(new Production(leftSide, rightSide));
+        }
+
+        Set<Symbol> terminals = new LinkedHashSet<>(terminalList);
+        Set<Symbol> nonTerminals = new LinkedHashSet<>(nonTerminalList);
+        return new Grammar(terminals, nonTerminals, productions, nonTerminalList.get(startId));
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+}
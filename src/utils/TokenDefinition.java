@@ -0,0 +1,39 @@
+package utils;
+
+// Lexical definition of a terminal, or of text to skip between tokens: either a
+// literal string or a regular expression
+public class TokenDefinition {
+    private final String terminalName;
+    private final String pattern;
+    private final boolean literal;
+
+    // terminalName is null for a skip definition
+    public TokenDefinition(String terminalName, String pattern, boolean literal) {
+        this.terminalName = terminalName;
+        this.pattern = pattern;
+        this.literal = literal;
+    }
+
+    public String getTerminalName() {
+        return terminalName;
+    }
+
+    // The literal text, or the source of the regular expression
+    public String getPattern() {
+        return pattern;
+    }
+
+    public boolean isLiteral() {
+        return literal;
+    }
+
+    public boolean isSkip() {
+        return terminalName == null;
+    }
+
+    @Override
+    public String toString() {
+        String text = literal ? "\"" + pattern + "\"" : "/" + pattern + "/";
+        return isSkip() ? "%skip " + text : "%token " + terminalName + " " + text;
+    }
+}
@@ -0,0 +1,44 @@
+package utils;
+
+import java.io.IOException;
+
+// Pull-based parser input: tokens are produced one at a time as the parser asks for
+// them, so the input never has to be held in memory as a whole
+public interface TokenSource {
+    // Returned by nextToken() once the input is exhausted
+    int END_OF_INPUT = -1;
+
+    // Terminal id of the next token, or END_OF_INPUT
+    int nextToken() throws IOException;
+
+    // Position and length in the input of the token last returned by nextToken(), in
+    // the units of the source (characters for text, indices for arrays)
+    long getTokenOffset();
+
+    int getTokenLength();
+
+    // Source over the first length terminal ids of an array
+    static TokenSource of(int[] tokens, int length) {
+        return new TokenSource() {
+            private int position = -1;
+
+            @Override
+            public int nextToken() {
+                if (position < length) {
+                    position++;
+                }
+                return position < length ? tokens[position] : END_OF_INPUT;
+            }
+
+            @Override
+            public long getTokenOffset() {
+                return position;
+            }
+
+            @Override
+            public int getTokenLength() {
+                return 1;
+            }
+        };
+    }
+}